@@ -0,0 +1,93 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * An embedded H2 database shared by the benchmarks of a trial, holding a table of {@link #ROWS} rows.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+    public static final String TABLE = "bench";
+    public static final int ROWS = 10000;
+    private DataManager dataManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        this.dataManager = new DataManager(DataType.H2, "sa", "");
+        this.dataManager.getLogger().getLogger().setLevel(java.util.logging.Level.OFF);
+        this.dataManager.setDirectory("./target/jmh/");
+        this.dataManager.setDatabase("benchmark");
+        this.dataManager.setKeepAlive(true);
+        this.dataManager.executeQuery("DROP TABLE IF EXISTS `" + TABLE + "`");
+        this.dataManager.executeQuery("CREATE TABLE `" + TABLE + "` (`id` INT AUTO_INCREMENT PRIMARY KEY, `name` VARCHAR(64), "
+                + "`value` INT, `created` TIMESTAMP)");
+        List<Object[]> rows = new ArrayList<Object[]>(ROWS);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= ROWS; i++) {
+            rows.add(new Object[] { i, "name" + i, i * 7, new Timestamp(now - i * 1000L) });
+        }
+        this.dataManager.bulkLoad(TABLE, Arrays.asList("id", "name", "value", "created"), rows, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.dataManager.executeQuery("DROP TABLE IF EXISTS `" + TABLE + "`");
+        this.dataManager.close(true);
+    }
+
+    public DataManager getDataManager() {
+        return this.dataManager;
+    }
+
+    /**
+     * Builds a query returning a result of the given size without touching any table,
+     * alternating integer and text columns.
+     *
+     * @param  columns  the amount of columns
+     * @param  rows     the amount of rows
+     * @return          the query
+     */
+    public static String wideQuery(int columns, int rows) {
+        StringBuilder query = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns; i++) {
+            if (i > 0) {
+                query.append(", ");
+            }
+            if (i % 2 == 0) {
+                query.append("X + ").append(i).append(" AS C").append(i);
+            } else {
+                query.append("CAST(X AS VARCHAR) AS C").append(i);
+            }
+        }
+        return query.append(" FROM SYSTEM_RANGE(1, ").append(rows).append(")").toString();
+    }
+}
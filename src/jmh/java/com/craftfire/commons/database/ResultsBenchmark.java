@@ -0,0 +1,121 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads of whole results of various widths and lengths, materialized as {@link Results} or {@link CompactResults},
+ * or iterated with a {@link ResultCursor}. The rows benchmarks compare building the fields with a metadata lookup per
+ * cell against {@link ColumnDescriptor}s resolved once per result set.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultsBenchmark {
+    @Param({ "2", "10", "40" })
+    public int columns;
+    @Param({ "1", "100", "10000" })
+    public int rows;
+    private String query;
+
+    @Setup
+    public void setUp() {
+        this.query = BenchmarkDatabase.wideQuery(this.columns, this.rows);
+    }
+
+    @Benchmark
+    public Results getResults(BenchmarkDatabase database) throws SQLException {
+        return database.getDataManager().getResults(this.query);
+    }
+
+    @Benchmark
+    public CompactResults getCompactResults(BenchmarkDatabase database) throws SQLException {
+        return database.getDataManager().getCompactResults(this.query);
+    }
+
+    @Benchmark
+    public void stream(BenchmarkDatabase database, Blackhole blackhole) throws SQLException {
+        ResultCursor cursor = database.getDataManager().stream(this.query);
+        try {
+            for (DataRow row : cursor) {
+                blackhole.consume(row);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Benchmark
+    public long rowsPerCellMetadata(BenchmarkDatabase database) throws SQLException {
+        return database.getDataManager().processQuery(this.query, new ResultSetHandler<Long>() {
+            @Override
+            public Long handle(ResultSet resultSet) throws SQLException {
+                int count = resultSet.getMetaData().getColumnCount();
+                long fields = 0;
+                while (resultSet.next()) {
+                    DataRow row = new DataRow(count);
+                    for (int i = 1; i <= count; i++) {
+                        row.add(new DataField(i, resultSet));
+                    }
+                    fields += row.size();
+                }
+                return fields;
+            }
+        });
+    }
+
+    @Benchmark
+    public long rowsColumnDescriptors(BenchmarkDatabase database) throws SQLException {
+        return database.getDataManager().processQuery(this.query, new ResultSetHandler<Long>() {
+            @Override
+            public Long handle(ResultSet resultSet) throws SQLException {
+                ColumnDescriptor[] columns = ColumnDescriptor.describe(resultSet.getMetaData());
+                long fields = 0;
+                while (resultSet.next()) {
+                    DataRow row = new DataRow(columns.length);
+                    for (ColumnDescriptor column : columns) {
+                        row.add(new DataField(column, resultSet));
+                    }
+                    fields += row.size();
+                }
+                return fields;
+            }
+        });
+    }
+}
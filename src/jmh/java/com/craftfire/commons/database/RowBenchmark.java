@@ -0,0 +1,92 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * In-memory costs which do not touch the database: named access to the fields of a {@link DataRow},
+ * and constructing {@link DataField}s from {@link ColumnDescriptor}s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RowBenchmark {
+    @Param({ "2", "10", "40" })
+    public int columns;
+    private DataRow row;
+    private String[] names;
+    private ColumnDescriptor[] descriptors;
+    private Object[] values;
+
+    @Setup
+    public void setUp(BenchmarkDatabase database) throws SQLException {
+        String query = BenchmarkDatabase.wideQuery(this.columns, 1);
+        this.row = database.getDataManager().getResults(query).getFirstResult();
+        this.descriptors = database.getDataManager().processQuery(query, new ResultSetHandler<ColumnDescriptor[]>() {
+            @Override
+            public ColumnDescriptor[] handle(ResultSet resultSet) throws SQLException {
+                return ColumnDescriptor.describe(resultSet.getMetaData());
+            }
+        });
+        this.names = new String[this.columns];
+        this.values = new Object[this.columns];
+        for (int i = 0; i < this.columns; i++) {
+            this.names[i] = this.descriptors[i].getLabel();
+            this.values[i] = this.row.get(this.names[i]).getValue();
+        }
+    }
+
+    @Benchmark
+    public void namedAccess(Blackhole blackhole) {
+        for (int i = 0; i < this.names.length; i++) {
+            if (i % 2 == 0) {
+                blackhole.consume(this.row.getIntField(this.names[i]));
+            } else {
+                blackhole.consume(this.row.getStringField(this.names[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    public void createFields(Blackhole blackhole) {
+        for (int i = 0; i < this.descriptors.length; i++) {
+            blackhole.consume(new DataField(this.descriptors[i], this.values[i]));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single row writes through {@link DataManager#insertFields(Map, String)} and {@link DataManager#updateFields(Map, String, String, Object...)}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteBenchmark {
+    private final Random random = new Random(42);
+    private final Map<String, Object> data = new HashMap<String, Object>();
+
+    @Benchmark
+    public void insertFields(BenchmarkDatabase database) throws SQLException {
+        this.data.put("name", "inserted");
+        this.data.put("value", this.random.nextInt());
+        database.getDataManager().insertFields(this.data, BenchmarkDatabase.TABLE);
+    }
+
+    @Benchmark
+    public void updateFields(BenchmarkDatabase database) throws SQLException {
+        this.data.put("name", "updated");
+        this.data.put("value", this.random.nextInt());
+        database.getDataManager().updateFields(this.data, BenchmarkDatabase.TABLE, "`id` = ?", this.random.nextInt(BenchmarkDatabase.ROWS) + 1);
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The items of one group of a {@link CacheManager}.
+ * <p>
+ * Lookups go straight to a concurrent map. The least recently used order is kept in a separate access-ordered map,
+ * guarded by a lock: writes update it directly, reads of bounded groups are recorded in a lossy buffer which is replayed
+ * once it fills up, or at the next write. This keeps reads free of locks, at the cost of a slightly approximate order.
+ * <p>
+ * Every item is also scheduled on a {@link TimerWheel} by its expiration time, so expired items can be found without
+ * scanning the group. Writes sweep the wheel when a tick has passed, and {@link CacheManager} sweeps idle groups too.
+ */
+final class CacheGroup {
+    private static final int READ_BUFFER_SIZE = 128, DRAIN_THRESHOLD = 32;
+    private static final long MAX_DELAY = TimeUnit.DAYS.toNanos(365);
+    private final CacheManager manager;
+    private final String name;
+    private final ConcurrentMap<Object, CacheItem> items = new ConcurrentHashMap<Object, CacheItem>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Object, Node> order = new LinkedHashMap<Object, Node>(16, 0.75f, true);
+    private final Queue<Object> reads = new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger pendingReads = new AtomicInteger();
+    private final TimerWheel expiry;
+    private volatile int maxSize;
+    private volatile long maxWeight;
+    private long weight;
+
+    CacheGroup(CacheManager manager, String name) {
+        this.manager = manager;
+        this.name = name;
+        this.expiry = new TimerWheel(CacheManager.EXPIRY_TICK, manager.now());
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    Map<Object, CacheItem> getItems() {
+        return Collections.unmodifiableMap(this.items);
+    }
+
+    int size() {
+        return this.items.size();
+    }
+
+    long getWeight() {
+        this.lock.lock();
+        try {
+            return this.weight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    void setLimits(int maxSize, long maxWeight) {
+        this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
+        cleanUp();
+    }
+
+    CacheItem get(Object id) {
+        CacheItem item = this.items.get(id);
+        if (item != null && (this.maxSize > 0 || this.maxWeight > 0)) {
+            recordRead(id);
+        }
+        return item;
+    }
+
+    void put(Object id, CacheItem item) {
+        this.items.put(id, item);
+        List<CacheItem> evicted, expired = null;
+        this.lock.lock();
+        try {
+            drainReads();
+            sync(id);
+            long now = this.manager.now();
+            if (this.expiry.isBehind(now)) {
+                expired = expire(now);
+            }
+            evicted = evict();
+        } finally {
+            this.lock.unlock();
+        }
+        this.manager.evicted(this.name, expired, EvictionListener.Cause.EXPIRED);
+        this.manager.evicted(this.name, evicted, EvictionListener.Cause.SIZE);
+    }
+
+    CacheItem remove(Object id) {
+        CacheItem item = this.items.remove(id);
+        if (item != null) {
+            synced(id);
+        }
+        return item;
+    }
+
+    /**
+     * Removes an item, unless it has been replaced in the meantime.
+     *
+     * @param  id    the ID
+     * @param  item  the item
+     * @return       true if the item was removed
+     */
+    boolean remove(Object id, CacheItem item) {
+        if (this.items.remove(id, item)) {
+            synced(id);
+            return true;
+        }
+        return false;
+    }
+
+    void clear() {
+        this.items.clear();
+        this.lock.lock();
+        try {
+            for (Node node : this.order.values()) {
+                this.expiry.cancel(node);
+            }
+            this.order.clear();
+            this.weight = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Replays the recorded reads and evicts items until the group is within its limits.
+     */
+    void cleanUp() {
+        List<CacheItem> evicted;
+        this.lock.lock();
+        try {
+            drainReads();
+            evicted = evict();
+        } finally {
+            this.lock.unlock();
+        }
+        this.manager.evicted(this.name, evicted, EvictionListener.Cause.SIZE);
+    }
+
+    /**
+     * Removes the items which have expired.
+     *
+     * @param now  the current time
+     */
+    void sweep(long now) {
+        List<CacheItem> expired;
+        this.lock.lock();
+        try {
+            expired = expire(now);
+        } finally {
+            this.lock.unlock();
+        }
+        this.manager.evicted(this.name, expired, EvictionListener.Cause.EXPIRED);
+    }
+
+    private void recordRead(Object id) {
+        if (this.pendingReads.incrementAndGet() > READ_BUFFER_SIZE) {
+            // The buffer is full, drop this read rather than wait for the lock.
+            this.pendingReads.decrementAndGet();
+        } else {
+            this.reads.offer(id);
+        }
+        if (this.pendingReads.get() >= DRAIN_THRESHOLD && this.lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    private void synced(Object id) {
+        this.lock.lock();
+        try {
+            sync(id);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Must hold the lock.
+    private void drainReads() {
+        Object id;
+        while ((id = this.reads.poll()) != null) {
+            this.pendingReads.decrementAndGet();
+            this.order.get(id);
+        }
+    }
+
+    // Must hold the lock. Brings the order and weight of an ID in line with the current item, whichever thread put it.
+    private void sync(Object id) {
+        CacheItem item = this.items.get(id);
+        Node node = item == null ? null : new Node(id, item, this.manager.weigh(id, item.getObject()));
+        Node previous = this.order.remove(id);
+        if (previous != null) {
+            this.weight -= previous.weight;
+            this.expiry.cancel(previous);
+        }
+        if (node != null) {
+            this.order.put(id, node);
+            this.weight += node.weight;
+            schedule(node, this.manager.now());
+        }
+    }
+
+    // Must hold the lock.
+    private List<CacheItem> evict() {
+        int maxSize = this.maxSize;
+        long maxWeight = this.maxWeight;
+        List<CacheItem> evicted = null;
+        Iterator<Map.Entry<Object, Node>> iterator = this.order.entrySet().iterator();
+        while (((maxSize > 0 && this.order.size() > maxSize) || (maxWeight > 0 && this.weight > maxWeight)) && iterator.hasNext()) {
+            Map.Entry<Object, Node> eldest = iterator.next();
+            iterator.remove();
+            this.weight -= eldest.getValue().weight;
+            this.expiry.cancel(eldest.getValue());
+            if (this.items.remove(eldest.getKey(), eldest.getValue().item)) {
+                if (evicted == null) {
+                    evicted = new ArrayList<CacheItem>();
+                }
+                evicted.add(eldest.getValue().item);
+            }
+        }
+        return evicted;
+    }
+
+    // Must hold the lock.
+    private List<CacheItem> expire(long now) {
+        List<CacheItem> expired = null;
+        for (TimerWheel.Node timer : this.expiry.advance(now)) {
+            Node node = (Node) timer;
+            if (!node.item.isExpired()) {
+                // Looked up since it was scheduled, with sliding expiry.
+                schedule(node, now);
+                continue;
+            }
+            // Replaced items are cancelled, so this is the current node of its ID; but never drop a newer one.
+            Node current = this.order.remove(node.id);
+            if (current != node) {
+                if (current != null) {
+                    this.order.put(node.id, current);
+                }
+                continue;
+            }
+            this.weight -= node.weight;
+            if (this.items.remove(node.id, node.item)) {
+                if (expired == null) {
+                    expired = new ArrayList<CacheItem>();
+                }
+                expired.add(node.item);
+            }
+        }
+        return expired;
+    }
+
+    // Must hold the lock.
+    private void schedule(Node node, long now) {
+        this.expiry.schedule(node, now + Math.min(node.item.getNanosLeft(), MAX_DELAY));
+    }
+
+    private static final class Node extends TimerWheel.Node {
+        private final Object id;
+        private final CacheItem item;
+        private final long weight;
+
+        Node(Object id, CacheItem item, long weight) {
+            this.id = id;
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+}
@@ -19,15 +19,51 @@
  */
 package com.craftfire.commons.cache;
 
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An object in a {@link CacheManager}, with the time it stays cached.
+ * <p>
+ * Expiry is measured with a monotonic {@link Ticker} in nanoseconds, so it is not affected by changes to the system
+ * clock. An item with sliding expiry stays cached until it has not been looked up for its time-to-live.
+ */
 public class CacheItem {
-    private final int time, cacheTime;
+    private final int time;
     private final Object id, object;
-    
+    private final long ttl, created;
+    private final boolean sliding;
+    private final Ticker ticker;
+    private volatile long accessed;
+
     public CacheItem(Object id, int cacheTime, Object object) {
+        this(id, object, cacheTime, TimeUnit.SECONDS, false, Ticker.SYSTEM);
+    }
+
+    /**
+     * Creates a cache item.
+     *
+     * @param id       the ID of the item
+     * @param object   the cached object
+     * @param ttl      how long the object stays cached
+     * @param unit     the unit of the time-to-live
+     * @param sliding  true to count the time-to-live from the last lookup instead of from now
+     * @param ticker   the time source
+     */
+    public CacheItem(Object id, Object object, long ttl, TimeUnit unit, boolean sliding, Ticker ticker) {
+        if (unit == null) {
+            throw new IllegalArgumentException("Parameter 'unit' cannot be null.");
+        }
+        if (ticker == null) {
+            throw new IllegalArgumentException("Parameter 'ticker' cannot be null.");
+        }
         this.id = id;
-        this.time = (int) System.currentTimeMillis() / 1000;
-        this.cacheTime = cacheTime;
         this.object = object;
+        this.time = (int) (System.currentTimeMillis() / 1000);
+        this.ttl = Math.max(unit.toNanos(ttl), 0);
+        this.sliding = sliding;
+        this.ticker = ticker;
+        this.created = ticker.read();
+        this.accessed = this.created;
     }
 
     /**
@@ -49,19 +85,66 @@ public class CacheItem {
     }
 
     /**
-     * Returns the amount of seconds left on the cache.
+     * Returns the amount of whole seconds left on the cache.
      *
-     * @return Seconds left
+     * @return Seconds left, 0 if the cache has expired
      */
     public int getSecondsLeft() {
-        return (int) ((System.currentTimeMillis() / 1000) - this.time - this.cacheTime);
+        return (int) Math.min(getTimeLeft(TimeUnit.SECONDS), Integer.MAX_VALUE);
     }
-    
+
+    /**
+     * Returns the time left on the cache.
+     *
+     * @param  unit  the unit of the returned time, the time is rounded down
+     * @return       the time left, 0 if the cache has expired
+     */
+    public long getTimeLeft(TimeUnit unit) {
+        return unit.convert(getNanosLeft(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns whether the cache has expired.
+     *
+     * @return true if the cache has expired
+     */
+    public boolean isExpired() {
+        return getNanosLeft() == 0;
+    }
+
+    /**
+     * Returns whether the time-to-live counts from the last lookup instead of from when the cache was created.
+     *
+     * @return true if the cache has sliding expiry
+     */
+    public boolean isSliding() {
+        return this.sliding;
+    }
+
     public int getCacheTime() {
-        return this.cacheTime;
+        return (int) Math.min(TimeUnit.NANOSECONDS.toSeconds(this.ttl), Integer.MAX_VALUE);
+    }
+
+    public long getTTL(TimeUnit unit) {
+        return unit.convert(this.ttl, TimeUnit.NANOSECONDS);
     }
-    
+
     public Object getObject() {
         return this.object;
     }
+
+    /**
+     * Records a lookup, which restarts the time-to-live of an item with sliding expiry.
+     */
+    void accessed() {
+        if (this.sliding) {
+            this.accessed = this.ticker.read();
+        }
+    }
+
+    long getNanosLeft() {
+        // Subtracting readings instead of comparing deadlines stays correct when the ticker overflows.
+        long elapsed = this.ticker.read() - (this.sliding ? this.accessed : this.created);
+        return elapsed >= this.ttl ? 0 : this.ttl - Math.max(elapsed, 0);
+    }
 }
@@ -0,0 +1,36 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.cache;
+
+/**
+ * Computes the object of a cache miss, see {@link CacheManager#get(String, Object, CacheLoader)}.
+ *
+ * @param <T>  type of the loaded objects
+ */
+public interface CacheLoader<T> {
+    /**
+     * Loads the object with the given ID.
+     *
+     * @param  id         the ID
+     * @return            the object, may be null
+     * @throws Exception  if the object could not be loaded
+     */
+    T load(Object id) throws Exception;
+}
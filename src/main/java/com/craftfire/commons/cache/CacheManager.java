@@ -19,17 +19,68 @@
  */
 package com.craftfire.commons.cache;
 
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.craftfire.commons.util.Util;
 
+/**
+ * A cache of objects, stored by ID in named groups. Group names are case-insensitive.
+ * <p>
+ * The cache is safe for use by multiple threads. Groups are concurrent maps, so reads never block and writes only
+ * contend with writes to the same part of the same group. Generated IDs come from an atomic counter per group.
+ * <p>
+ * Groups can be limited to a number of items and to a total weight, as estimated by a {@link Weigher}. When a write
+ * takes a group over its limits, the least recently used items are evicted and the {@link EvictionListener}s notified.
+ * <p>
+ * Expired items are removed when they are looked up, when a write to their group finds that the expiry
+ * {@link TimerWheel} has to turn, and by a background sweep of all groups every {@link #getSweepInterval() sweep interval}.
+ * The sweeps of all cache managers run on one shared daemon thread.
+ * <p>
+ * {@link #get(String, Object, CacheLoader)} loads missing objects with only one load per ID in flight, and can reload
+ * objects in the background shortly before they expire, see {@link #setRefreshAhead(long, TimeUnit)}.
+ */
 public class CacheManager {
     protected static final String defaultGroup = "default";
-    private Map<String, Map<Object, CacheItem>> items = new HashMap<String, Map<Object, CacheItem>>();
-    private Map<Object, Integer> lastID = new HashMap<Object, Integer>();
-    private int seconds = 300;
-    private boolean enabled = true;
+    static final long EXPIRY_TICK = TimeUnit.MILLISECONDS.toNanos(100);
+    private static ScheduledExecutorService sweeper = null;
+    private static ExecutorService refresher = null;
+    private final ConcurrentMap<String, CacheGroup> items = new ConcurrentHashMap<String, CacheGroup>();
+    private final ConcurrentMap<String, AtomicInteger> lastID = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentMap<String, Integer> maxSizes = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<String, Long> maxWeights = new ConcurrentHashMap<String, Long>();
+    private final List<EvictionListener> listeners = new CopyOnWriteArrayList<EvictionListener>();
+    private final ConcurrentMap<LoadKey, Load> loading = new ConcurrentHashMap<LoadKey, Load>();
+    private final AtomicLong evictions = new AtomicLong(), expirations = new AtomicLong(), sweeps = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong(), loadFailures = new AtomicLong(), refreshes = new AtomicLong();
+    private volatile int seconds = 300, maxSize = 0;
+    private volatile long maxWeight = 0;
+    private volatile Weigher weigher = null;
+    private volatile Ticker ticker = Ticker.SYSTEM;
+    private volatile long refreshAhead = 0;
+    private volatile Executor refreshExecutor = null;
+    private volatile boolean enabled = true;
+    private int sweepInterval = 1000;
+    private Sweep sweep = null;
 
     public void setCacheTime(int seconds) {
         this.seconds = seconds;
@@ -47,28 +98,289 @@ public class CacheManager {
         return this.enabled;
     }
 
+    /**
+     * Returns read-only views of the items of all groups.
+     *
+     * @return the items by group
+     */
     public Map<String, Map<Object, CacheItem>> getCache() {
-        return this.items;
+        Map<String, Map<Object, CacheItem>> cache = new LinkedHashMap<String, Map<Object, CacheItem>>();
+        for (CacheGroup group : this.items.values()) {
+            cache.put(group.getName(), group.getItems());
+        }
+        return cache;
     }
 
+    /**
+     * Returns a read-only view of the items of a group.
+     *
+     * @param  group  the group
+     * @return        the items, or null if the group doesn't exist
+     */
     public Map<Object, CacheItem> getCache(String group) {
         if (this.containsGroup(group)) {
-            return this.items.get(group);
+            CacheGroup cacheGroup = this.items.get(group.toLowerCase());
+            if (cacheGroup != null) {
+                return cacheGroup.getItems();
+            }
         }
         return null;
     }
 
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Sets how many items groups without a limit of their own may hold.
+     *
+     * @param items  the maximum amount of items, 0 for no limit
+     */
+    public void setMaxSize(int items) {
+        if (items < 0) {
+            throw new IllegalArgumentException("Parameter 'items' cannot be negative.");
+        }
+        this.maxSize = items;
+        applyLimits();
+    }
+
+    public int getMaxSize(String group) {
+        Integer items = this.maxSizes.get(group.toLowerCase());
+        return items == null ? this.maxSize : items;
+    }
+
+    /**
+     * Sets how many items a group may hold. The least recently used items are evicted when it holds more.
+     *
+     * @param group  the group
+     * @param items  the maximum amount of items, 0 for no limit
+     */
+    public void setMaxSize(String group, int items) {
+        if (items < 0) {
+            throw new IllegalArgumentException("Parameter 'items' cannot be negative.");
+        }
+        this.maxSizes.put(group.toLowerCase(), items);
+        applyLimits();
+    }
+
+    public long getMaxWeight() {
+        return this.maxWeight;
+    }
+
+    /**
+     * Sets the total weight of the items in groups without a limit of their own.
+     *
+     * @param weight  the maximum weight, 0 for no limit
+     */
+    public void setMaxWeight(long weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Parameter 'weight' cannot be negative.");
+        }
+        this.maxWeight = weight;
+        applyLimits();
+    }
+
+    public long getMaxWeight(String group) {
+        Long weight = this.maxWeights.get(group.toLowerCase());
+        return weight == null ? this.maxWeight : weight;
+    }
+
+    /**
+     * Sets the total weight of the items a group may hold, as estimated by the {@link #setWeigher(Weigher) weigher}.
+     * The least recently used items are evicted when the group weighs more.
+     *
+     * @param group   the group
+     * @param weight  the maximum weight, 0 for no limit
+     */
+    public void setMaxWeight(String group, long weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Parameter 'weight' cannot be negative.");
+        }
+        this.maxWeights.put(group.toLowerCase(), weight);
+        applyLimits();
+    }
+
+    /**
+     * Returns the current weight of a group.
+     *
+     * @param  group  the group
+     * @return        the total weight of its items, 0 if the group doesn't exist
+     */
+    public long getWeight(String group) {
+        CacheGroup cacheGroup = this.items.get(group.toLowerCase());
+        return cacheGroup == null ? 0 : cacheGroup.getWeight();
+    }
+
+    public Weigher getWeigher() {
+        return this.weigher;
+    }
+
+    /**
+     * Sets the weigher which estimates the weight of items put from now on. Without a weigher, every item weighs 1.
+     *
+     * @param weigher  the weigher, or null
+     */
+    public void setWeigher(Weigher weigher) {
+        this.weigher = weigher;
+    }
+
+    public Ticker getTicker() {
+        return this.ticker;
+    }
+
+    /**
+     * Sets the time source for the expiry of items, and clears the cache.
+     *
+     * @param ticker  the ticker
+     */
+    public void setTicker(Ticker ticker) {
+        if (ticker == null) {
+            throw new IllegalArgumentException("Parameter 'ticker' cannot be null.");
+        }
+        this.ticker = ticker;
+        this.items.clear();
+    }
+
+    public void addEvictionListener(EvictionListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Parameter 'listener' cannot be null.");
+        }
+        this.listeners.add(listener);
+    }
+
+    public void removeEvictionListener(EvictionListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Returns how many items have been evicted, because their group was full or because they expired.
+     *
+     * @return the amount of evicted items
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Returns how many items have been removed because they expired.
+     *
+     * @return the amount of expired items
+     */
+    public long getExpiredCount() {
+        return this.expirations.get();
+    }
+
+    /**
+     * Returns how many times all groups have been swept for expired items.
+     *
+     * @return the amount of sweeps
+     */
+    public long getSweepCount() {
+        return this.sweeps.get();
+    }
+
+    /**
+     * Returns how many objects have been loaded by {@link #get(String, Object, CacheLoader)}, including refreshes.
+     *
+     * @return the amount of successful loads
+     */
+    public long getLoadCount() {
+        return this.loads.get();
+    }
+
+    /**
+     * Returns how many loads, including refreshes, have failed.
+     *
+     * @return the amount of failed loads
+     */
+    public long getLoadFailureCount() {
+        return this.loadFailures.get();
+    }
+
+    /**
+     * Returns how many background refreshes have been started.
+     *
+     * @return the amount of refreshes
+     */
+    public long getRefreshCount() {
+        return this.refreshes.get();
+    }
+
+    public long getRefreshAhead(TimeUnit unit) {
+        return unit.convert(this.refreshAhead, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets how long before it expires an object read through {@link #get(String, Object, CacheLoader)} is reloaded in
+     * the background. The current object is returned until the new one is loaded. Items with sliding expiry are not
+     * refreshed.
+     *
+     * @param time  the time before expiry, 0 to not refresh objects
+     * @param unit  the unit of the time
+     */
+    public void setRefreshAhead(long time, TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("Parameter 'time' cannot be negative.");
+        }
+        this.refreshAhead = unit.toNanos(time);
+    }
+
+    /**
+     * Sets the executor background refreshes run on.
+     *
+     * @param executor  the executor, or null for a daemon thread pool shared by all cache managers
+     */
+    public void setRefreshExecutor(Executor executor) {
+        this.refreshExecutor = executor;
+    }
+
+    public synchronized int getSweepInterval() {
+        return this.sweepInterval;
+    }
+
+    /**
+     * Sets how often all groups are swept for expired items in the background.
+     *
+     * @param millis  the interval in milliseconds, 0 to only remove expired items on reads and writes
+     */
+    public synchronized void setSweepInterval(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Parameter 'millis' cannot be negative.");
+        }
+        this.sweepInterval = millis;
+        stopSweep();
+        if (!this.items.isEmpty()) {
+            startSweep();
+        }
+    }
+
+    /**
+     * Removes the expired items of all groups now.
+     */
+    public void sweep() {
+        long now = now();
+        for (CacheGroup cacheGroup : this.items.values()) {
+            cacheGroup.sweep(now);
+        }
+        this.sweeps.incrementAndGet();
+    }
+
     public int getLastID() {
         return getLastID(this.defaultGroup);
     }
 
     public int getLastID(String group) {
-        String newGroup = group.toLowerCase();
-        if (this.lastID.containsKey(newGroup)) {
-            return this.lastID.get(newGroup);
-        }
-        this.lastID.put(newGroup, 0);
-        return 0;
+        return counter(group.toLowerCase()).get();
+    }
+
+    /**
+     * Returns the next free ID of a group. Each call returns a different ID, also when called by several threads at once.
+     *
+     * @param  group  the group
+     * @return        the ID
+     */
+    public int nextID(String group) {
+        return counter(group.toLowerCase()).incrementAndGet();
     }
 
     public boolean contains(Object id) {
@@ -76,19 +388,11 @@ public class CacheManager {
     }
 
     public boolean containsGroup(String group) {
-        return this.enabled && this.items.containsKey(group);
+        return this.enabled && this.items.containsKey(group.toLowerCase());
     }
 
     public boolean contains(String group, Object id) {
-        String newGroup = group.toLowerCase();
-        if (this.enabled && containsGroup(newGroup) && this.items.get(newGroup).containsKey(id)) {
-            if (this.items.get(newGroup).get(id).getSecondsLeft() >= 1) {
-                return true;
-            } else {
-                this.items.get(newGroup).remove(id);
-            }
-        }
-        return false;
+        return getItem(group, id) != null;
     }
 
     public void put(Object id, Object object) {
@@ -100,24 +404,39 @@ public class CacheManager {
     }
 
     public int put(String group, Object object) {
-        int id = getLastID(group) + 1;
+        int id = nextID(group);
         put(group, id, object);
         return id;
     }
 
     public void put(String group, Object id, Object object) {
-        if (this.enabled) {
-            String newGroup = group.toLowerCase();
-            if (!containsGroup(newGroup)) {
-                this.items.put(newGroup, new HashMap<Object, CacheItem>());
-            }
-            Map<Object, CacheItem> temp = this.items.get(newGroup);
-            temp.put(id, new CacheItem(id, this.seconds, object));
-            this.items.put(newGroup, temp);
-            if (id instanceof String && Util.isInteger((String) id)) {
-                this.lastID.put(newGroup, Integer.parseInt((String) id));
-            }
-        }
+        put(group, id, object, this.seconds);
+    }
+
+    /**
+     * Puts an object in the cache for the given amount of seconds, instead of the {@link #getCacheTime() cache time}.
+     *
+     * @param group    the group
+     * @param id       the ID of the object
+     * @param object   the object
+     * @param seconds  how long the object stays cached
+     */
+    public void put(String group, Object id, Object object, int seconds) {
+        put(group, id, object, seconds, TimeUnit.SECONDS, false);
+    }
+
+    /**
+     * Puts an object in the cache for the given time.
+     *
+     * @param group    the group
+     * @param id       the ID of the object
+     * @param object   the object
+     * @param ttl      how long the object stays cached
+     * @param unit     the unit of the time-to-live
+     * @param sliding  true to keep the object cached until it has not been looked up for the time-to-live
+     */
+    public void put(String group, Object id, Object object, long ttl, TimeUnit unit, boolean sliding) {
+        store(group, id, new CacheItem(id, object, ttl, unit, sliding, this.ticker));
     }
 
     public void putMetadatable(Object id, Object object) {
@@ -129,25 +448,13 @@ public class CacheManager {
     }
 
     public int putMetadatable(String group, Object object) {
-        int id = getLastID(group) + 1;
+        int id = nextID(group);
         putMetadatable(group, id, object);
         return id;
     }
 
     public void putMetadatable(String group, Object id, Object object) {
-        if (this.enabled) {
-            String newGroup = group.toLowerCase();
-            if (!containsGroup(newGroup)) {
-                this.items.put(newGroup, new HashMap<Object, CacheItem>());
-            }
-            Map<Object, CacheItem> temp = this.items.get(newGroup);
-            temp.put(id, new MetadatableCacheItem(id, this.seconds, object));
-            this.items.put(newGroup, temp);
-            if (id instanceof String && Util.isInteger((String) id)) {
-                this.lastID.put(newGroup, Integer.parseInt((String) id));
-            }
-        }
-
+        store(group, id, new MetadatableCacheItem(id, object, this.seconds, TimeUnit.SECONDS, false, this.ticker));
     }
 
     public CacheItem getItem(Object id) {
@@ -155,9 +462,24 @@ public class CacheManager {
     }
 
     public CacheItem getItem(String group, Object id) {
-        String newGroup = group.toLowerCase();
-        if (contains(newGroup, id)) {
-            return this.items.get(newGroup).get(id);
+        if (!this.enabled) {
+            return null;
+        }
+        CacheGroup cacheGroup = this.items.get(group.toLowerCase());
+        if (cacheGroup == null) {
+            return null;
+        }
+        CacheItem item = cacheGroup.get(id);
+        if (item == null) {
+            return null;
+        }
+        if (!item.isExpired()) {
+            item.accessed();
+            return item;
+        }
+        // Only remove this item, not one put by another thread in the meantime.
+        if (cacheGroup.remove(id, item)) {
+            evicted(cacheGroup.getName(), Collections.singletonList(item), EvictionListener.Cause.EXPIRED);
         }
         return null;
     }
@@ -167,12 +489,9 @@ public class CacheManager {
     }
 
     public MetadatableCacheItem getMetadatableItem(String group, Object id) {
-        String newGroup = group.toLowerCase();
-        if (contains(newGroup, id)) {
-            CacheItem item = this.items.get(newGroup).get(id);
-            if (item instanceof MetadatableCacheItem) {
-                return (MetadatableCacheItem) item;
-            }
+        CacheItem item = getItem(group, id);
+        if (item instanceof MetadatableCacheItem) {
+            return (MetadatableCacheItem) item;
         }
         return null;
     }
@@ -190,11 +509,61 @@ public class CacheManager {
     }
 
     public Object get(String group, Object id) {
-        String newGroup = group.toLowerCase();
-        if (contains(newGroup, id)) {
-            return this.items.get(newGroup).get(id).getObject();
+        CacheItem item = getItem(group, id);
+        return item == null ? null : item.getObject();
+    }
+
+    /**
+     * Returns a cached object, or loads and caches it for the {@link #getCacheTime() cache time} on a miss.
+     * <p>
+     * Only one load per ID is in flight at a time: threads which miss while the object is being loaded wait for that
+     * load instead of starting their own. A failed load is not cached, the next call tries again.
+     *
+     * @param  group               the group
+     * @param  id                  the ID of the object
+     * @param  loader              loads the object on a miss
+     * @return                     the object, may be null
+     * @throws ExecutionException  if the loader threw an exception, which is the cause, or with an
+     *                             {@link IllegalStateException} if the loader of the object asked for the object itself
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String group, Object id, CacheLoader<T> loader) throws ExecutionException {
+        if (loader == null) {
+            throw new IllegalArgumentException("Parameter 'loader' cannot be null.");
+        }
+        CacheItem item = getItem(group, id);
+        if (item != null) {
+            long refreshAhead = this.refreshAhead;
+            if (refreshAhead > 0 && !item.isSliding() && item.getNanosLeft() <= refreshAhead) {
+                refresh(group, id, loader);
+            }
+            return (T) item.getObject();
+        }
+        LoadKey key = new LoadKey(group.toLowerCase(), id);
+        Load load = new Load(key, load(group, id, loader));
+        Load existing = this.loading.putIfAbsent(key, load);
+        if (existing == null) {
+            load.run();
+            existing = load;
+        } else if (existing.owner == Thread.currentThread()) {
+            // The loader of this object asked for it again, waiting for the load would never return.
+            throw new ExecutionException(new IllegalStateException("Recursive load of '" + id + "' in group '" + group + "'"));
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return (T) existing.get();
+                } catch (InterruptedException e) {
+                    // Other threads may depend on this load, so finish waiting.
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
-        return null;
     }
 
     public Object getLast() {
@@ -202,7 +571,7 @@ public class CacheManager {
     }
 
     public Object getLast(String group) {
-        return get(group, getLastID());
+        return get(group, getLastID(group));
     }
 
     public void remove(Object id) {
@@ -210,18 +579,16 @@ public class CacheManager {
     }
 
     public void remove(String group, Object id) {
-        if (contains(group, id)) {
-            this.items.get(group.toLowerCase()).remove(id);
+        CacheGroup cacheGroup = this.items.get(group.toLowerCase());
+        if (cacheGroup != null) {
+            cacheGroup.remove(id);
         }
     }
 
     public void clear(String group) {
-        String newGroup = group.toLowerCase();
-        if (containsGroup(newGroup)) {
-            this.items.get(newGroup).clear();
-        }
-        if (this.lastID.containsKey(newGroup)) {
-            this.items.remove(newGroup);
+        CacheGroup cacheGroup = this.items.remove(group.toLowerCase());
+        if (cacheGroup != null) {
+            cacheGroup.clear();
         }
     }
 
@@ -229,4 +596,237 @@ public class CacheManager {
         this.items.clear();
         this.lastID.clear();
     }
+
+    private void store(String group, Object id, CacheItem item) {
+        if (!this.enabled) {
+            return;
+        }
+        String newGroup = group.toLowerCase();
+        CacheGroup cacheGroup = this.items.get(newGroup);
+        if (cacheGroup == null) {
+            cacheGroup = new CacheGroup(this, newGroup);
+            CacheGroup existing = this.items.putIfAbsent(newGroup, cacheGroup);
+            if (existing != null) {
+                cacheGroup = existing;
+            } else {
+                cacheGroup.setLimits(getMaxSize(newGroup), getMaxWeight(newGroup));
+                startSweep();
+            }
+        }
+        cacheGroup.put(id, item);
+        if (id instanceof String && Util.isInteger((String) id)) {
+            // Keep generated IDs from colliding with this one.
+            AtomicInteger counter = counter(newGroup);
+            int value = Integer.parseInt((String) id);
+            int current;
+            do {
+                current = counter.get();
+            } while (current < value && !counter.compareAndSet(current, value));
+        }
+    }
+
+    long now() {
+        return this.ticker.read();
+    }
+
+    long weigh(Object id, Object object) {
+        Weigher weigher = this.weigher;
+        if (weigher == null) {
+            return 1;
+        }
+        long weight = weigher.weigh(id, object);
+        if (weight < 0) {
+            throw new IllegalStateException("Weigher returned a negative weight for '" + id + "'.");
+        }
+        return weight;
+    }
+
+    void evicted(String group, List<CacheItem> evicted, EvictionListener.Cause cause) {
+        if (evicted == null) {
+            return;
+        }
+        this.evictions.addAndGet(evicted.size());
+        if (cause == EvictionListener.Cause.EXPIRED) {
+            this.expirations.addAndGet(evicted.size());
+        }
+        for (CacheItem item : evicted) {
+            for (EvictionListener listener : this.listeners) {
+                listener.evicted(group, item, cause);
+            }
+        }
+    }
+
+    private void applyLimits() {
+        for (CacheGroup cacheGroup : this.items.values()) {
+            cacheGroup.setLimits(getMaxSize(cacheGroup.getName()), getMaxWeight(cacheGroup.getName()));
+        }
+    }
+
+    private void refresh(String group, Object id, CacheLoader<?> loader) {
+        LoadKey key = new LoadKey(group.toLowerCase(), id);
+        Load load = new Load(key, load(group, id, loader));
+        if (this.loading.putIfAbsent(key, load) != null) {
+            return;
+        }
+        this.refreshes.incrementAndGet();
+        Executor executor = this.refreshExecutor;
+        try {
+            (executor == null ? refresher() : executor).execute(load);
+        } catch (RejectedExecutionException e) {
+            this.loading.remove(key, load);
+        }
+    }
+
+    private Callable<Object> load(final String group, final Object id, final CacheLoader<?> loader) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                Object object;
+                try {
+                    object = loader.load(id);
+                } catch (Exception e) {
+                    CacheManager.this.loadFailures.incrementAndGet();
+                    throw e;
+                }
+                CacheManager.this.loads.incrementAndGet();
+                put(group, id, object);
+                return object;
+            }
+        };
+    }
+
+    private synchronized void startSweep() {
+        if (this.sweep != null || this.sweepInterval == 0) {
+            return;
+        }
+        this.sweep = new Sweep(this);
+        this.sweep.future = sweeper().scheduleWithFixedDelay(this.sweep, this.sweepInterval, this.sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopSweep() {
+        if (this.sweep != null) {
+            this.sweep.future.cancel(false);
+            this.sweep = null;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService sweeper() {
+        if (sweeper == null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CacheManager-Sweeper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sweeper;
+    }
+
+    private static synchronized ExecutorService refresher() {
+        if (refresher == null) {
+            refresher = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CacheManager-Refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return refresher;
+    }
+
+    /**
+     * A load in flight. Stops being in flight once the loaded object is cached, or the load failed.
+     */
+    private final class Load extends FutureTask<Object> {
+        private final LoadKey key;
+        private volatile Thread owner;
+
+        Load(LoadKey key, Callable<Object> callable) {
+            super(callable);
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            this.owner = Thread.currentThread();
+            try {
+                super.run();
+            } finally {
+                this.owner = null;
+            }
+        }
+
+        @Override
+        protected void done() {
+            CacheManager.this.loading.remove(this.key, this);
+        }
+    }
+
+    private static final class LoadKey {
+        private final String group;
+        private final Object id;
+
+        LoadKey(String group, Object id) {
+            this.group = group;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof LoadKey)) {
+                return false;
+            }
+            LoadKey key = (LoadKey) other;
+            return this.group.equals(key.group) && (this.id == null ? key.id == null : this.id.equals(key.id));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.group.hashCode() + (this.id == null ? 0 : this.id.hashCode());
+        }
+    }
+
+    /**
+     * The background sweep of one cache manager. Only weakly references the manager, so unused managers can be
+     * garbage collected, which cancels their sweep.
+     */
+    private static final class Sweep implements Runnable {
+        private final WeakReference<CacheManager> manager;
+        private volatile ScheduledFuture<?> future;
+
+        Sweep(CacheManager manager) {
+            this.manager = new WeakReference<CacheManager>(manager);
+        }
+
+        @Override
+        public void run() {
+            CacheManager manager = this.manager.get();
+            if (manager == null) {
+                this.future.cancel(false);
+                return;
+            }
+            try {
+                manager.sweep();
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    private AtomicInteger counter(String group) {
+        AtomicInteger counter = this.lastID.get(group);
+        if (counter == null) {
+            counter = new AtomicInteger();
+            AtomicInteger existing = this.lastID.putIfAbsent(group, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
 }
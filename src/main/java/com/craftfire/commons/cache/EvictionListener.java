@@ -0,0 +1,49 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.cache;
+
+/**
+ * Listens for items removed from a {@link CacheManager} by the cache itself, see
+ * {@link CacheManager#addEvictionListener(EvictionListener)}.
+ */
+public interface EvictionListener {
+    /**
+     * Why an item was evicted.
+     */
+    public enum Cause {
+        /**
+         * The group was over its size or weight limit and the item was the least recently used one.
+         */
+        SIZE,
+        /**
+         * The item expired.
+         */
+        EXPIRED
+    }
+
+    /**
+     * Called after an item has been evicted, on the thread which caused the eviction.
+     *
+     * @param group  the group of the item, in lower case
+     * @param item   the item
+     * @param cause  why the item was evicted
+     */
+    void evicted(String group, CacheItem item, Cause cause);
+}
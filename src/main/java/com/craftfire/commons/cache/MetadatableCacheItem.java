@@ -19,16 +19,22 @@
  */
 package com.craftfire.commons.cache;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class MetadatableCacheItem extends CacheItem {
-    private Map<String, Object> metaMap = new HashMap<String, Object>();
+    private final Map<String, Object> metaMap = Collections.synchronizedMap(new HashMap<String, Object>());
 
     public MetadatableCacheItem(Object id, int cacheTime, Object object) {
         super(id, cacheTime, object);
     }
 
+    public MetadatableCacheItem(Object id, Object object, long ttl, TimeUnit unit, boolean sliding, Ticker ticker) {
+        super(id, object, ttl, unit, sliding, ticker);
+    }
+
     public Object getMetaData(String metaKey) {
         return this.metaMap.get(metaKey);
     }
@@ -0,0 +1,43 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.cache;
+
+/**
+ * A monotonic time source for cache expiry, see {@link CacheManager#setTicker(Ticker)}. Tests can supply a ticker they
+ * advance by hand.
+ */
+public interface Ticker {
+    /**
+     * Reads {@link System#nanoTime()}.
+     */
+    Ticker SYSTEM = new Ticker() {
+        @Override
+        public long read() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Returns the current time. Only differences between two readings are meaningful.
+     *
+     * @return the time in nanoseconds
+     */
+    long read();
+}
@@ -0,0 +1,215 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timer wheel which finds expired items of a {@link CacheGroup} in amortized constant time.
+ * <p>
+ * The wheel has four levels of 64 buckets. A node is put in the lowest level whose span covers its expiration time,
+ * and moved down a level each time the wheel turns past the bucket it is in, until it expires from the lowest level.
+ * Nodes are kept in doubly linked lists, so they can be removed in constant time when their item is replaced or removed.
+ * Times are kept relative to when the wheel was created, so a ticker which overflows does not confuse it.
+ * Not thread-safe, the group guards it with its lock.
+ */
+final class TimerWheel {
+    private static final int BITS = 6, BUCKETS = 1 << BITS, MASK = BUCKETS - 1, LEVELS = 4;
+    private static final long MAX_TICKS = (1L << (BITS * LEVELS)) - 1;
+    private final long tick, origin;
+    private final Node[][] wheel = new Node[LEVELS][BUCKETS];
+    private long current;
+    private int size = 0;
+
+    /**
+     * A node which can be scheduled on a timer wheel.
+     */
+    static class Node {
+        private long expires;
+        private Node previous, next;
+
+        boolean isScheduled() {
+            return this.next != null;
+        }
+    }
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param tick  how many time units a bucket of the lowest level covers
+     * @param now   the current time
+     */
+    TimerWheel(long tick, long now) {
+        this.tick = tick;
+        this.origin = now;
+        this.current = 0;
+        for (Node[] level : this.wheel) {
+            for (int i = 0; i < BUCKETS; i++) {
+                Node sentinel = new Node();
+                sentinel.previous = sentinel;
+                sentinel.next = sentinel;
+                level[i] = sentinel;
+            }
+        }
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns whether the wheel has to {@link #advance(long) advance} to be up to date.
+     *
+     * @param  now  the current time
+     * @return      true if at least one tick has passed since the last advance
+     */
+    boolean isBehind(long now) {
+        return floorTicks(now - this.origin) > this.current;
+    }
+
+    /**
+     * Schedules a node, replacing its current schedule if any.
+     *
+     * @param node     the node
+     * @param expires  the time the node expires at
+     */
+    void schedule(Node node, long expires) {
+        if (node.isScheduled()) {
+            unlink(node);
+        } else {
+            this.size++;
+        }
+        node.expires = expires - this.origin;
+        link(node);
+    }
+
+    /**
+     * Removes a node from the wheel, if it is scheduled.
+     *
+     * @param node  the node
+     */
+    void cancel(Node node) {
+        if (node.isScheduled()) {
+            unlink(node);
+            this.size--;
+        }
+    }
+
+    /**
+     * Turns the wheel to the current time.
+     *
+     * @param  now  the current time
+     * @return      the nodes which expired, unscheduled
+     */
+    List<Node> advance(long now) {
+        List<Node> expired = new ArrayList<Node>();
+        long target = floorTicks(now - this.origin);
+        if (target - this.current > BUCKETS * BUCKETS) {
+            // Far behind: re-sorting every node is cheaper than turning the wheel tick by tick.
+            List<Node> nodes = new ArrayList<Node>(this.size);
+            for (Node[] level : this.wheel) {
+                for (Node sentinel : level) {
+                    drain(sentinel, nodes);
+                }
+            }
+            this.current = target;
+            for (Node node : nodes) {
+                reschedule(node, expired);
+            }
+            return expired;
+        }
+        while (this.current < target) {
+            this.current++;
+            for (int level = 1; level < LEVELS; level++) {
+                if ((this.current & ((1L << (BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                // The lower level wrapped around: move the nodes of the next bucket of this level down.
+                List<Node> nodes = new ArrayList<Node>();
+                drain(this.wheel[level][(int) ((this.current >>> (BITS * level)) & MASK)], nodes);
+                for (Node node : nodes) {
+                    reschedule(node, expired);
+                }
+            }
+            List<Node> nodes = new ArrayList<Node>();
+            drain(this.wheel[0][(int) (this.current & MASK)], nodes);
+            for (Node node : nodes) {
+                reschedule(node, expired);
+            }
+        }
+        return expired;
+    }
+
+    private void reschedule(Node node, List<Node> expired) {
+        // Rounding the expiration time up never reports a node before it has expired.
+        if (ceilTicks(node.expires) <= this.current) {
+            this.size--;
+            expired.add(node);
+        } else {
+            link(node);
+        }
+    }
+
+    private void link(Node node) {
+        long ticks = Math.max(ceilTicks(node.expires), this.current + 1);
+        long delta = Math.min(ticks - this.current, MAX_TICKS);
+        ticks = this.current + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (BITS * (level + 1)))) {
+            level++;
+        }
+        Node sentinel = this.wheel[level][(int) ((ticks >>> (BITS * level)) & MASK)];
+        node.previous = sentinel.previous;
+        node.next = sentinel;
+        sentinel.previous.next = node;
+        sentinel.previous = node;
+    }
+
+    private long floorTicks(long time) {
+        long ticks = time / this.tick;
+        return ticks * this.tick > time ? ticks - 1 : ticks;
+    }
+
+    private long ceilTicks(long time) {
+        long ticks = time / this.tick;
+        return ticks * this.tick < time ? ticks + 1 : ticks;
+    }
+
+    private static void unlink(Node node) {
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        node.previous = null;
+        node.next = null;
+    }
+
+    private static void drain(Node sentinel, List<Node> nodes) {
+        Node node = sentinel.next;
+        while (node != sentinel) {
+            Node next = node.next;
+            node.previous = null;
+            node.next = null;
+            nodes.add(node);
+            node = next;
+        }
+        sentinel.previous = sentinel;
+        sentinel.next = sentinel;
+    }
+}
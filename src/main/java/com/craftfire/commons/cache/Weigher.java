@@ -0,0 +1,35 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.cache;
+
+/**
+ * Estimates how much memory a cached object takes, for the {@link CacheManager#setMaxWeight(String, long) weight limits}
+ * of cache groups.
+ */
+public interface Weigher {
+    /**
+     * Returns the weight of a cached object. Must return the same weight each time it is called for the same object.
+     *
+     * @param  id      the ID of the object
+     * @param  object  the object, may be null
+     * @return         the weight, for example the estimated size in bytes; must not be negative
+     */
+    long weigh(Object id, Object object);
+}
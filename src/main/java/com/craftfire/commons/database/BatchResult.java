@@ -0,0 +1,98 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.Statement;
+
+/**
+ * A summary of a batch executed by {@link DataManager#insertBatch(String, java.util.List)} or
+ * {@link DataManager#updateBatch(String, java.util.List, String...)}.
+ */
+public class BatchResult {
+    private int rows = 0, batches = 0, affected = 0, unknown = 0;
+    private long time = 0;
+
+    /**
+     * Returns the amount of rows submitted in the batch.
+     *
+     * @return the amount of rows
+     */
+    public int getRowCount() {
+        return this.rows;
+    }
+
+    /**
+     * Returns the amount of statements sent to the database, each one a single round-trip.
+     *
+     * @return the amount of round-trips
+     */
+    public int getBatchCount() {
+        return this.batches;
+    }
+
+    /**
+     * Returns the amount of rows reported as affected by the database.
+     *
+     * @return the amount of affected rows
+     */
+    public int getAffectedRows() {
+        return this.affected;
+    }
+
+    /**
+     * Returns the amount of statements for which the driver did not report an update count.
+     *
+     * @return the amount of statements with unknown update count
+     * @see    Statement#SUCCESS_NO_INFO
+     */
+    public int getUnknownCount() {
+        return this.unknown;
+    }
+
+    /**
+     * Returns how long the whole batch took to execute.
+     *
+     * @return the time in milliseconds
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    protected void addBatch(int rows, int[] counts) {
+        this.rows += rows;
+        this.batches++;
+        for (int count : counts) {
+            if (count >= 0) {
+                this.affected += count;
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                this.unknown++;
+            }
+        }
+    }
+
+    protected void setTime(long time) {
+        this.time = time;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult rows: " + this.rows + ", batches: " + this.batches + ", affected: " + this.affected + ", time: " + this.time + "ms";
+    }
+}
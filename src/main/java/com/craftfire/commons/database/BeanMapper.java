@@ -0,0 +1,362 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps rows to instances of a bean class, used by {@link DataManager#query(Class, String, Object...)}.
+ * <p>
+ * The properties of a class are looked up once and cached as method handles: public setters taking one parameter,
+ * and otherwise non-static, non-final fields of any visibility. A column maps to the property with the same name,
+ * ignoring case and underscores, so <code>created_at</code> maps to <code>createdAt</code>.
+ * Columns without a property are ignored. The class needs a constructor without parameters.
+ * <p>
+ * {@link #bind(ResultSetMetaData)} resolves the columns of a result set to properties once per query. Each value is then
+ * read with the typed getter of the result set and passed straight to the property, without {@link DataField}s or,
+ * for primitive properties, boxing.
+ *
+ * @param <T>  type of the beans
+ */
+public class BeanMapper<T> {
+    /** Holds the mappers by class without keeping the classes, and so their class loaders, from being unloaded. */
+    private static final ClassValue<BeanMapper<?>> MAPPERS = new ClassValue<BeanMapper<?>>() {
+        @Override
+        protected BeanMapper<?> computeValue(Class<?> type) {
+            return create(type);
+        }
+    };
+    private final Class<T> type;
+    private final MethodHandle constructor;
+    private final Map<String, Property> properties = new LinkedHashMap<String, Property>();
+
+    /**
+     * Returns the mapper of a class, creating it on first use.
+     *
+     * @param  type  the bean class
+     * @return       the mapper
+     * @throws IllegalArgumentException if the class has no accessible constructor without parameters
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BeanMapper<T> forClass(Class<T> type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Parameter 'type' cannot be null.");
+        }
+        return (BeanMapper<T>) MAPPERS.get(type);
+    }
+
+    private static <T> BeanMapper<T> create(Class<T> type) {
+        return new BeanMapper<T>(type);
+    }
+
+    protected BeanMapper(Class<T> type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Parameter 'type' cannot be null.");
+        }
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<T> init = type.getDeclaredConstructor();
+            init.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(init).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Class '" + type.getName() + "' has no constructor without parameters.", e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("The constructor of class '" + type.getName() + "' is not accessible.", e);
+        }
+        for (Method method : type.getMethods()) {
+            String name = method.getName();
+            if (name.length() > 3 && name.startsWith("set") && method.getParameterTypes().length == 1 && !Modifier.isStatic(method.getModifiers())) {
+                try {
+                    this.properties.put(normalize(name.substring(3)), new Property(name, method.getParameterTypes()[0], lookup.unreflect(method)));
+                } catch (IllegalAccessException ignore) {
+                    // Not accessible, e.g. declared by a non-public class.
+                }
+            }
+        }
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                String key = normalize(field.getName());
+                if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || field.isSynthetic() || this.properties.containsKey(key)) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    this.properties.put(key, new Property(field.getName(), field.getType(), lookup.unreflectSetter(field)));
+                } catch (IllegalAccessException ignore) {
+                    // Not accessible.
+                } catch (SecurityException ignore) {
+                    // Not accessible.
+                }
+            }
+        }
+    }
+
+    public Class<T> getType() {
+        return this.type;
+    }
+
+    /**
+     * Returns the names of the properties columns can map to, lower case and without underscores.
+     *
+     * @return the property names
+     */
+    public Set<String> getProperties() {
+        return Collections.unmodifiableSet(this.properties.keySet());
+    }
+
+    /**
+     * Resolves the columns of a result set to the properties they map to.
+     *
+     * @param  metaData     the metadata of the result set
+     * @return              a mapper for the rows of result sets with these columns
+     * @throws SQLException if the metadata could not be read
+     */
+    public RowMapper<T> bind(ResultSetMetaData metaData) throws SQLException {
+        List<Binding> bindings = new ArrayList<Binding>();
+        int count = metaData.getColumnCount();
+        for (int column = 1; column <= count; column++) {
+            Property property = this.properties.get(normalize(metaData.getColumnLabel(column)));
+            if (property != null) {
+                bindings.add(new Binding(column, property));
+            }
+        }
+        return new BoundMapper(bindings.toArray(new Binding[bindings.size()]));
+    }
+
+    private static String normalize(String name) {
+        return name.replace("_", "").toLowerCase(Locale.ENGLISH);
+    }
+
+    private class BoundMapper implements RowMapper<T> {
+        private final Binding[] bindings;
+
+        BoundMapper(Binding[] bindings) {
+            this.bindings = bindings;
+        }
+
+        @Override
+        public T map(ResultSet resultSet) throws SQLException {
+            Object bean;
+            try {
+                bean = BeanMapper.this.constructor.invokeExact();
+            } catch (Throwable e) {
+                throw new SQLException("Could not create an instance of '" + BeanMapper.this.type.getName() + "'", e);
+            }
+            for (Binding binding : this.bindings) {
+                try {
+                    binding.apply(resultSet, bean);
+                } catch (SQLException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new SQLException("Could not map column " + binding.column + " to '" + binding.property.name + "' of '"
+                            + BeanMapper.this.type.getName() + "'", e);
+                }
+            }
+            return BeanMapper.this.type.cast(bean);
+        }
+    }
+
+    private enum Kind {
+        INT, LONG, DOUBLE, FLOAT, SHORT, BYTE, BOOLEAN,
+        INTEGER_OBJECT, LONG_OBJECT, DOUBLE_OBJECT, FLOAT_OBJECT, SHORT_OBJECT, BYTE_OBJECT, BOOLEAN_OBJECT,
+        STRING, BIG_DECIMAL, BIG_INTEGER, DATE, SQL_DATE, TIME, TIMESTAMP, BYTES, ENUM, OBJECT
+    }
+
+    private static final class Property {
+        private final String name;
+        private final Class<?> type;
+        private final Kind kind;
+        private final MethodHandle setter;
+
+        Property(String name, Class<?> type, MethodHandle setter) {
+            this.name = name;
+            this.type = type;
+            this.kind = kind(type);
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, type.isPrimitive() ? type : Object.class));
+        }
+
+        private static Kind kind(Class<?> type) {
+            if (type == int.class) {
+                return Kind.INT;
+            } else if (type == long.class) {
+                return Kind.LONG;
+            } else if (type == double.class) {
+                return Kind.DOUBLE;
+            } else if (type == float.class) {
+                return Kind.FLOAT;
+            } else if (type == short.class) {
+                return Kind.SHORT;
+            } else if (type == byte.class) {
+                return Kind.BYTE;
+            } else if (type == boolean.class) {
+                return Kind.BOOLEAN;
+            } else if (type == Integer.class) {
+                return Kind.INTEGER_OBJECT;
+            } else if (type == Long.class) {
+                return Kind.LONG_OBJECT;
+            } else if (type == Double.class) {
+                return Kind.DOUBLE_OBJECT;
+            } else if (type == Float.class) {
+                return Kind.FLOAT_OBJECT;
+            } else if (type == Short.class) {
+                return Kind.SHORT_OBJECT;
+            } else if (type == Byte.class) {
+                return Kind.BYTE_OBJECT;
+            } else if (type == Boolean.class) {
+                return Kind.BOOLEAN_OBJECT;
+            } else if (type == String.class) {
+                return Kind.STRING;
+            } else if (type == BigDecimal.class) {
+                return Kind.BIG_DECIMAL;
+            } else if (type == BigInteger.class) {
+                return Kind.BIG_INTEGER;
+            } else if (type == java.sql.Date.class) {
+                return Kind.SQL_DATE;
+            } else if (type == Time.class) {
+                return Kind.TIME;
+            } else if (type == Timestamp.class) {
+                return Kind.TIMESTAMP;
+            } else if (type == Date.class) {
+                return Kind.DATE;
+            } else if (type == byte[].class) {
+                return Kind.BYTES;
+            } else if (type.isEnum()) {
+                return Kind.ENUM;
+            } else if (type.isPrimitive()) {
+                throw new IllegalArgumentException("Properties of type '" + type + "' are not supported.");
+            }
+            return Kind.OBJECT;
+        }
+    }
+
+    private static final class Binding {
+        private final int column;
+        private final Property property;
+        private final MethodHandle setter;
+
+        Binding(int column, Property property) {
+            this.column = column;
+            this.property = property;
+            this.setter = property.setter;
+        }
+
+        void apply(ResultSet resultSet, Object bean) throws Throwable {
+            int column = this.column;
+            switch (this.property.kind) {
+                case INT:
+                    this.setter.invokeExact(bean, resultSet.getInt(column));
+                    break;
+                case LONG:
+                    this.setter.invokeExact(bean, resultSet.getLong(column));
+                    break;
+                case DOUBLE:
+                    this.setter.invokeExact(bean, resultSet.getDouble(column));
+                    break;
+                case FLOAT:
+                    this.setter.invokeExact(bean, resultSet.getFloat(column));
+                    break;
+                case SHORT:
+                    this.setter.invokeExact(bean, resultSet.getShort(column));
+                    break;
+                case BYTE:
+                    this.setter.invokeExact(bean, resultSet.getByte(column));
+                    break;
+                case BOOLEAN:
+                    this.setter.invokeExact(bean, resultSet.getBoolean(column));
+                    break;
+                default:
+                    this.setter.invokeExact(bean, read(resultSet, column));
+            }
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private Object read(ResultSet resultSet, int column) throws SQLException {
+            Object value;
+            switch (this.property.kind) {
+                case INTEGER_OBJECT:
+                    value = resultSet.getInt(column);
+                    break;
+                case LONG_OBJECT:
+                    value = resultSet.getLong(column);
+                    break;
+                case DOUBLE_OBJECT:
+                    value = resultSet.getDouble(column);
+                    break;
+                case FLOAT_OBJECT:
+                    value = resultSet.getFloat(column);
+                    break;
+                case SHORT_OBJECT:
+                    value = resultSet.getShort(column);
+                    break;
+                case BYTE_OBJECT:
+                    value = resultSet.getByte(column);
+                    break;
+                case BOOLEAN_OBJECT:
+                    value = resultSet.getBoolean(column);
+                    break;
+                case STRING:
+                    return resultSet.getString(column);
+                case BIG_DECIMAL:
+                    return resultSet.getBigDecimal(column);
+                case BIG_INTEGER:
+                    BigDecimal decimal = resultSet.getBigDecimal(column);
+                    return decimal == null ? null : decimal.toBigInteger();
+                case SQL_DATE:
+                    return resultSet.getDate(column);
+                case TIME:
+                    return resultSet.getTime(column);
+                case TIMESTAMP:
+                case DATE:
+                    return resultSet.getTimestamp(column);
+                case BYTES:
+                    return resultSet.getBytes(column);
+                case ENUM:
+                    String name = resultSet.getString(column);
+                    return name == null ? null : Enum.valueOf((Class) this.property.type, name);
+                default:
+                    return resultSet.getObject(column);
+            }
+            return resultSet.wasNull() ? null : value;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A stream over the content of a blob field, returned by {@link DataManager#openBlob(String, String, String, Object...)}.
+ * <p>
+ * The content is read from the database as the stream is consumed. The stream holds on to its connection until it is closed.
+ */
+public class BlobInputStream extends FilterInputStream {
+    private final DataManager dataManager;
+    private final String query;
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private long position = 0;
+    private boolean closed = false;
+
+    protected BlobInputStream(DataManager dataManager, String query, Connection connection, PreparedStatement statement,
+            ResultSet resultSet, InputStream in) {
+        super(in);
+        this.dataManager = dataManager;
+        this.query = query;
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+    }
+
+    public String getQuery() {
+        return this.query;
+    }
+
+    /**
+     * Returns the amount of bytes read so far.
+     *
+     * @return the amount of bytes read
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            this.position++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            this.position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        this.position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Closes the stream and gives its connection back to the DataManager.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            super.close();
+        } finally {
+            this.dataManager.close(this.resultSet, null);
+            boolean reusable = true;
+            try {
+                this.statement.setFetchSize(0);
+            } catch (SQLException e) {
+                reusable = false;
+            }
+            this.dataManager.recycle(this.connection, this.query, this.statement, reusable);
+            this.dataManager.releaseConnection(this.connection);
+        }
+    }
+}
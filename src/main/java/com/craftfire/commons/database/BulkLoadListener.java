@@ -0,0 +1,42 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+/**
+ * Receives the progress of a load started by {@link DataManager#bulkLoad(String, java.util.List, Iterable, BulkLoadListener)}.
+ * Called on the thread running the load.
+ */
+public interface BulkLoadListener {
+    /**
+     * Called while the rows are written to the temporary file the database loads them from,
+     * every {@link BulkLoader#getProgressInterval()} rows and once all rows are written.
+     *
+     * @param rows  the amount of rows written so far
+     */
+    void staged(long rows);
+
+    /**
+     * Called once rows have been loaded into the table: after the whole file when loading from a file,
+     * or after every batch when the load falls back to JDBC batches.
+     *
+     * @param rows  the amount of rows loaded so far
+     */
+    void loaded(long rows);
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+/**
+ * A summary of a load executed by {@link DataManager#bulkLoad(String, java.util.List, Iterable, BulkLoadListener)}.
+ */
+public class BulkLoadResult {
+    /**
+     * The ways rows can be loaded into a table.
+     */
+    public enum Method {
+        /** MySQL <code>LOAD DATA LOCAL INFILE</code> from a temporary CSV file. */
+        LOAD_DATA,
+        /** H2 <code>INSERT ... SELECT FROM CSVREAD</code> from a temporary CSV file. */
+        CSVREAD,
+        /** JDBC batches, see {@link DataManager#insertBatch(String, java.util.List)}. */
+        BATCH
+    }
+
+    private final Method method;
+    private final long rows, time;
+    private final Exception fallbackCause;
+
+    protected BulkLoadResult(Method method, long rows, long time, Exception fallbackCause) {
+        this.method = method;
+        this.rows = rows;
+        this.time = time;
+        this.fallbackCause = fallbackCause;
+    }
+
+    /**
+     * Returns how the rows have been loaded.
+     *
+     * @return the load method
+     */
+    public Method getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Returns the amount of rows loaded, as reported by the database.
+     *
+     * @return the amount of rows
+     */
+    public long getRowCount() {
+        return this.rows;
+    }
+
+    /**
+     * Returns how long the whole load took, including writing the temporary file.
+     *
+     * @return the time in milliseconds
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    /**
+     * Returns why loading from a file was not possible if the load fell back to JDBC batches.
+     *
+     * @return the cause of the fallback, or null if the rows were loaded the intended way
+     */
+    public Exception getFallbackCause() {
+        return this.fallbackCause;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoadResult method: " + this.method + ", rows: " + this.rows + ", time: " + this.time + "ms"
+                + (this.fallbackCause != null ? ", fallback cause: " + this.fallbackCause : "");
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftfire.commons.database.BulkLoadResult.Method;
+import com.craftfire.commons.util.ValueHolder;
+import com.craftfire.commons.util.ValueType;
+
+/**
+ * Loads large amounts of rows into a table of a {@link DataManager} through the native bulk load facility of the database.
+ * <p>
+ * The rows are written to a temporary CSV file, which is then loaded with a single statement:
+ * <code>LOAD DATA LOCAL INFILE</code> on MySQL, which requires local infile to be allowed by the driver and the server,
+ * or <code>INSERT ... SELECT FROM CSVREAD</code> on H2, which requires the file to be readable by the database.
+ * If that is not possible, for example because a value cannot be written to CSV or the statement is rejected,
+ * the rows are inserted with JDBC batches instead, see {@link DataManager#insertBatch(String, List)}.
+ * The fallback iterates the rows again, see {@link #load(String, List, Iterable, BulkLoadListener)}.
+ */
+public class BulkLoader {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private final DataManager dataManager;
+    private volatile int progressInterval = 10000;
+    private volatile boolean fileLoading = true, fallback = true;
+    private volatile Path directory = null;
+
+    public BulkLoader(DataManager dataManager) {
+        if (dataManager == null) {
+            throw new IllegalArgumentException("Parameter 'dataManager' cannot be null.");
+        }
+        this.dataManager = dataManager;
+    }
+
+    /**
+     * Returns after how many written rows {@link BulkLoadListener#staged(long)} is called.
+     *
+     * @return the progress interval in rows
+     */
+    public int getProgressInterval() {
+        return this.progressInterval;
+    }
+
+    public void setProgressInterval(int progressInterval) {
+        if (progressInterval < 1) {
+            throw new IllegalArgumentException("Parameter 'progressInterval' must be at least 1.");
+        }
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Returns whether rows are loaded from a temporary file when the database supports it.
+     *
+     * @return true if file loading is enabled, false to always use JDBC batches
+     */
+    public boolean isFileLoading() {
+        return this.fileLoading;
+    }
+
+    public void setFileLoading(boolean fileLoading) {
+        this.fileLoading = fileLoading;
+    }
+
+    /**
+     * Returns whether a load falls back to JDBC batches when the rows cannot be loaded from a file.
+     *
+     * @return true if the fallback is enabled, false to throw the error instead
+     */
+    public boolean isFallback() {
+        return this.fallback;
+    }
+
+    public void setFallback(boolean fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Returns the directory the temporary files are created in.
+     *
+     * @return the directory, or null for the default temporary-file directory
+     */
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    public void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns how rows are loaded from a file into a database of the DataManager's type.
+     *
+     * @return the load method, or null if rows cannot be loaded from a file
+     */
+    public Method getFileMethod() {
+        if (!this.fileLoading) {
+            return null;
+        }
+        switch (this.dataManager.getDataType()) {
+            case MYSQL:
+                return Method.LOAD_DATA;
+            case H2:
+                return Method.CSVREAD;
+        }
+        return null;
+    }
+
+    /**
+     * Loads the rows into the table.
+     * <p>
+     * The rows are iterated once to write the temporary file. The load only falls back to JDBC batches if nothing has been
+     * loaded from the file: if the file could not be written, or the database rejected the load statement without executing
+     * it. The rows are then iterated again, so they must be re-iterable, like a {@link java.util.Collection}; if they cannot
+     * be iterated again the load fails instead. The load statement is never committed through the
+     * {@link DataManager#getGroupCommit() group commit}.
+     *
+     * @param  table        the table, without prefix
+     * @param  fields       the fields the values of each row are written to
+     * @param  rows         the rows, each an array of values in the order of the fields
+     * @param  listener     the listener notified of the progress, or null
+     * @return              a summary of the load
+     * @throws SQLException if a database error occurs
+     */
+    public BulkLoadResult load(String table, List<String> fields, Iterable<Object[]> rows, BulkLoadListener listener) throws SQLException {
+        if (fields == null || fields.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'fields' cannot be empty.");
+        }
+        if (rows == null) {
+            throw new IllegalArgumentException("Parameter 'rows' cannot be null.");
+        }
+        long start = System.currentTimeMillis();
+        Method method = getFileMethod();
+        Exception cause = null;
+        Iterator<Object[]> iterator = null;
+        long staged = 0;
+        if (method != null) {
+            Path file = null;
+            try {
+                file = this.directory != null ? Files.createTempFile(this.directory, "bulkload", ".csv") : Files.createTempFile("bulkload", ".csv");
+                Writer out = Files.newBufferedWriter(file, CHARSET);
+                try {
+                    int interval = this.progressInterval;
+                    iterator = rows.iterator();
+                    while (iterator.hasNext()) {
+                        Object[] row = iterator.next();
+                        checkRow(row, fields);
+                        writeRow(out, row, method);
+                        if (++staged % interval == 0 && listener != null) {
+                            listener.staged(staged);
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+                if (listener != null && staged % this.progressInterval != 0) {
+                    listener.staged(staged);
+                }
+                long loaded = staged == 0 ? 0 : loadFile(method, table, fields, file, listener);
+                return new BulkLoadResult(method, loaded, System.currentTimeMillis() - start, null);
+            } catch (IOException e) {
+                if (!this.fallback) {
+                    throw new SQLException("Could not write the rows to a temporary file", e);
+                }
+                cause = e;
+            } catch (SQLException e) {
+                if (!this.fallback || !isRejected(e, method)) {
+                    throw e;
+                }
+                cause = e;
+            } finally {
+                deleteFile(file);
+            }
+            this.dataManager.getLogger().debug("Falling back to JDBC batches for bulk load into '" + table + "': " + cause.getMessage());
+        }
+        Iterator<Object[]> again = rows.iterator();
+        if (iterator != null && (again == iterator || (staged > 0 && !again.hasNext()))) {
+            throw new SQLException("Could not fall back to JDBC batches for bulk load into '" + table + "', the rows cannot be iterated again", cause);
+        }
+        long loaded = loadBatches(table, fields, again, listener);
+        return new BulkLoadResult(Method.BATCH, loaded, System.currentTimeMillis() - start, cause);
+    }
+
+    private long loadFile(Method method, String table, List<String> fields, Path file, BulkLoadListener listener) throws SQLException {
+        long loaded = this.dataManager.processTableUpdate(table, fileQuery(method, table, fields, file), new Object[0], false);
+        if (listener != null) {
+            listener.loaded(loaded);
+        }
+        return loaded;
+    }
+
+    private void deleteFile(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            this.dataManager.getLogger().stackTrace(e);
+        }
+    }
+
+    /**
+     * Returns whether the database rejected the load statement without loading any rows. H2 rolls back a failed statement
+     * as a whole, while MySQL may keep the rows loaded before an error, for example into a MyISAM table, so only errors
+     * raised before it reads the file are accepted: a syntax or access error, or local infile being disabled.
+     */
+    private static boolean isRejected(SQLException e, Method method) {
+        if (method == Method.CSVREAD) {
+            return true;
+        }
+        switch (e.getErrorCode()) {
+            case 1148: // ER_NOT_ALLOWED_COMMAND
+            case 2068: // CR_LOAD_DATA_LOCAL_INFILE_REJECTED
+            case 3948: // ER_CLIENT_LOCAL_FILES_DISABLED
+                return true;
+        }
+        return e.getSQLState() != null && e.getSQLState().startsWith("42");
+    }
+
+    private long loadBatches(String table, List<String> fields, Iterator<Object[]> rows, BulkLoadListener listener) throws SQLException {
+        int batchSize = this.dataManager.getBatchSize();
+        List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+        long loaded = 0;
+        while (rows.hasNext()) {
+            Object[] row = rows.next();
+            checkRow(row, fields);
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < row.length; i++) {
+                values.put(fields.get(i), row[i]);
+            }
+            batch.add(values);
+            if (batch.size() == batchSize) {
+                loaded += this.dataManager.insertBatch(table, batch).getRowCount();
+                batch.clear();
+                if (listener != null) {
+                    listener.loaded(loaded);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            loaded += this.dataManager.insertBatch(table, batch).getRowCount();
+            if (listener != null) {
+                listener.loaded(loaded);
+            }
+        }
+        return loaded;
+    }
+
+    private String fileQuery(Method method, String table, List<String> fields, Path file) {
+        String path = file.toAbsolutePath().toString().replace('\\', '/').replace("'", "''");
+        StringBuilder columns = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            columns.append(i > 0 ? ", `" : "`").append(fields.get(i)).append('`');
+        }
+        String name = "`" + this.dataManager.getPrefix() + table + "`";
+        if (method == Method.LOAD_DATA) {
+            return "LOAD DATA LOCAL INFILE '" + path + "' INTO TABLE " + name + " CHARACTER SET utf8"
+                    + " FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY '' LINES TERMINATED BY '\\n'"
+                    + " (" + columns + ")";
+        }
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            names.append(i > 0 ? ",C" : "C").append(i);
+        }
+        return "INSERT INTO " + name + " (" + columns + ") SELECT * FROM CSVREAD('" + path + "', '" + names + "', 'charset=UTF-8')";
+    }
+
+    private static void writeRow(Writer out, Object[] row, Method method) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeValue(out, row[i], method);
+        }
+        out.write('\n');
+    }
+
+    private static void checkRow(Object[] row, List<String> fields) {
+        if (row == null || row.length != fields.size()) {
+            throw new IllegalArgumentException("Row has " + (row == null ? 0 : row.length) + " values, expected " + fields.size() + ".");
+        }
+    }
+
+    /**
+     * Writes a value as a CSV field: strings quoted with doubled quotes, numbers and booleans unquoted,
+     * and null as an unquoted <code>NULL</code> for MySQL or as an empty field for H2.
+     */
+    private static void writeValue(Writer out, Object value, Method method) throws IOException {
+        Object val = value;
+        ValueType type;
+        if (val instanceof ValueHolder) {
+            type = ((ValueHolder) val).getType();
+            val = ((ValueHolder) val).getValue();
+        } else {
+            type = DataManager.parameterType(val);
+        }
+        switch (type) {
+            case NULL:
+                if (method == Method.LOAD_DATA) {
+                    out.write("NULL");
+                }
+                break;
+            case INTEGER:
+            case REAL:
+                out.write(val instanceof BigDecimal ? ((BigDecimal) val).toPlainString() : val.toString());
+                break;
+            case BOOLEAN:
+                out.write((Boolean) val ? '1' : '0');
+                break;
+            case DATE:
+                if (val instanceof java.sql.Date || val instanceof Time || val instanceof Timestamp) {
+                    writeQuoted(out, val.toString());
+                } else {
+                    writeQuoted(out, new Timestamp(((Date) val).getTime()).toString());
+                }
+                break;
+            case BLOB:
+            case BINARY:
+                throw new IOException("Binary values cannot be loaded from a CSV file");
+            default:
+                writeQuoted(out, val.toString());
+        }
+    }
+
+    private static void writeQuoted(Writer out, String value) throws IOException {
+        out.write('"');
+        int last = 0;
+        for (int i = value.indexOf('"'); i != -1; i = value.indexOf('"', i + 1)) {
+            out.write(value, last, i + 1 - last);
+            out.write('"');
+            last = i + 1;
+        }
+        out.write(value, last, value.length() - last);
+        out.write('"');
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Immutable metadata of a single result set column, resolved once per result set instead of once per field.
+ */
+public class ColumnDescriptor {
+    private final int column, sqlType, size;
+    private final String label, table, typeName, className;
+    private final boolean unsigned;
+
+    /**
+     * Reads the metadata of a column.
+     *
+     * @param  metaData     the result set metadata
+     * @param  column       the column index, starting at 1
+     * @throws SQLException if a database error occurs
+     */
+    public ColumnDescriptor(ResultSetMetaData metaData, int column) throws SQLException {
+        this.column = column;
+        this.label = metaData.getColumnLabel(column);
+        this.table = metaData.getTableName(column);
+        this.sqlType = metaData.getColumnType(column);
+        this.typeName = metaData.getColumnTypeName(column);
+        this.size = metaData.getColumnDisplaySize(column);
+        this.className = metaData.getColumnClassName(column);
+        this.unsigned = this.typeName != null && this.typeName.contains("UNSIGNED");
+    }
+
+    /**
+     * Reads the metadata of all columns of a result set.
+     *
+     * @param  metaData     the result set metadata
+     * @return              the column descriptors, in column order
+     * @throws SQLException if a database error occurs
+     */
+    public static ColumnDescriptor[] describe(ResultSetMetaData metaData) throws SQLException {
+        ColumnDescriptor[] columns = new ColumnDescriptor[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnDescriptor(metaData, i + 1);
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the index of the column in its result set.
+     *
+     * @return the column index, starting at 1
+     */
+    public int getColumn() {
+        return this.column;
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+
+    public String getTable() {
+        return this.table;
+    }
+
+    /**
+     * Returns the SQL type of the column.
+     *
+     * @return the SQL type
+     * @see    java.sql.Types
+     */
+    public int getSQLType() {
+        return this.sqlType;
+    }
+
+    public String getTypeName() {
+        return this.typeName;
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Returns the name of the Java class the driver returns the values of this column as.
+     *
+     * @return the class name
+     */
+    public String getClassName() {
+        return this.className;
+    }
+
+    public boolean isUnsigned() {
+        return this.unsigned;
+    }
+}
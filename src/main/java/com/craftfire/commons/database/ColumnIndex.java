@@ -0,0 +1,80 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable, case-insensitive map of column names to column indexes, built once per result set and shared by all its rows.
+ */
+public class ColumnIndex {
+    private final Map<String, Integer> folded;
+    private final int size;
+
+    /**
+     * Creates a column index for the given column names. If a name occurs more than once, the first column wins.
+     *
+     * @param names  the column names, in column order
+     */
+    public ColumnIndex(List<String> names) {
+        this.size = names.size();
+        this.folded = new HashMap<String, Integer>(names.size() * 2);
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            if (name == null) {
+                continue;
+            }
+            String key = fold(name);
+            if (!this.folded.containsKey(key)) {
+                this.folded.put(key, i);
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of columns in the index.
+     *
+     * @return the amount of columns
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the index of the first column with the given name, ignoring case.
+     *
+     * @param  name  the column name
+     * @return       the index of the column starting at 0, or -1 if there is no such column
+     */
+    public int indexOf(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer index = this.folded.get(fold(name));
+        return index == null ? -1 : index;
+    }
+
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+}
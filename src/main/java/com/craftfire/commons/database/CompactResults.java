@@ -0,0 +1,316 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A memory-compact {@link Results} implementation which stores the values column by column.
+ * <p>
+ * Column metadata is kept once per column instead of once per field. Columns the driver returns as
+ * <code>Integer</code>, <code>Long</code> or <code>Double</code> are stored in primitive arrays with a null bitmap,
+ * text columns in a <code>String</code> array, and all other columns in an <code>Object</code> array.
+ * {@link DataRow}s and {@link DataField}s are only created when they are requested, and are not kept.
+ */
+public class CompactResults extends Results {
+    private static final int INT = 0, LONG = 1, DOUBLE = 2, STRING = 3, BLOB = 4, OBJECT = 5;
+    private final ColumnDescriptor[] descriptors;
+    private final int[] kinds;
+    private final Object[] columns;
+    private final BitSet[] nulls;
+    private final ColumnIndex columnIndex;
+    private int size = 0, capacity = 16;
+
+    public CompactResults(String query, ResultSet rs) throws SQLException {
+        super(query, rs.getMetaData().getColumnCount());
+        this.descriptors = ColumnDescriptor.describe(rs.getMetaData());
+        int count = this.descriptors.length;
+        this.kinds = new int[count];
+        this.columns = new Object[count];
+        this.nulls = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            this.kinds[i] = kindOf(this.descriptors[i].getSQLType(), this.descriptors[i].getClassName());
+            this.nulls[i] = new BitSet();
+            this.columns[i] = newColumn(this.kinds[i], this.capacity);
+        }
+        this.columnIndex = createColumnIndex(this.descriptors);
+        while (rs.next()) {
+            if (this.size == this.capacity) {
+                grow();
+            }
+            for (int i = 0; i < count; i++) {
+                read(rs, i);
+            }
+            this.size++;
+        }
+    }
+
+    /**
+     * Returns the amount of rows.
+     *
+     * @return the amount of rows
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getColumnCount() {
+        return this.descriptors.length;
+    }
+
+    /**
+     * Returns the index of the column with the given label, ignoring case.
+     *
+     * @param  name  the column label
+     * @return       the index of the column starting at 0, or -1 if there is no such column
+     */
+    public int getColumnIndex(String name) {
+        return this.columnIndex.indexOf(name);
+    }
+
+    public String getColumnName(int column) {
+        return this.descriptors[column].getLabel();
+    }
+
+    public boolean isNull(int row, int column) {
+        checkRow(row);
+        switch (this.kinds[column]) {
+            case INT:
+            case LONG:
+            case DOUBLE:
+                return this.nulls[column].get(row);
+            default:
+                return ((Object[]) this.columns[column])[row] == null;
+        }
+    }
+
+    /**
+     * Returns a value as int, without boxing if the column is stored as a primitive.
+     *
+     * @param  row     the row index, starting at 0
+     * @param  column  the column index, starting at 0
+     * @return         the value, or 0 if it is null
+     */
+    public int getInt(int row, int column) {
+        checkRow(row);
+        switch (this.kinds[column]) {
+            case INT:
+                return ((int[]) this.columns[column])[row];
+            case LONG:
+                return (int) ((long[]) this.columns[column])[row];
+            case DOUBLE:
+                return (int) ((double[]) this.columns[column])[row];
+            default:
+                return toField(row, column).getInt();
+        }
+    }
+
+    public long getLong(int row, int column) {
+        checkRow(row);
+        switch (this.kinds[column]) {
+            case INT:
+                return ((int[]) this.columns[column])[row];
+            case LONG:
+                return ((long[]) this.columns[column])[row];
+            case DOUBLE:
+                return (long) ((double[]) this.columns[column])[row];
+            default:
+                return toField(row, column).getLong();
+        }
+    }
+
+    public double getDouble(int row, int column) {
+        checkRow(row);
+        switch (this.kinds[column]) {
+            case INT:
+                return ((int[]) this.columns[column])[row];
+            case LONG:
+                return ((long[]) this.columns[column])[row];
+            case DOUBLE:
+                return ((double[]) this.columns[column])[row];
+            default:
+                return toField(row, column).getDouble();
+        }
+    }
+
+    public String getString(int row, int column) {
+        checkRow(row);
+        if (this.kinds[column] == STRING) {
+            return ((String[]) this.columns[column])[row];
+        }
+        return toField(row, column).getString();
+    }
+
+    /**
+     * Returns a value the same way the driver returned it, boxing primitive columns.
+     *
+     * @param  row     the row index, starting at 0
+     * @param  column  the column index, starting at 0
+     * @return         the value, or null
+     */
+    public Object getObject(int row, int column) {
+        checkRow(row);
+        if (isNull(row, column)) {
+            return null;
+        }
+        switch (this.kinds[column]) {
+            case INT:
+                return ((int[]) this.columns[column])[row];
+            case LONG:
+                return ((long[]) this.columns[column])[row];
+            case DOUBLE:
+                return ((double[]) this.columns[column])[row];
+            default:
+                return ((Object[]) this.columns[column])[row];
+        }
+    }
+
+    /**
+     * Creates a {@link DataRow} with the values of the given row.
+     *
+     * @param  row  the row index, starting at 0
+     * @return      a new DataRow
+     */
+    public DataRow getRow(int row) {
+        checkRow(row);
+        DataRow dataRow = new DataRow(this.columnIndex);
+        for (int i = 0; i < this.descriptors.length; i++) {
+            dataRow.add(toField(row, i));
+        }
+        return dataRow;
+    }
+
+    /**
+     * Returns a read-only list view which creates the {@link DataRow}s when they are requested.
+     *
+     * @return a list view of the rows
+     */
+    @Override
+    public List<DataRow> getArray() {
+        return new AbstractList<DataRow>() {
+            @Override
+            public DataRow get(int index) {
+                return getRow(index);
+            }
+
+            @Override
+            public int size() {
+                return CompactResults.this.size;
+            }
+        };
+    }
+
+    private DataField toField(int row, int column) {
+        return new DataField(this.descriptors[column], getObject(row, column));
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= this.size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + this.size);
+        }
+    }
+
+    private void read(ResultSet rs, int i) throws SQLException {
+        int column = i + 1;
+        switch (this.kinds[i]) {
+            case INT:
+                ((int[]) this.columns[i])[this.size] = rs.getInt(column);
+                break;
+            case LONG:
+                ((long[]) this.columns[i])[this.size] = rs.getLong(column);
+                break;
+            case DOUBLE:
+                ((double[]) this.columns[i])[this.size] = rs.getDouble(column);
+                break;
+            case STRING:
+                ((String[]) this.columns[i])[this.size] = rs.getString(column);
+                return;
+            case BLOB:
+                ((Object[]) this.columns[i])[this.size] = rs.getBlob(column);
+                return;
+            default:
+                ((Object[]) this.columns[i])[this.size] = rs.getObject(column);
+                return;
+        }
+        if (rs.wasNull()) {
+            this.nulls[i].set(this.size);
+        }
+    }
+
+    private void grow() {
+        this.capacity *= 2;
+        for (int i = 0; i < this.columns.length; i++) {
+            switch (this.kinds[i]) {
+                case INT:
+                    this.columns[i] = Arrays.copyOf((int[]) this.columns[i], this.capacity);
+                    break;
+                case LONG:
+                    this.columns[i] = Arrays.copyOf((long[]) this.columns[i], this.capacity);
+                    break;
+                case DOUBLE:
+                    this.columns[i] = Arrays.copyOf((double[]) this.columns[i], this.capacity);
+                    break;
+                case STRING:
+                    this.columns[i] = Arrays.copyOf((String[]) this.columns[i], this.capacity);
+                    break;
+                default:
+                    this.columns[i] = Arrays.copyOf((Object[]) this.columns[i], this.capacity);
+            }
+        }
+    }
+
+    private static int kindOf(int sqlType, String className) {
+        if (sqlType == Types.BLOB || sqlType == Types.LONGVARBINARY) {
+            return BLOB;
+        } else if (sqlType == Types.CLOB) {
+            return STRING;
+        } else if (Integer.class.getName().equals(className)) {
+            return INT;
+        } else if (Long.class.getName().equals(className)) {
+            return LONG;
+        } else if (Double.class.getName().equals(className)) {
+            return DOUBLE;
+        } else if (String.class.getName().equals(className)) {
+            return STRING;
+        }
+        return OBJECT;
+    }
+
+    private static Object newColumn(int kind, int capacity) {
+        switch (kind) {
+            case INT:
+                return new int[capacity];
+            case LONG:
+                return new long[capacity];
+            case DOUBLE:
+                return new double[capacity];
+            case STRING:
+                return new String[capacity];
+            default:
+                return new Object[capacity];
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Guards the connections a {@link DataManager} opens to its primary database with a circuit breaker,
+ * and validates its open connections in the background.
+ * <p>
+ * After {@link #getFailureThreshold()} consecutive failed connection attempts the circuit opens: further attempts fail
+ * immediately instead of waiting for the connect timeout of the driver. A background thread retries the connection after
+ * a delay which doubles with every failed retry, from {@link #getInitialBackoff()} up to {@link #getMaxBackoff()}.
+ * While a retry is in progress the circuit is half open and other attempts still fail immediately.
+ * Once a connection succeeds the circuit closes again.
+ */
+public class ConnectionMonitor {
+    /**
+     * The states of the circuit breaker.
+     */
+    public enum State {
+        /** Connections are opened normally. */
+        CLOSED,
+        /** The database is considered down, connection attempts fail immediately. */
+        OPEN,
+        /** A single connection attempt is made to find out whether the database is back. */
+        HALF_OPEN
+    }
+
+    private static final int STATES = State.values().length;
+    private final DataManager dataManager;
+    private final AtomicLongArray transitions = new AtomicLongArray(STATES * STATES);
+    private final AtomicLong rejected = new AtomicLong(), validations = new AtomicLong(), validationFailures = new AtomicLong();
+    private State state = State.CLOSED;
+    private int failures = 0, openings = 0;
+    private long retryAt = 0;
+    private SQLException lastError = null;
+    private volatile int failureThreshold = 3, validationTimeout = 5;
+    private volatile long initialBackoff = 1000, maxBackoff = 60000;
+    private int validationInterval = 30;
+    private boolean validating = false;
+    private ScheduledExecutorService scheduler = null;
+
+    public ConnectionMonitor(DataManager dataManager) {
+        if (dataManager == null) {
+            throw new IllegalArgumentException("Parameter 'dataManager' cannot be null.");
+        }
+        this.dataManager = dataManager;
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    /**
+     * Returns the error of the last failed connection attempt.
+     *
+     * @return the error, or null if no attempt failed since the last successful one
+     */
+    public synchronized SQLException getLastError() {
+        return this.lastError;
+    }
+
+    /**
+     * Returns how long connection attempts keep failing immediately before the next retry.
+     *
+     * @return the remaining time in milliseconds, 0 if the circuit is not open
+     */
+    public synchronized long getRetryDelay() {
+        return this.state == State.OPEN ? Math.max(0, this.retryAt - System.currentTimeMillis()) : 0;
+    }
+
+    public int getFailureThreshold() {
+        return this.failureThreshold;
+    }
+
+    /**
+     * Sets after how many consecutive failed connection attempts the circuit opens.
+     *
+     * @param failures  the amount of failures
+     */
+    public void setFailureThreshold(int failures) {
+        if (failures < 1) {
+            throw new IllegalArgumentException("Parameter 'failures' must be at least 1.");
+        }
+        this.failureThreshold = failures;
+    }
+
+    /**
+     * Returns the delay before the first retry after the circuit opened.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getInitialBackoff() {
+        return this.initialBackoff;
+    }
+
+    public void setInitialBackoff(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("Parameter 'millis' must be at least 1.");
+        }
+        this.initialBackoff = millis;
+    }
+
+    /**
+     * Returns the longest delay between two retries.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getMaxBackoff() {
+        return this.maxBackoff;
+    }
+
+    public void setMaxBackoff(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("Parameter 'millis' must be at least 1.");
+        }
+        this.maxBackoff = millis;
+    }
+
+    public int getValidationTimeout() {
+        return this.validationTimeout;
+    }
+
+    /**
+     * Sets how long a validation waits for the database to answer.
+     *
+     * @param seconds  the timeout in seconds, 0 for no timeout
+     */
+    public void setValidationTimeout(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Parameter 'seconds' cannot be negative.");
+        }
+        this.validationTimeout = seconds;
+    }
+
+    public synchronized int getValidationInterval() {
+        return this.validationInterval;
+    }
+
+    /**
+     * Sets how often the idle connections are validated in the background.
+     *
+     * @param seconds  the interval in seconds, 0 disables the background validation
+     */
+    public synchronized void setValidationInterval(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Parameter 'seconds' cannot be negative.");
+        }
+        this.validationInterval = seconds;
+        if (this.validating) {
+            stop();
+            start();
+        }
+    }
+
+    /**
+     * Returns how often the circuit went from one state to another.
+     *
+     * @param  from  the state before the transition
+     * @param  to    the state after the transition
+     * @return       the amount of transitions
+     */
+    public long getTransitionCount(State from, State to) {
+        return this.transitions.get(from.ordinal() * STATES + to.ordinal());
+    }
+
+    /**
+     * Returns the amount of connection attempts which failed immediately because the circuit was open.
+     *
+     * @return the amount of rejected attempts
+     */
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    public long getValidationCount() {
+        return this.validations.get();
+    }
+
+    public long getValidationFailureCount() {
+        return this.validationFailures.get();
+    }
+
+    /**
+     * Checks whether a connection attempt may be made, called before opening a connection.
+     *
+     * @throws SQLException if the circuit is open, or half open with a retry in progress
+     */
+    public void beforeConnect() throws SQLException {
+        synchronized (this) {
+            if (this.state == State.CLOSED) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (this.state == State.OPEN && now >= this.retryAt) {
+                transition(State.HALF_OPEN);
+                return;
+            }
+            this.rejected.incrementAndGet();
+            String wait = this.state == State.OPEN ? "retrying in " + (this.retryAt - now) + " ms" : "retry in progress";
+            throw new SQLException("The database is unavailable, " + wait, "08001", this.lastError);
+        }
+    }
+
+    /**
+     * Records a successful connection attempt, which closes the circuit.
+     */
+    public synchronized void connected() {
+        this.failures = 0;
+        this.openings = 0;
+        this.lastError = null;
+        if (this.state != State.CLOSED) {
+            this.dataManager.getLogger().info("The connection to the database for '" + this.dataManager.getDataType() + "' has been restored.");
+            transition(State.CLOSED);
+        }
+    }
+
+    /**
+     * Records a failed connection attempt, which opens the circuit once the failure threshold is reached,
+     * or right away when the attempt was a retry.
+     *
+     * @param e  the error the attempt failed with
+     */
+    public synchronized void connectFailed(SQLException e) {
+        this.lastError = e;
+        this.failures++;
+        if (this.state == State.HALF_OPEN || (this.state == State.CLOSED && this.failures >= this.failureThreshold)) {
+            long backoff = Math.min(this.maxBackoff, this.initialBackoff << Math.min(this.openings, 30));
+            this.openings++;
+            this.retryAt = System.currentTimeMillis() + backoff;
+            this.dataManager.getLogger().warning("Could not connect to the database for '" + this.dataManager.getDataType() + "', failing fast for "
+                    + backoff + " ms.");
+            transition(State.OPEN);
+            scheduleRetry(backoff);
+        }
+    }
+
+    /**
+     * Validates a connection with {@link Connection#isValid(int)}.
+     *
+     * @param  connection  the connection, not in use by any other thread
+     * @return             true if the connection is valid
+     */
+    public boolean validate(Connection connection) {
+        this.validations.incrementAndGet();
+        boolean valid;
+        try {
+            valid = connection.isValid(this.validationTimeout);
+        } catch (SQLException e) {
+            valid = false;
+        }
+        if (!valid) {
+            this.validationFailures.incrementAndGet();
+        }
+        return valid;
+    }
+
+    /**
+     * Records validations made elsewhere, such as by the {@link ConnectionPool}.
+     *
+     * @param count     the amount of validated connections
+     * @param failures  the amount of connections which failed
+     */
+    protected void validated(int count, int failures) {
+        this.validations.addAndGet(count);
+        this.validationFailures.addAndGet(failures);
+    }
+
+    /**
+     * Starts the background validation, if it is enabled and not running yet.
+     */
+    public synchronized void start() {
+        if (this.validating || this.validationInterval == 0) {
+            return;
+        }
+        this.validating = true;
+        scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ConnectionMonitor.this.dataManager.validateConnections();
+                } catch (RuntimeException e) {
+                    ConnectionMonitor.this.dataManager.getLogger().stackTrace(e);
+                }
+            }
+        }, this.validationInterval, this.validationInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the background validation and any scheduled retry.
+     */
+    public synchronized void stop() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+        this.validating = false;
+    }
+
+    private void scheduleRetry(long delay) {
+        scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionMonitor.this) {
+                    if (ConnectionMonitor.this.state != State.OPEN) {
+                        return;
+                    }
+                }
+                try {
+                    ConnectionMonitor.this.dataManager.connect();
+                } catch (RuntimeException e) {
+                    ConnectionMonitor.this.dataManager.getLogger().stackTrace(e);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private ScheduledExecutorService scheduler() {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "DataManager-ConnectionMonitor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return this.scheduler;
+    }
+
+    private void transition(State to) {
+        this.transitions.incrementAndGet(this.state.ordinal() * STATES + to.ordinal());
+        this.state = to;
+    }
+}
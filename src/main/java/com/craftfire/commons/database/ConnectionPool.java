@@ -0,0 +1,445 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded pool of JDBC connections used by a {@link DataManager} in pooled mode.
+ * <p>
+ * Connections are handed out by {@link #acquire()} and must be given back with {@link #release(Connection)}.
+ * Idle connections are kept in LIFO order, so the most recently used (and most likely still alive) one is reused first.
+ */
+public class ConnectionPool {
+    private static final long VALIDATION_THRESHOLD = 1000;
+    private final DataManager dataManager;
+    private final LinkedList<Connection> idle = new LinkedList<Connection>();
+    private final Map<Connection, Long> idleSince = new IdentityHashMap<Connection, Long>();
+    private final Set<Connection> connections = Collections.newSetFromMap(new IdentityHashMap<Connection, Boolean>());
+    private final Set<Connection> retired = Collections.newSetFromMap(new IdentityHashMap<Connection, Boolean>());
+    private int minSize = 1, maxSize = 10, idleTimeout = 300, acquireTimeout = 30, validationTimeout = 5, pending = 0;
+    private String validationQuery = null;
+    private boolean closed = false;
+
+    /**
+     * Creates a new connection pool which opens its connections through the given DataManager.
+     *
+     * @param dataManager  the DataManager to open connections with
+     */
+    public ConnectionPool(DataManager dataManager) {
+        if (dataManager == null) {
+            throw new IllegalArgumentException("Parameter 'dataManager' cannot be null.");
+        }
+        this.dataManager = dataManager;
+    }
+
+    public synchronized int getMinSize() {
+        return this.minSize;
+    }
+
+    public synchronized void setMinSize(int minSize) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("Parameter 'minSize' cannot be negative.");
+        }
+        this.minSize = minSize;
+    }
+
+    public synchronized int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Parameter 'maxSize' must be at least 1.");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the amount of seconds after which an idle connection above the minimum size gets closed.
+     *
+     * @return the idle timeout in seconds, 0 means idle connections are never closed
+     */
+    public synchronized int getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    public synchronized void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns the amount of seconds {@link #acquire()} waits for a connection when the pool is exhausted.
+     *
+     * @return the acquire timeout in seconds, 0 means wait forever
+     */
+    public synchronized int getAcquireTimeout() {
+        return this.acquireTimeout;
+    }
+
+    public synchronized void setAcquireTimeout(int acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Returns the query used to validate idle connections before handing them out.
+     *
+     * @return the validation query, or null if {@link Connection#isValid(int)} is used instead
+     */
+    public synchronized String getValidationQuery() {
+        return this.validationQuery;
+    }
+
+    public synchronized void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    public synchronized int getValidationTimeout() {
+        return this.validationTimeout;
+    }
+
+    public synchronized void setValidationTimeout(int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    /**
+     * Returns the amount of connections currently opened by the pool, both idle and in use.
+     *
+     * @return the pool size
+     */
+    public synchronized int getSize() {
+        return this.connections.size();
+    }
+
+    public synchronized int getIdleCount() {
+        return this.idle.size();
+    }
+
+    public synchronized int getActiveCount() {
+        return this.connections.size() - this.idle.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Checks if the given connection has been opened by this pool and is not closed yet.
+     *
+     * @param  connection  the connection
+     * @return             true if the connection belongs to this pool
+     */
+    public synchronized boolean owns(Connection connection) {
+        return this.connections.contains(connection);
+    }
+
+    /**
+     * Opens connections until the pool reaches its minimum size.
+     *
+     * @throws SQLException if a connection could not be opened
+     */
+    public void fill() throws SQLException {
+        while (true) {
+            synchronized (this) {
+                if (this.closed || this.connections.size() + this.pending >= this.minSize) {
+                    return;
+                }
+                this.pending++;
+            }
+            Connection connection = null;
+            try {
+                connection = openConnection();
+            } finally {
+                synchronized (this) {
+                    this.pending--;
+                    if (connection != null) {
+                        this.connections.add(connection);
+                        pushIdle(connection);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a connection out of the pool, opening a new one if none is idle and the pool is not full yet.
+     *
+     * @return              a connection, never null
+     * @throws SQLException if the pool is closed, no connection became available within the acquire timeout,
+     *                      or a new connection could not be opened
+     */
+    public Connection acquire() throws SQLException {
+        long deadline = 0;
+        while (true) {
+            Connection candidate = null;
+            boolean create = false, fresh = false;
+            List<Connection> expired;
+            synchronized (this) {
+                if (this.closed) {
+                    throw new SQLException("The connection pool has been closed");
+                }
+                expired = evictIdle();
+                if (!this.idle.isEmpty()) {
+                    candidate = this.idle.removeFirst();
+                    long since = this.idleSince.remove(candidate);
+                    fresh = System.currentTimeMillis() - since < VALIDATION_THRESHOLD;
+                } else if (this.connections.size() + this.pending < this.maxSize) {
+                    this.pending++;
+                    create = true;
+                } else if (expired.isEmpty()) {
+                    if (deadline == 0) {
+                        deadline = this.acquireTimeout > 0 ? System.currentTimeMillis() + this.acquireTimeout * 1000L : Long.MAX_VALUE;
+                    }
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SQLException("Timed out after " + this.acquireTimeout + " seconds waiting for a pooled connection");
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a pooled connection", e);
+                    }
+                    continue;
+                }
+            }
+            // Closing connections may block on the network, so it is never done while holding the lock.
+            destroyAll(expired);
+            if (create) {
+                return open();
+            }
+            if (candidate == null) {
+                continue;
+            }
+            if (fresh || validate(candidate)) {
+                return candidate;
+            }
+            discard(candidate);
+        }
+    }
+
+    /**
+     * Gives a connection back to the pool. Closed connections and connections of a closed pool are discarded.
+     *
+     * @param connection  the connection to release
+     */
+    public void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        boolean usable;
+        try {
+            usable = !connection.isClosed();
+        } catch (SQLException e) {
+            usable = false;
+        }
+        synchronized (this) {
+            if (!this.connections.contains(connection)) {
+                return;
+            }
+            if (usable && !this.closed && !this.retired.remove(connection)) {
+                pushIdle(connection);
+                notifyAll();
+                return;
+            }
+        }
+        discard(connection);
+    }
+
+    /**
+     * Validates all idle connections now, closing the ones which fail. The connections are taken out of the pool while
+     * they are validated, so they cannot be handed out in the meantime.
+     *
+     * @return the amount of connections which failed validation
+     */
+    public int validateIdle() {
+        List<Connection> candidates;
+        Map<Connection, Long> since = new IdentityHashMap<Connection, Long>();
+        synchronized (this) {
+            candidates = new ArrayList<Connection>(this.idle);
+            since.putAll(this.idleSince);
+            this.idle.clear();
+            this.idleSince.clear();
+        }
+        List<Connection> failed = new ArrayList<Connection>();
+        for (Iterator<Connection> it = candidates.iterator(); it.hasNext();) {
+            Connection connection = it.next();
+            if (!validate(connection)) {
+                it.remove();
+                failed.add(connection);
+            }
+        }
+        int invalid = failed.size();
+        synchronized (this) {
+            for (Connection connection : candidates) {
+                if (this.closed || this.retired.remove(connection)) {
+                    failed.add(connection);
+                } else {
+                    this.idle.addLast(connection);
+                    this.idleSince.put(connection, since.get(connection));
+                }
+            }
+            notifyAll();
+        }
+        for (Connection connection : failed) {
+            discard(connection);
+        }
+        return invalid;
+    }
+
+    /**
+     * Closes all idle connections and retires the ones in use, so they get closed when released. The pool stays usable.
+     */
+    public void clear() {
+        List<Connection> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<Connection>(this.idle);
+            this.idle.clear();
+            this.idleSince.clear();
+            this.retired.addAll(this.connections);
+            this.retired.removeAll(toClose);
+        }
+        for (Connection connection : toClose) {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Closes all idle connections and marks the pool as closed. Connections still in use get closed when they are released.
+     */
+    public void close() {
+        List<Connection> toClose;
+        synchronized (this) {
+            this.closed = true;
+            toClose = new ArrayList<Connection>(this.idle);
+            this.idle.clear();
+            this.idleSince.clear();
+            notifyAll();
+        }
+        for (Connection connection : toClose) {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Opens a new connection for the pool. Uses {@link DataManager#createConnection()} unless overridden.
+     *
+     * @return              the new connection
+     * @throws SQLException if the connection could not be opened
+     */
+    protected Connection openConnection() throws SQLException {
+        return this.dataManager.createConnection();
+    }
+
+    private Connection open() throws SQLException {
+        Connection connection = null;
+        try {
+            connection = openConnection();
+            return connection;
+        } finally {
+            synchronized (this) {
+                this.pending--;
+                if (connection != null) {
+                    this.connections.add(connection);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private boolean validate(Connection connection) {
+        String query;
+        int timeout;
+        synchronized (this) {
+            query = this.validationQuery;
+            timeout = this.validationTimeout;
+        }
+        try {
+            if (query == null) {
+                return connection.isValid(timeout);
+            }
+            Statement statement = connection.createStatement();
+            try {
+                statement.setQueryTimeout(timeout);
+                statement.execute(query);
+                return true;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            this.dataManager.getLogger().debug("Discarding pooled connection which failed validation: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void discard(Connection connection) {
+        synchronized (this) {
+            this.connections.remove(connection);
+            this.retired.remove(connection);
+            notifyAll();
+        }
+        this.dataManager.destroyConnection(connection);
+    }
+
+    private void pushIdle(Connection connection) {
+        this.idle.addFirst(connection);
+        this.idleSince.put(connection, System.currentTimeMillis());
+    }
+
+    private void destroyAll(List<Connection> connections) {
+        for (Connection connection : connections) {
+            this.dataManager.destroyConnection(connection);
+        }
+    }
+
+    private List<Connection> evictIdle() {
+        List<Connection> expired = Collections.emptyList();
+        if (this.idleTimeout <= 0) {
+            return expired;
+        }
+        long limit = System.currentTimeMillis() - this.idleTimeout * 1000L;
+        Iterator<Connection> it = this.idle.descendingIterator();
+        while (it.hasNext() && this.connections.size() > this.minSize) {
+            Connection connection = it.next();
+            if (this.idleSince.get(connection) > limit) {
+                break;
+            }
+            it.remove();
+            this.idleSince.remove(connection);
+            this.connections.remove(connection);
+            if (expired.isEmpty()) {
+                expired = new ArrayList<Connection>();
+            }
+            expired.add(connection);
+        }
+        return expired;
+    }
+}
@@ -39,13 +39,7 @@ public class DataField extends AbstractValueHolder {
     private final ValueHolder holder;
 
     public DataField(int column, ResultSetMetaData metaData, Object data) throws SQLException {
-        this.size = metaData.getColumnDisplaySize(column);
-        ValueType vtype = sqlTypeParse(this.sqltype, this.size, data);
-        String name = metaData.getColumnLabel(column);
-        boolean unsigned = metaData.getColumnTypeName(column).contains("UNSIGNED");
-        this.holder = new ValueHolderBase(vtype, name, unsigned, data);
-        this.sqltype = metaData.getColumnType(column);
-        this.table = metaData.getTableName(column);
+        this(new ColumnDescriptor(metaData, column), data);
     }
 
     public DataField(ValueType type, int size, Object value) {
@@ -71,24 +65,45 @@ public class DataField extends AbstractValueHolder {
         this.size = size;
     }
 
+    /**
+     * Creates a field of the given column holding the given value.
+     *
+     * @param column  the column descriptor
+     * @param data    the value
+     */
+    public DataField(ColumnDescriptor column, Object data) {
+        this.sqltype = column.getSQLType();
+        this.size = column.getSize();
+        this.table = column.getTable();
+        this.holder = new ValueHolderBase(sqlTypeParse(this.sqltype, this.size, data), column.getLabel(), column.isUnsigned(), data);
+    }
+
     public DataField(int column, ResultSet resultset) throws SQLException {
-        ResultSetMetaData metaData = resultset.getMetaData();
-        int size = metaData.getColumnDisplaySize(column);
+        this(new ColumnDescriptor(resultset.getMetaData(), column), resultset);
+    }
+
+    /**
+     * Reads the field of the given column from the current row of the result set.
+     * Use one {@link ColumnDescriptor} per column for all rows, see {@link ColumnDescriptor#describe(ResultSetMetaData)}.
+     *
+     * @param  column       the column descriptor
+     * @param  resultset    the result set
+     * @throws SQLException if a database error occurs
+     */
+    public DataField(ColumnDescriptor column, ResultSet resultset) throws SQLException {
+        this.sqltype = column.getSQLType();
+        this.size = column.getSize();
+        this.table = column.getTable();
         Object data;
-        if (metaData.getColumnType(column) == Types.BLOB || metaData.getColumnType(column) == Types.LONGVARBINARY) {
-            data = resultset.getBlob(column);
-        } else if (metaData.getColumnType(column) == Types.CLOB) {
-            data = resultset.getString(column);
+        if (this.sqltype == Types.BLOB || this.sqltype == Types.LONGVARBINARY) {
+            data = resultset.getBlob(column.getColumn());
+        } else if (this.sqltype == Types.CLOB) {
+            data = resultset.getString(column.getColumn());
         } else {
-            data = resultset.getObject(column);
+            data = resultset.getObject(column.getColumn());
         }
-        this.sqltype = metaData.getColumnType(column);
-        boolean unsigned = metaData.getColumnTypeName(column).contains("UNSIGNED");
-        ValueType vtype = sqlTypeParse(this.sqltype, size, data, resultset.wasNull());
-        String name = metaData.getColumnLabel(column);
-        this.holder = new ValueHolderBase(vtype, name, unsigned, data);
-        this.table = metaData.getTableName(column);
-        this.size = size;
+        ValueType vtype = sqlTypeParse(this.sqltype, this.size, data, resultset.wasNull());
+        this.holder = new ValueHolderBase(vtype, column.getLabel(), column.isUnsigned(), data);
     }
 
     private static ValueType sqlTypeParse(int sqltype, int size, Object data, boolean wasNull) {
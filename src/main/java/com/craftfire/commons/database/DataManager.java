@@ -21,6 +21,16 @@ package com.craftfire.commons.database;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.Driver;
@@ -29,38 +39,78 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.sql.Time;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Vector;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableModel;
 
 import com.craftfire.commons.TimeUtil;
+import com.craftfire.commons.cache.CacheItem;
+import com.craftfire.commons.util.ValueHolder;
 import com.craftfire.commons.util.ValueType;
 import com.craftfire.commons.util.LoggingManager;
 
 public class DataManager {
+    private static final int BLOB_BUFFER_SIZE = 8192;
+    private static final long VALIDATION_THRESHOLD = 1000;
     private boolean keepAlive, reconnect;
-    private String host, username, password, database, prefix = "", lastQuery,
-            directory;
+    private String host, username, password, database, prefix = "", directory;
+    private volatile String lastQuery;
     private String url = null;
-    private Map<Long, String> queries = new HashMap<Long, String>();
-    private long startup;
-    private int timeout = 0, port = 3306, queriesCount = 0;
+    private final QueryJournal journal = new QueryJournal(1000);
+    private final QueryMetrics metrics = new QueryMetrics();
+    private long startup, lastUsed;
+    private int timeout = 0, port = 3306;
+    private final AtomicInteger queriesCount = new AtomicInteger();
+    private final AtomicLong statementCacheHits = new AtomicLong(), statementCacheMisses = new AtomicLong(),
+            statementCacheEvictions = new AtomicLong();
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<Connection, StatementCache>();
+    private volatile int statementCacheSize = 32, batchSize = 500, streamFetchSize = 0;
+    private volatile boolean rewriteBatchedInserts = false;
+    private volatile int queryTimeout = 0, asyncThreads = 4;
+    private final Object executorLock = new Object();
+    private volatile ExecutorService executor = null;
+    private boolean ownExecutor = false;
+    private int activeQueries = 0;
     private Connection con = null;
+    private ConnectionPool pool = null;
+    private final ReplicaSet replicas = new ReplicaSet(this);
+    private final Set<Connection> streamConnections = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Connection, Boolean>()));
+    private final ResultCache resultCache = new ResultCache();
+    private final ThreadLocal<Transaction> transaction = new ThreadLocal<Transaction>();
+    private final GroupCommit groupCommit = new GroupCommit(this);
+    private final BulkLoader bulkLoader = new BulkLoader(this);
+    private final ConnectionMonitor monitor = new ConnectionMonitor(this);
     private final DataType datatype;
-    private PreparedStatement pStmt = null;
-    private Statement stmt = null;
-    private ResultSet rs = null;
     private LoggingManager loggingManager = new LoggingManager("CraftFire.DataManager", "[DataManager]");
 
     public DataManager(String username, String password) {
@@ -106,6 +156,104 @@ public class DataManager {
         }
     }
 
+    public boolean isPooled() {
+        return this.pool != null;
+    }
+
+    /**
+     * Switches the DataManager between a single shared connection and a bounded {@link ConnectionPool}.
+     * <p>
+     * In pooled mode every query borrows a connection from the pool, and the keepAlive/timeout settings are not used.
+     *
+     * @param pooled  true to use a connection pool
+     */
+    public void setPooled(boolean pooled) {
+        if (pooled == isPooled()) {
+            return;
+        }
+        if (pooled) {
+            close(true);
+            this.pool = new ConnectionPool(this);
+        } else {
+            ConnectionPool old = this.pool;
+            this.pool = null;
+            old.close();
+        }
+    }
+
+    /**
+     * Returns the connection pool used in pooled mode.
+     *
+     * @return the connection pool, or null if the DataManager is not pooled
+     */
+    public ConnectionPool getConnectionPool() {
+        return this.pool;
+    }
+
+    /**
+     * Returns the read replicas. Read-only queries, such as {@link #getResults(String, Object...)}, {@link #getField(ValueType, String)},
+     * {@link #getCount(String)}, {@link #exist(String, String, Object)} and {@link #stream(String, Object...)}, are balanced over
+     * the available replicas, while all writes go to the primary database.
+     *
+     * @return the read replicas
+     */
+    public ReplicaSet getReplicas() {
+        return this.replicas;
+    }
+
+    /**
+     * Adds a read replica of the database, reached with the same credentials and database name.
+     *
+     * @param  location  the host (and optionally port) of the replica for MySQL, or its directory for H2
+     * @return           the replica
+     */
+    public Replica addReplica(String location) {
+        if (location == null) {
+            throw new IllegalArgumentException("Parameter 'location' cannot be null.");
+        }
+        String url = createURL(location);
+        if (url == null) {
+            throw new IllegalStateException("Replicas are not supported for '" + this.datatype + "'.");
+        }
+        return this.replicas.add(url);
+    }
+
+    /**
+     * Returns the result cache of the table-based read methods, which is disabled by default.
+     *
+     * @return the result cache
+     */
+    public ResultCache getResultCache() {
+        return this.resultCache;
+    }
+
+    /**
+     * Returns the group commit of this DataManager, which is disabled by default.
+     *
+     * @return the group commit
+     */
+    public GroupCommit getGroupCommit() {
+        return this.groupCommit;
+    }
+
+    /**
+     * Returns the bulk loader of this DataManager, which holds the settings of {@link #bulkLoad(String, List, Iterable, BulkLoadListener)}.
+     *
+     * @return the bulk loader
+     */
+    public BulkLoader getBulkLoader() {
+        return this.bulkLoader;
+    }
+
+    /**
+     * Returns the monitor which validates the connections of this DataManager and fails fast while the database is down.
+     *
+     * @return the connection monitor
+     */
+    public ConnectionMonitor getConnectionMonitor() {
+        return this.monitor;
+    }
+
     public int getTimeout() {
         return this.timeout;
     }
@@ -188,17 +336,46 @@ public class DataManager {
     }
 
     public int getQueriesCount() {
-        return this.queriesCount;
+        return this.queriesCount.get();
     }
 
+    /**
+     * Returns the queries in the {@link #getQueryJournal() query journal}, keyed by their sequence number.
+     *
+     * @return     a copy of the journaled queries, oldest first
+     * @deprecated use {@link #getQueryJournal()}, which also records durations, rows and outcomes
+     */
+    @Deprecated
     public Map<Long, String> getQueries() {
-        return this.queries;
+        Map<Long, String> queries = new LinkedHashMap<Long, String>();
+        for (QueryRecord record : this.journal.snapshot()) {
+            queries.put(record.getSequence(), record.getQuery());
+        }
+        return queries;
+    }
+
+    /**
+     * Returns the journal of the latest queries, see {@link QueryJournal#setCapacity(int)} to change how many it keeps.
+     *
+     * @return the query journal
+     */
+    public QueryJournal getQueryJournal() {
+        return this.journal;
     }
 
     public String getLastQuery() {
         return this.lastQuery;
     }
 
+    /**
+     * Returns the latency metrics of the queries: a histogram per query shape, and the latest slow queries.
+     *
+     * @return the query metrics
+     */
+    public QueryMetrics getQueryMetrics() {
+        return this.metrics;
+    }
+
     public DataType getDataType() {
         return this.datatype;
     }
@@ -207,6 +384,183 @@ public class DataManager {
         return this.con;
     }
 
+    public int getStatementCacheSize() {
+        return this.statementCacheSize;
+    }
+
+    /**
+     * Sets how many prepared statements are cached per connection, keyed by their SQL text.
+     *
+     * @param size  the maximum amount of cached statements per connection, 0 disables the cache
+     */
+    public void setStatementCacheSize(int size) {
+        this.statementCacheSize = size;
+        List<PreparedStatement> evicted = new ArrayList<PreparedStatement>();
+        synchronized (this.statementCaches) {
+            for (StatementCache cache : this.statementCaches.values()) {
+                evicted.addAll(cache.setCapacity(size));
+            }
+        }
+        this.statementCacheEvictions.addAndGet(evicted.size());
+        closeStatements(evicted);
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Sets the maximum amount of rows sent to the database in a single round-trip by the batch methods.
+     *
+     * @param batchSize  the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Parameter 'batchSize' must be at least 1.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public boolean isRewriteBatchedInserts() {
+        return this.rewriteBatchedInserts;
+    }
+
+    /**
+     * Sets whether {@link #insertBatch(String, List)} rewrites each batch into a single multi-row
+     * <code>INSERT ... VALUES (...), (...)</code> statement on MySQL.
+     *
+     * @param rewrite  true to rewrite batched inserts
+     */
+    public void setRewriteBatchedInserts(boolean rewrite) {
+        this.rewriteBatchedInserts = rewrite;
+    }
+
+    /**
+     * Returns the fetch size used by {@link #stream(String, Object...)}.
+     * If none has been set, MySQL uses <code>Integer.MIN_VALUE</code>, which makes Connector/J stream rows one by one, and H2 uses 100.
+     *
+     * @return the fetch size
+     */
+    public int getStreamFetchSize() {
+        if (this.streamFetchSize != 0) {
+            return this.streamFetchSize;
+        }
+        return this.datatype == DataType.MYSQL ? Integer.MIN_VALUE : 100;
+    }
+
+    public void setStreamFetchSize(int fetchSize) {
+        this.streamFetchSize = fetchSize;
+    }
+
+    public int getQueryTimeout() {
+        return this.queryTimeout;
+    }
+
+    /**
+     * Sets the timeout of every statement, see {@link Statement#setQueryTimeout(int)}.
+     * Asynchronous queries can override it with their own timeout.
+     *
+     * @param seconds  the timeout in seconds, 0 for no timeout
+     */
+    public void setQueryTimeout(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Parameter 'seconds' cannot be negative.");
+        }
+        this.queryTimeout = seconds;
+    }
+
+    public int getAsyncThreads() {
+        return this.asyncThreads;
+    }
+
+    /**
+     * Sets the maximum amount of threads of the default executor, which runs the asynchronous queries.
+     *
+     * @param threads  the maximum amount of threads
+     */
+    public void setAsyncThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Parameter 'threads' must be at least 1.");
+        }
+        synchronized (this.executorLock) {
+            this.asyncThreads = threads;
+            if (this.ownExecutor) {
+                ThreadPoolExecutor pool = (ThreadPoolExecutor) this.executor;
+                if (threads > pool.getMaximumPoolSize()) {
+                    pool.setMaximumPoolSize(threads);
+                    pool.setCorePoolSize(threads);
+                } else {
+                    pool.setCorePoolSize(threads);
+                    pool.setMaximumPoolSize(threads);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the executor which runs the asynchronous queries.
+     * Unless one has been set, this is a pool of at most {@link #getAsyncThreads()} daemon threads, created when first needed.
+     * <p>
+     * Never waits for the lock of the data manager, which is held while connecting, so submitting a query doesn't block
+     * while the database is slow to connect.
+     *
+     * @return the executor
+     */
+    public ExecutorService getExecutor() {
+        ExecutorService executor = this.executor;
+        if (executor != null) {
+            return executor;
+        }
+        synchronized (this.executorLock) {
+            if (this.executor != null) {
+                return this.executor;
+            }
+            final String name = "DataManager-" + this.datatype + "-";
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(this.asyncThreads, this.asyncThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, name + this.count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            this.ownExecutor = true;
+            this.executor = pool;
+            return pool;
+        }
+    }
+
+    /**
+     * Sets the executor which runs the asynchronous queries. The default executor is shut down if it has been created.
+     *
+     * @param executor  the executor, or null to use the default executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        synchronized (this.executorLock) {
+            if (this.ownExecutor) {
+                this.executor.shutdown();
+            }
+            this.ownExecutor = false;
+            this.executor = executor;
+        }
+    }
+
+    public long getStatementCacheHits() {
+        return this.statementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return this.statementCacheMisses.get();
+    }
+
+    public long getStatementCacheEvictions() {
+        return this.statementCacheEvictions.get();
+    }
+
     protected boolean setURL() {
         switch (this.datatype) {
             case MYSQL:
@@ -214,12 +568,7 @@ public class DataManager {
                     getLogger().debug("Could not set mySQL URL. Host: " + this.host + ", Database: " + this.database);
                     return false;
                 }
-                this.url = "jdbc:mysql://" + this.host + "/" + this.database
-                        + "?zeroDateTimeBehavior=convertToNull"
-                        + "&jdbcCompliantTruncation=false"
-                        + "&autoReconnect=true"
-                        + "&characterEncoding=UTF-8"
-                        + "&characterSetResults=UTF-8";
+                this.url = createURL(this.host);
                 outputDrivers();
                 return true;
             case H2:
@@ -227,18 +576,37 @@ public class DataManager {
                     getLogger().debug("Could not set H2 URL. Host: " + this.directory + ", Database: " + this.database);
                     return false;
                 }
-                this.url = "jdbc:h2:" + this.directory + this.database + ";AUTO_RECONNECT=TRUE";
+                this.url = createURL(this.directory);
                 outputDrivers();
                 return true;
         }
         return false;
     }
 
+    /**
+     * Creates the JDBC URL of the database of this DataManager at another location, for example a read replica.
+     *
+     * @param  location  the host (and optionally port) for MySQL, or the directory for H2
+     * @return           the URL, or null if the data type isn't supported
+     */
+    protected String createURL(String location) {
+        switch (this.datatype) {
+            case MYSQL:
+                return "jdbc:mysql://" + location + "/" + this.database
+                        + "?zeroDateTimeBehavior=convertToNull"
+                        + "&jdbcCompliantTruncation=false"
+                        + "&autoReconnect=true"
+                        + "&characterEncoding=UTF-8"
+                        + "&characterSetResults=UTF-8";
+            case H2:
+                return "jdbc:h2:" + location + this.database + ";AUTO_RECONNECT=TRUE";
+        }
+        return null;
+    }
+
     public boolean exist(String table, String field, Object value) {
         try {
-            return getField(ValueType.STRING, "SELECT `" + field + "` " +
-                    "FROM `" + getPrefix() + table + "` " +
-                    "WHERE `" + field + "` = '" + value + "' " + "LIMIT 1") != null;
+            return getField(ValueType.STRING, table, field, "`" + field + "` = ?", value) != null;
         } catch (SQLException e) {
             return false;
         }
@@ -246,7 +614,7 @@ public class DataManager {
 
     public boolean tableExist(String table) {
         try {
-            return getField(ValueType.INTEGER, "SELECT COUNT(*) FROM `" + getPrefix() + table + "` LIMIT 1") != null;
+            return getCachedField(table, ValueType.INTEGER, "SELECT COUNT(*) FROM `" + getPrefix() + table + "` LIMIT 1") != null;
         } catch (SQLException e) {
             return false;
         }
@@ -255,7 +623,7 @@ public class DataManager {
     public int getLastID(String field, String table) {
         DataField f;
         try {
-            f = getField(ValueType.INTEGER, "SELECT `" + field +
+            f = getCachedField(table, ValueType.INTEGER, true, "SELECT `" + field +
                     "` FROM `" + getPrefix() + table +
                     "` ORDER BY `" + field + "` DESC LIMIT 1");
             if (f != null) {
@@ -270,7 +638,7 @@ public class DataManager {
     public int getLastID(String field, String table, String where) {
         DataField f;
         try {
-            f = getField(ValueType.INTEGER, "SELECT `" + field + "` "
+            f = getCachedField(table, ValueType.INTEGER, true, "SELECT `" + field + "` "
                     + "FROM `" + getPrefix() + table + "` " + "WHERE "
                     + where + " " + "ORDER BY `" + field + "` DESC LIMIT 1");
             if (f != null) {
@@ -285,7 +653,7 @@ public class DataManager {
     public int getCount(String table, String where) {
         DataField f;
         try {
-            f = getField(ValueType.INTEGER, "SELECT COUNT(*) FROM `"
+            f = getCachedField(table, ValueType.INTEGER, "SELECT COUNT(*) FROM `"
                     + getPrefix() + table + "` WHERE " + where
                     + " LIMIT 1");
             if (f != null) {
@@ -300,7 +668,7 @@ public class DataManager {
     public int getCount(String table) {
         DataField f;
         try {
-            f = getField(ValueType.INTEGER, "SELECT COUNT(*) FROM `"
+            f = getCachedField(table, ValueType.INTEGER, "SELECT COUNT(*) FROM `"
                     + getPrefix() + table + "` LIMIT 1");
             if (f != null) {
                 return f.getInt();
@@ -312,8 +680,8 @@ public class DataManager {
     }
 
     public void increaseField(String table, String field, String where) throws SQLException {
-        executeQuery("UPDATE `" + getPrefix() + table + "` SET `" + field
-                + "` = " + field + " + 1 WHERE " + where);
+        processTableUpdate(table, "UPDATE `" + getPrefix() + table + "` SET `" + field
+                + "` = " + field + " + 1 WHERE " + where, new Object[0]);
     }
 
     public String getStringField(String query) {
@@ -499,55 +867,88 @@ public class DataManager {
     }
 
     public DataField getField(ValueType type, String table, String field, String where) throws SQLException {
-        return getField(type, "SELECT `" + field + "` FROM `" + getPrefix() + table + "` WHERE " + where + " LIMIT 1");
+        return getCachedField(table, type, "SELECT `" + field + "` FROM `" + getPrefix() + table + "` WHERE " + where + " LIMIT 1");
+    }
+
+    /**
+     * Returns the first field matching the given where clause, with the <code>?</code> placeholders of the clause bound to the parameters.
+     *
+     * @param  type         the type to read the field as
+     * @param  table        the table, without prefix
+     * @param  field        the field name
+     * @param  where        the where clause, may contain <code>?</code> placeholders
+     * @param  params       the values bound to the placeholders
+     * @return              the field, or null if no row matches
+     * @throws SQLException if a database error occurs
+     */
+    public DataField getField(ValueType type, String table, String field, String where, Object... params) throws SQLException {
+        return getCachedField(table, type, "SELECT `" + field + "` FROM `" + getPrefix() + table + "` WHERE " + where + " LIMIT 1", params);
     }
 
     public DataField getField(ValueType type, String query) throws SQLException {
-        try {
-            this.rs = getResultSet(query);
-            if (this.rs.next()) {
+        return processQuery(query, fieldHandler(type));
+    }
+
+    private DataField getCachedField(String table, ValueType type, String query, Object... params) throws SQLException {
+        return getCachedField(table, type, false, query, params);
+    }
+
+    // With primary set, reads from the primary database even if there are replicas, for reads which have to see the
+    // writes just made, like the ID of an inserted row.
+    private DataField getCachedField(String table, ValueType type, boolean primary, String query, Object... params) throws SQLException {
+        if (!this.resultCache.isCached(table) || currentTransaction() != null) {
+            return processQuery(query, params, fieldHandler(type), primary);
+        }
+        Object key = ResultCache.key(type, query, params);
+        CacheItem item = this.resultCache.get(table, key);
+        if (item != null) {
+            return (DataField) item.getObject();
+        }
+        long generation = this.resultCache.getGeneration(table);
+        DataField field = processQuery(query, params, fieldHandler(type), primary);
+        this.resultCache.put(table, key, field, generation);
+        return field;
+    }
+
+    private ResultSetHandler<DataField> fieldHandler(final ValueType type) {
+        return new ResultSetHandler<DataField>() {
+            @Override
+            public DataField handle(ResultSet resultSet) throws SQLException {
+                if (!resultSet.next()) {
+                    return null;
+                }
                 Object value;
                 if (type.equals(ValueType.STRING)) {
-                    value = this.rs.getString(1);
+                    value = resultSet.getString(1);
                 } else if (type.equals(ValueType.INTEGER)) {
-                    value = this.rs.getInt(1);
+                    value = resultSet.getInt(1);
                 } else if (type.equals(ValueType.DATE)) {
-                    value = this.rs.getTimestamp(1);
+                    value = resultSet.getTimestamp(1);
                 } else if (type.equals(ValueType.BLOB)) {
-                    value = this.rs.getBlob(1);
+                    value = resultSet.getBlob(1);
                 } else if (type.equals(ValueType.BINARY)) {
-                    value = this.rs.getBytes(1);
+                    value = resultSet.getBytes(1);
                 } else if (type.equals(ValueType.BOOLEAN)) {
-                    value = this.rs.getBoolean(1);
+                    value = resultSet.getBoolean(1);
                 } else if (type.equals(ValueType.REAL)) {
-                    value = this.rs.getDouble(1);
+                    value = resultSet.getDouble(1);
                 } else if (type.equals(ValueType.UNKNOWN)) {
-                    DataField dataField = new DataField(1, this.rs);
-                    close();
-                    return dataField;
+                    return new DataField(1, resultSet);
                 } else {
-                    close();
                     return null;
                 }
-                DataField dataField = new DataField(type, this.rs.getMetaData().getColumnDisplaySize(1), value);
-                close();
-                return dataField;
+                return new DataField(type, resultSet.getMetaData().getColumnDisplaySize(1), value);
             }
-        } finally {
-            close();
-        }
-        return null;
+        };
     }
 
+
     public void executeQuery(String query) throws SQLException {
-        connect();
-        log(query);
-        if (this.con == null) {
-            throw new SQLException("Unable to connect to the database");
+        try {
+            processUpdate(query);
+        } finally {
+            invalidateResults(null);
         }
-        this.pStmt = this.con.prepareStatement(query);
-        this.pStmt.executeUpdate();
-        close();
     }
 
     public void executeQueryVoid(String query) {
@@ -560,96 +961,877 @@ public class DataManager {
 
     public void updateBlob(String table, String field, String where, String data) {
         try {
-            String query = "UPDATE `" + getPrefix() + table + "` " + "SET `" + field + "` = ? " + "WHERE " + where;
             byte[] array = data.getBytes();
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(array);
-            connect();
-            log(query);
-            if (this.con == null) {
-                throw new SQLException("Unable to connect to the database");
-            }
-            this.stmt = this.con.createStatement();
-            this.pStmt = this.con.prepareStatement(query);
-            this.pStmt.setBlob(1, inputStream, array.length);
-            this.pStmt.executeUpdate();
-            close();
+            updateBlob(table, field, where, new ByteArrayInputStream(array), array.length);
         } catch (SQLException e) {
             getLogger().stackTrace(e);
         }
     }
 
+    /**
+     * Updates a blob field with the content of a stream. The stream is read while the update executes,
+     * so the content is not copied into memory as a whole. The stream is not closed.
+     *
+     * @param  table        the table, without prefix
+     * @param  field        the blob field
+     * @param  where        the where clause, may contain <code>?</code> placeholders
+     * @param  data         the new content of the field
+     * @param  length       the amount of bytes to read from the stream, or -1 to read it until its end
+     * @param  whereParams  the values bound to the placeholders of the where clause
+     * @return              the amount of updated rows
+     * @throws SQLException if a database error occurs, or the stream could not be read
+     */
+    public int updateBlob(String table, String field, String where, InputStream data, long length, Object... whereParams) throws SQLException {
+        if (data == null) {
+            throw new IllegalArgumentException("Parameter 'data' cannot be null.");
+        }
+        String query = "UPDATE `" + getPrefix() + table + "` SET `" + field + "` = ? WHERE " + where;
+        Connection connection = acquireConnection();
+        try {
+            log(query);
+            PreparedStatement statement = prepare(connection, query);
+            boolean success = false;
+            try {
+                if (length < 0) {
+                    statement.setBlob(1, data);
+                } else {
+                    statement.setBlob(1, data, length);
+                }
+                for (int i = 0; i < whereParams.length; i++) {
+                    setParameter(statement, i + 2, whereParams[i]);
+                }
+                int rows = executeUpdate(connection, query, whereParams.length + 1, statement);
+                success = true;
+                return rows;
+            } finally {
+                recycle(connection, query, statement, success);
+            }
+        } finally {
+            releaseConnection(connection);
+            invalidateResults(table);
+        }
+    }
+
+    /**
+     * Updates a blob field with the content of a channel, see {@link #updateBlob(String, String, String, InputStream, long, Object...)}.
+     * The channel is not closed.
+     *
+     * @param  table        the table, without prefix
+     * @param  field        the blob field
+     * @param  where        the where clause, may contain <code>?</code> placeholders
+     * @param  data         the new content of the field
+     * @param  length       the amount of bytes to read from the channel, or -1 to read it until its end
+     * @param  whereParams  the values bound to the placeholders of the where clause
+     * @return              the amount of updated rows
+     * @throws SQLException if a database error occurs, or the channel could not be read
+     */
+    public int updateBlob(String table, String field, String where, ReadableByteChannel data, long length, Object... whereParams)
+            throws SQLException {
+        if (data == null) {
+            throw new IllegalArgumentException("Parameter 'data' cannot be null.");
+        }
+        return updateBlob(table, field, where, Channels.newInputStream(data), length, whereParams);
+    }
+
+    /**
+     * Updates a blob field with the content of a file, which is streamed to the database without loading it into memory.
+     *
+     * @param  table        the table, without prefix
+     * @param  field        the blob field
+     * @param  where        the where clause, may contain <code>?</code> placeholders
+     * @param  file         the file holding the new content of the field
+     * @param  whereParams  the values bound to the placeholders of the where clause
+     * @return              the amount of updated rows
+     * @throws SQLException if a database error occurs
+     * @throws IOException  if the file could not be opened
+     */
+    public int updateBlob(String table, String field, String where, Path file, Object... whereParams) throws SQLException, IOException {
+        InputStream data = Files.newInputStream(file);
+        try {
+            return updateBlob(table, field, where, data, Files.size(file), whereParams);
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Opens a stream over the content of the blob field of the first row matching the where clause.
+     * The content is read from the database as the stream is consumed, using the {@link #getStreamFetchSize() stream fetch size}.
+     * <p>
+     * The stream keeps its connection until it is closed, so it must always be closed. Outside of pooled mode and
+     * transactions the stream gets a connection of its own, see {@link #acquireStreamConnection()}.
+     *
+     * @param  table        the table, without prefix
+     * @param  field        the blob field
+     * @param  where        the where clause, may contain <code>?</code> placeholders
+     * @param  params       the values bound to the placeholders
+     * @return              the stream, or null if no row matches or the field is null
+     * @throws SQLException if a database error occurs
+     */
+    public BlobInputStream openBlob(String table, String field, String where, Object... params) throws SQLException {
+        String query = "SELECT `" + field + "` FROM `" + getPrefix() + table + "` WHERE " + where + " LIMIT 1";
+        Connection connection = acquireStreamConnection();
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        BlobInputStream blob = null;
+        boolean reusable = false;
+        try {
+            log(query);
+            statement = prepare(connection, query);
+            setParameters(statement, params);
+            statement.setFetchSize(getStreamFetchSize());
+            long start = System.nanoTime();
+            InputStream data;
+            try {
+                resultSet = executeQuery(connection, statement);
+                data = resultSet.next() ? resultSet.getBinaryStream(1) : null;
+            } catch (SQLException e) {
+                journal(query, params.length, start, -1, false, e);
+                readFailed(connection, e);
+                throw e;
+            }
+            journal(query, params.length, start, data == null ? 0 : 1, true, null);
+            if (data != null) {
+                blob = new BlobInputStream(this, query, connection, statement, resultSet, data);
+            } else {
+                statement.setFetchSize(0);
+                reusable = true;
+            }
+            return blob;
+        } finally {
+            if (blob == null) {
+                close(resultSet, null);
+                if (statement != null) {
+                    recycle(connection, query, statement, reusable);
+                }
+                releaseConnection(connection);
+            }
+        }
+    }
+
+    /**
+     * Opens a channel over the content of a blob field, see {@link #openBlob(String, String, String, Object...)}.
+     * The channel keeps its connection until it is closed, so it must always be closed.
+     *
+     * @param  table        the table, without prefix
+     * @param  field        the blob field
+     * @param  where        the where clause, may contain <code>?</code> placeholders
+     * @param  params       the values bound to the placeholders
+     * @return              the channel, or null if no row matches or the field is null
+     * @throws SQLException if a database error occurs
+     */
+    public ReadableByteChannel openBlobChannel(String table, String field, String where, Object... params) throws SQLException {
+        BlobInputStream blob = openBlob(table, field, where, params);
+        return blob == null ? null : Channels.newChannel(blob);
+    }
+
+    /**
+     * Copies the content of the blob field of the first row matching the where clause to a stream,
+     * through a fixed size buffer. The output stream is not closed.
+     *
+     * @param  table        the table, without prefix
+     * @param  field        the blob field
+     * @param  where        the where clause, may contain <code>?</code> placeholders
+     * @param  out          the stream to copy the content to
+     * @param  params       the values bound to the placeholders
+     * @return              the amount of bytes copied, or -1 if no row matches or the field is null
+     * @throws SQLException if a database error occurs
+     * @throws IOException  if the content could not be read or written
+     */
+    public long readBlob(String table, String field, String where, OutputStream out, Object... params) throws SQLException, IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("Parameter 'out' cannot be null.");
+        }
+        BlobInputStream blob = openBlob(table, field, where, params);
+        if (blob == null) {
+            return -1;
+        }
+        try {
+            byte[] buffer = new byte[BLOB_BUFFER_SIZE];
+            int read;
+            while ((read = blob.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return blob.getPosition();
+        } finally {
+            blob.close();
+        }
+    }
+
+    /**
+     * Writes the content of the blob field of the first row matching the where clause to a file, replacing the file
+     * if it exists. The file is not created if no row matches or the field is null.
+     *
+     * @param  table        the table, without prefix
+     * @param  field        the blob field
+     * @param  where        the where clause, may contain <code>?</code> placeholders
+     * @param  file         the file to write the content to
+     * @param  params       the values bound to the placeholders
+     * @return              the amount of bytes written, or -1 if no row matches or the field is null
+     * @throws SQLException if a database error occurs
+     * @throws IOException  if the content could not be read or the file could not be written
+     */
+    public long readBlob(String table, String field, String where, Path file, Object... params) throws SQLException, IOException {
+        BlobInputStream blob = openBlob(table, field, where, params);
+        if (blob == null) {
+            return -1;
+        }
+        try {
+            return Files.copy(blob, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            blob.close();
+        }
+    }
+
     public void updateField(String table, String field, Object value, String where) throws SQLException {
-        executeQuery("UPDATE `" + getPrefix() + table + "` SET `" + field + "` = " + fieldValueToString(value) + " WHERE " + where);
+        processTableUpdate(table, "UPDATE `" + getPrefix() + table + "` SET `" + field + "` = ? WHERE " + where, new Object[] { value });
     }
 
     public void updateFields(Map<String, Object> data, String table, String where) throws SQLException {
-        String update = updateFieldsString(data);
-        executeQuery("UPDATE `" + getPrefix() + table + "`" + update + " WHERE " + where);
+        updateFields(data, table, where, new Object[0]);
+    }
+
+    /**
+     * Updates the given fields of the rows matching the where clause. The values are bound as statement parameters,
+     * followed by the parameters of the where clause.
+     *
+     * @param  data         the field names and their new values
+     * @param  table        the table, without prefix
+     * @param  where        the where clause, may contain <code>?</code> placeholders
+     * @param  whereParams  the values bound to the placeholders of the where clause
+     * @throws SQLException if a database error occurs
+     */
+    public void updateFields(Map<String, Object> data, String table, String where, Object... whereParams) throws SQLException {
+        StringBuilder query = new StringBuilder("UPDATE `").append(getPrefix()).append(table).append("` SET ");
+        Object[] params = new Object[data.size() + whereParams.length];
+        int i = 0;
+        for (Entry<String, Object> entry : data.entrySet()) {
+            if (i > 0) {
+                query.append(", ");
+            }
+            query.append('`').append(entry.getKey()).append("` = ?");
+            params[i++] = entry.getValue();
+        }
+        System.arraycopy(whereParams, 0, params, i, whereParams.length);
+        query.append(" WHERE ").append(where);
+        processTableUpdate(table, query.toString(), params);
     }
 
     public void insertField(String table, String field, Object value) throws SQLException {
-        executeQuery("INSERT INTO `" + getPrefix() + table + "` (`" + field + "`) VALUES (" + fieldValueToString(value) + ")");
+        processTableUpdate(table, "INSERT INTO `" + getPrefix() + table + "` (`" + field + "`) VALUES (?)", new Object[] { value });
     }
 
     public void insertFields(Map<String, Object> data, String table) throws SQLException {
-        String insert = insertFieldString(data);
-        executeQuery("INSERT INTO `" + getPrefix() + table + "` " + insert);
+        StringBuilder query = new StringBuilder("INSERT INTO `").append(getPrefix()).append(table).append("` (");
+        StringBuilder values = new StringBuilder(") VALUES (");
+        Object[] params = new Object[data.size()];
+        int i = 0;
+        for (Entry<String, Object> entry : data.entrySet()) {
+            if (i > 0) {
+                query.append(", ");
+                values.append(", ");
+            }
+            query.append('`').append(entry.getKey()).append('`');
+            values.append('?');
+            params[i++] = entry.getValue();
+        }
+        processTableUpdate(table, query.append(values).append(')').toString(), params);
+    }
+
+    /**
+     * Inserts the rows using JDBC batches of up to {@link #getBatchSize()} rows.
+     * Consecutive rows with the same set of fields share a batch.
+     *
+     * @param  table        the table, without prefix
+     * @param  rows         the rows, each a map of field names and values
+     * @return              a summary of the executed batches
+     * @throws SQLException if a database error occurs
+     */
+    public BatchResult insertBatch(String table, List<Map<String, Object>> rows) throws SQLException {
+        long start = System.currentTimeMillis();
+        BatchResult result = new BatchResult();
+        boolean rewrite = this.rewriteBatchedInserts && this.datatype == DataType.MYSQL;
+        Connection connection = acquireConnection();
+        try {
+            int first = 0;
+            while (first < rows.size()) {
+                List<String> fields = new ArrayList<String>(rows.get(first).keySet());
+                int last = nextBatchEnd(rows, first, fields);
+                List<Map<String, Object>> batch = rows.subList(first, last);
+                if (rewrite) {
+                    Object[] params = new Object[fields.size() * batch.size()];
+                    int i = 0;
+                    for (Map<String, Object> row : batch) {
+                        for (String field : fields) {
+                            params[i++] = row.get(field);
+                        }
+                    }
+                    String query = insertQuery(table, fields, batch.size());
+                    log(query);
+                    PreparedStatement statement = prepare(connection, query);
+                    boolean success = false;
+                    try {
+                        setParameters(statement, params);
+                        result.addBatch(batch.size(), new int[] { executeUpdate(connection, query, params.length, statement) });
+                        success = true;
+                    } finally {
+                        recycle(connection, query, statement, success);
+                    }
+                } else {
+                    List<Object[]> params = new ArrayList<Object[]>(batch.size());
+                    for (Map<String, Object> row : batch) {
+                        Object[] values = new Object[fields.size()];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = row.get(fields.get(i));
+                        }
+                        params.add(values);
+                    }
+                    executeBatch(connection, insertQuery(table, fields, 1), params, result);
+                }
+                first = last;
+            }
+        } finally {
+            releaseConnection(connection);
+            invalidateResults(table);
+        }
+        result.setTime(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Updates rows using JDBC batches of up to {@link #getBatchSize()} rows.
+     * Each map holds the values of the key fields, which select the row to update, and the new values of the other fields.
+     *
+     * @param  table        the table, without prefix
+     * @param  rows         the rows, each a map of field names and values
+     * @param  keyFields    the fields which identify a row, they must be present in every map
+     * @return              a summary of the executed batches
+     * @throws SQLException if a database error occurs
+     */
+    public BatchResult updateBatch(String table, List<Map<String, Object>> rows, String... keyFields) throws SQLException {
+        if (keyFields.length == 0) {
+            throw new IllegalArgumentException("Parameter 'keyFields' cannot be empty.");
+        }
+        long start = System.currentTimeMillis();
+        BatchResult result = new BatchResult();
+        List<String> keys = Arrays.asList(keyFields);
+        Connection connection = acquireConnection();
+        try {
+            int first = 0;
+            while (first < rows.size()) {
+                List<String> fields = new ArrayList<String>(rows.get(first).keySet());
+                int last = nextBatchEnd(rows, first, fields);
+                fields.removeAll(keys);
+                StringBuilder query = new StringBuilder("UPDATE `").append(getPrefix()).append(table).append("` SET ");
+                for (int i = 0; i < fields.size(); i++) {
+                    query.append(i > 0 ? ", `" : "`").append(fields.get(i)).append("` = ?");
+                }
+                query.append(" WHERE ");
+                for (int i = 0; i < keyFields.length; i++) {
+                    query.append(i > 0 ? " AND `" : "`").append(keyFields[i]).append("` = ?");
+                }
+                List<Object[]> params = new ArrayList<Object[]>(last - first);
+                for (Map<String, Object> row : rows.subList(first, last)) {
+                    Object[] values = new Object[fields.size() + keyFields.length];
+                    int i = 0;
+                    for (String field : fields) {
+                        values[i++] = row.get(field);
+                    }
+                    for (String key : keyFields) {
+                        if (!row.containsKey(key)) {
+                            throw new IllegalArgumentException("Row is missing the key field '" + key + "'.");
+                        }
+                        values[i++] = row.get(key);
+                    }
+                    params.add(values);
+                }
+                executeBatch(connection, query.toString(), params, result);
+                first = last;
+            }
+        } finally {
+            releaseConnection(connection);
+            invalidateResults(table);
+        }
+        result.setTime(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Loads the rows into the table through the native bulk load facility of the database, falling back to JDBC batches
+     * where that is not possible, see {@link BulkLoader}.
+     *
+     * @param  table        the table, without prefix
+     * @param  fields       the fields the values of each row are written to
+     * @param  rows         the rows, each an array of values in the order of the fields, which must be re-iterable for the fallback
+     * @param  listener     the listener notified of the progress, or null
+     * @return              a summary of the load
+     * @throws SQLException if a database error occurs
+     */
+    public BulkLoadResult bulkLoad(String table, List<String> fields, Iterable<Object[]> rows, BulkLoadListener listener) throws SQLException {
+        return this.bulkLoader.load(table, fields, rows, listener);
+    }
+
+    private int nextBatchEnd(List<Map<String, Object>> rows, int first, List<String> fields) {
+        int last = first + 1;
+        int max = Math.min(rows.size(), first + this.batchSize);
+        while (last < max) {
+            Map<String, Object> row = rows.get(last);
+            if (row.size() != fields.size() || !row.keySet().containsAll(fields)) {
+                break;
+            }
+            last++;
+        }
+        return last;
+    }
+
+    private String insertQuery(String table, List<String> fields, int rows) {
+        StringBuilder query = new StringBuilder("INSERT INTO `").append(getPrefix()).append(table).append("` (");
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < fields.size(); i++) {
+            query.append(i > 0 ? ", `" : "`").append(fields.get(i)).append('`');
+            row.append(i > 0 ? ", ?" : "?");
+        }
+        row.append(')');
+        query.append(") VALUES ").append(row);
+        for (int i = 1; i < rows; i++) {
+            query.append(", ").append(row);
+        }
+        return query.toString();
+    }
+
+    private void executeBatch(Connection connection, String query, List<Object[]> params, BatchResult result) throws SQLException {
+        log(query);
+        PreparedStatement statement = prepare(connection, query);
+        boolean success = false;
+        try {
+            for (Object[] values : params) {
+                setParameters(statement, values);
+                statement.addBatch();
+            }
+            result.addBatch(params.size(), executeBatch(connection, query, params.isEmpty() ? 0 : params.size() * params.get(0).length, statement));
+            success = true;
+        } finally {
+            if (!success) {
+                try {
+                    statement.clearBatch();
+                } catch (SQLException e) {
+                    getLogger().stackTrace(e);
+                }
+            }
+            recycle(connection, query, statement, success);
+        }
     }
 
     @Deprecated
     public TableModel resultSetToTableModel(String query) {
         try {
-            this.rs = getResultSet(query);
-            ResultSetMetaData metaData = this.rs.getMetaData();
-            int numberOfColumns = metaData.getColumnCount();
-            Vector<String> columnNames = new Vector<String>();
-            for (int column = 0; column < numberOfColumns; column++) {
-                columnNames.addElement(metaData.getColumnLabel(column + 1));
-            }
-            Vector<Vector<Object>> rows = new Vector<Vector<Object>>();
-            while (this.rs.next()) {
-                Vector<Object> newRow = new Vector<Object>();
-                for (int i = 1; i <= numberOfColumns; i++) {
-                    newRow.addElement(this.rs.getObject(i));
+            return processQuery(query, new ResultSetHandler<TableModel>() {
+                @Override
+                public TableModel handle(ResultSet resultSet) throws SQLException {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    int numberOfColumns = metaData.getColumnCount();
+                    Vector<String> columnNames = new Vector<String>();
+                    for (int column = 0; column < numberOfColumns; column++) {
+                        columnNames.addElement(metaData.getColumnLabel(column + 1));
+                    }
+                    Vector<Vector<Object>> rows = new Vector<Vector<Object>>();
+                    while (resultSet.next()) {
+                        Vector<Object> newRow = new Vector<Object>();
+                        for (int i = 1; i <= numberOfColumns; i++) {
+                            newRow.addElement(resultSet.getObject(i));
+                        }
+                        rows.addElement(newRow);
+                    }
+                    return new DefaultTableModel(rows, columnNames);
                 }
-                rows.addElement(newRow);
-            }
-            close();
-            return new DefaultTableModel(rows, columnNames);
+            });
         } catch (Exception e) {
             getLogger().stackTrace(e);
-            close();
             return null;
         }
     }
 
     public Results getResults(String query) throws SQLException {
+        return getResults(query, new Object[0]);
+    }
+
+    /**
+     * Executes the query with its <code>?</code> placeholders bound to the parameters, and returns all its rows.
+     *
+     * @param  query        the query
+     * @param  params       the values bound to the placeholders
+     * @return              the results
+     * @throws SQLException if a database error occurs
+     */
+    public Results getResults(final String query, Object... params) throws SQLException {
+        return processQuery(query, params, new ResultSetHandler<Results>() {
+            @Override
+            public Results handle(ResultSet resultSet) throws SQLException {
+                return new Results(query, resultSet);
+            }
+        });
+    }
+
+    /**
+     * Executes the query and returns all its rows in the column-wise {@link CompactResults} representation,
+     * which uses several times less memory than {@link Results} for large reads.
+     *
+     * @param  query        the query
+     * @param  params       the values bound to the placeholders
+     * @return              the results
+     * @throws SQLException if a database error occurs
+     */
+    public CompactResults getCompactResults(final String query, Object... params) throws SQLException {
+        return processQuery(query, params, new ResultSetHandler<CompactResults>() {
+            @Override
+            public CompactResults handle(ResultSet resultSet) throws SQLException {
+                return new CompactResults(query, resultSet);
+            }
+        });
+    }
+
+    /**
+     * Executes a query with its <code>?</code> placeholders bound to the parameters.
+     *
+     * @param  sql          the query
+     * @param  params       the values bound to the placeholders, converted by their {@link ValueType}
+     * @return              the results
+     * @throws SQLException if a database error occurs
+     */
+    public Results query(String sql, Object... params) throws SQLException {
+        return getResults(sql, params);
+    }
+
+    /**
+     * Executes a query with its <code>?</code> placeholders bound to the parameters, and maps each row with the mapper.
+     *
+     * @param  mapper       the mapper
+     * @param  sql          the query
+     * @param  params       the values bound to the placeholders
+     * @return              the mapped rows
+     * @throws SQLException if a database error occurs
+     */
+    public <T> List<T> query(final RowMapper<T> mapper, String sql, Object... params) throws SQLException {
+        if (mapper == null) {
+            throw new IllegalArgumentException("Parameter 'mapper' cannot be null.");
+        }
+        return processQuery(sql, params, new ResultSetHandler<List<T>>() {
+            @Override
+            public List<T> handle(ResultSet resultSet) throws SQLException {
+                List<T> rows = new ArrayList<T>();
+                while (resultSet.next()) {
+                    rows.add(mapper.map(resultSet));
+                }
+                return rows;
+            }
+        });
+    }
+
+    /**
+     * Executes a query with its <code>?</code> placeholders bound to the parameters, and maps each row to an instance
+     * of the class, see {@link BeanMapper}.
+     *
+     * @param  type         the class rows are mapped to
+     * @param  sql          the query
+     * @param  params       the values bound to the placeholders
+     * @return              the mapped rows
+     * @throws SQLException if a database error occurs
+     */
+    public <T> List<T> query(Class<T> type, String sql, Object... params) throws SQLException {
+        final BeanMapper<T> beanMapper = BeanMapper.forClass(type);
+        return processQuery(sql, params, new ResultSetHandler<List<T>>() {
+            @Override
+            public List<T> handle(ResultSet resultSet) throws SQLException {
+                RowMapper<T> mapper = beanMapper.bind(resultSet.getMetaData());
+                List<T> rows = new ArrayList<T>();
+                while (resultSet.next()) {
+                    rows.add(mapper.map(resultSet));
+                }
+                return rows;
+            }
+        });
+    }
+
+    /**
+     * Executes an update with its <code>?</code> placeholders bound to the parameters.
+     *
+     * @param  sql          the update query
+     * @param  params       the values bound to the placeholders, converted by their {@link ValueType}
+     * @return              the amount of affected rows
+     * @throws SQLException if a database error occurs
+     */
+    public int update(String sql, Object... params) throws SQLException {
         try {
-            this.rs = getResultSet(query);
-            Results results = new Results(query, this.rs);
-            close();
-            return results;
+            return processUpdate(sql, params);
         } finally {
-            close();
+            invalidateResults(null);
+        }
+    }
+
+    /**
+     * Starts a transaction on the current thread. Until it is committed or rolled back, every query and update the thread
+     * runs through this DataManager uses the connection of the transaction, which is taken from the pool in pooled mode,
+     * or opened for the transaction otherwise.
+     *
+     * @return              the transaction
+     * @throws SQLException if the current thread is already in a transaction of this DataManager,
+     *                      or no connection could be obtained
+     */
+    public Transaction begin() throws SQLException {
+        if (currentTransaction() != null) {
+            throw new SQLException("A transaction is already active on this thread");
+        }
+        Connection connection = this.pool != null ? this.pool.acquire() : createConnection();
+        Transaction current;
+        try {
+            current = new Transaction(this, connection);
+        } catch (SQLException e) {
+            releaseTransactionConnection(connection);
+            throw e;
+        }
+        this.transaction.set(current);
+        return current;
+    }
+
+    /**
+     * Starts a transaction on the current thread on a connection of the caller, which stays open when the transaction
+     * ends. Used by {@link GroupCommit} to commit every group on the same connection.
+     *
+     * @param  connection   the connection
+     * @return              the transaction
+     * @throws SQLException if the current thread is already in a transaction of this DataManager
+     */
+    protected Transaction begin(Connection connection) throws SQLException {
+        if (currentTransaction() != null) {
+            throw new SQLException("A transaction is already active on this thread");
+        }
+        Transaction current = new Transaction(this, connection, false);
+        this.transaction.set(current);
+        return current;
+    }
+
+    /**
+     * Returns the active transaction of the current thread.
+     *
+     * @return the transaction, or null if the current thread is not in a transaction
+     */
+    public Transaction getTransaction() {
+        return currentTransaction();
+    }
+
+    /**
+     * Runs the callback in a transaction, which is committed if the callback returns and rolled back if it throws.
+     * If the current thread is already in a transaction, the callback joins it inside a savepoint instead,
+     * which is rolled back if the callback throws.
+     *
+     * @param  callback     the work to run in the transaction
+     * @return              the value returned by the callback
+     * @throws SQLException if the callback, the commit or the rollback failed
+     */
+    public <T> T inTransaction(TransactionCallback<T> callback) throws SQLException {
+        Transaction current = currentTransaction();
+        if (current != null) {
+            Savepoint savepoint = current.setSavepoint();
+            boolean success = false;
+            try {
+                T result = callback.execute(current);
+                success = true;
+                return result;
+            } finally {
+                if (!success && current.isActive()) {
+                    current.rollback(savepoint);
+                }
+            }
+        }
+        current = begin();
+        try {
+            T result = callback.execute(current);
+            if (current.isActive()) {
+                current.commit();
+            }
+            return result;
+        } finally {
+            current.close();
+        }
+    }
+
+    /**
+     * Called by a transaction once it has been committed or rolled back, unpins and releases its connection.
+     *
+     * @param ended        the transaction
+     * @param tables       the tables whose cached results have been invalidated in the transaction
+     * @param allTables    true if all cached results have been invalidated in the transaction
+     */
+    protected void endTransaction(Transaction ended, Set<String> tables, boolean allTables) {
+        if (this.transaction.get() == ended) {
+            this.transaction.remove();
+        }
+        if (ended.isReleasingConnection()) {
+            releaseTransactionConnection(ended.getConnection());
+        }
+        if (allTables) {
+            invalidateResults(null);
+        } else {
+            for (String table : tables) {
+                invalidateResults(table);
+            }
+        }
+    }
+
+    /**
+     * Returns the transaction of the current thread, dropping it if it is no longer active.
+     *
+     * @return the transaction, or null if the current thread is not in an active transaction
+     */
+    private Transaction currentTransaction() {
+        Transaction current = this.transaction.get();
+        if (current != null && !current.isActive()) {
+            // Its connection has been released, it must not be used any longer.
+            this.transaction.remove();
+            return null;
         }
+        return current;
+    }
+
+    private void releaseTransactionConnection(Connection connection) {
+        if (this.pool != null && this.pool.owns(connection)) {
+            this.pool.release(connection);
+        } else {
+            destroyConnection(connection);
+        }
+    }
+
+    /**
+     * Executes a query and returns a cursor which reads its rows one at a time, using a forward-only, read-only result set
+     * with the {@link #getStreamFetchSize() stream fetch size}.
+     * <p>
+     * The cursor keeps its connection until it is closed or fully read. On MySQL no other query can run on that connection
+     * in the meantime, so outside of pooled mode and transactions the cursor gets a connection of its own, see
+     * {@link #acquireStreamConnection()}.
+     *
+     * @param  query        the query
+     * @param  params       the values bound to the placeholders
+     * @return              the cursor, which must be closed if it is not fully read
+     * @throws SQLException if a database error occurs
+     */
+    public ResultCursor stream(String query, Object... params) throws SQLException {
+        Connection connection = acquireStreamConnection();
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        ResultCursor cursor = null;
+        try {
+            log(query);
+            statement = prepare(connection, query);
+            setParameters(statement, params);
+            statement.setFetchSize(getStreamFetchSize());
+            long start = System.nanoTime();
+            try {
+                resultSet = executeQuery(connection, statement);
+            } catch (SQLException e) {
+                journal(query, params.length, start, -1, false, e);
+                readFailed(connection, e);
+                throw e;
+            }
+            journal(query, params.length, start, -1, true, null);
+            cursor = new ResultCursor(this, query, connection, statement, resultSet);
+            return cursor;
+        } finally {
+            if (cursor == null) {
+                close(resultSet, null);
+                if (statement != null) {
+                    recycle(connection, query, statement, false);
+                }
+                releaseConnection(connection);
+            }
+        }
+    }
+
+    /**
+     * Runs the query on the {@link #getExecutor() executor}, the returned future can be cancelled. Outside of
+     * {@link #setPooled(boolean) pooled mode} a cancelled query keeps running on the shared connection until it ends or
+     * times out, see {@link QueryFuture}.
+     *
+     * @param  query    the query
+     * @param  timeout  the timeout of the statements the query executes in seconds, 0 for no timeout,
+     *                  or -1 for the {@link #getQueryTimeout() default timeout}
+     * @return          the future result of the query
+     */
+    public <T> QueryFuture<T> submit(Callable<T> query, int timeout) {
+        QueryFuture<T> future = new QueryFuture<T>(query, timeout);
+        getExecutor().execute(future);
+        return future;
+    }
+
+    public QueryFuture<Results> getResultsAsync(String query, Object... params) {
+        return getResultsAsync(-1, query, params);
+    }
+
+    /**
+     * Executes the query asynchronously, see {@link #getResults(String, Object...)}.
+     *
+     * @param  timeout  the query timeout in seconds, 0 for no timeout, or -1 for the default timeout
+     * @param  query    the query
+     * @param  params   the values bound to the placeholders
+     * @return          the future results
+     */
+    public QueryFuture<Results> getResultsAsync(int timeout, final String query, final Object... params) {
+        return submit(new Callable<Results>() {
+            @Override
+            public Results call() throws SQLException {
+                return getResults(query, params);
+            }
+        }, timeout);
+    }
+
+    public QueryFuture<Integer> updateAsync(String sql, Object... params) {
+        return updateAsync(-1, sql, params);
+    }
+
+    /**
+     * Executes the update asynchronously, see {@link #update(String, Object...)}.
+     *
+     * @param  timeout  the query timeout in seconds, 0 for no timeout, or -1 for the default timeout
+     * @param  sql      the update query
+     * @param  params   the values bound to the placeholders
+     * @return          the future amount of affected rows
+     */
+    public QueryFuture<Integer> updateAsync(int timeout, final String sql, final Object... params) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws SQLException {
+                return update(sql, params);
+            }
+        }, timeout);
+    }
+
+    public QueryFuture<Void> executeQueryAsync(final String query) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws SQLException {
+                executeQuery(query);
+                return null;
+            }
+        }, -1);
     }
 
     @Deprecated
     public Map<String, Object> getArray(String query) {
         try {
-            this.rs = getResultSet(query);
-            ResultSetMetaData metaData = this.rs.getMetaData();
-            int numberOfColumns = metaData.getColumnCount();
-            Map<String, Object> data = new HashMap<String, Object>();
-            while (this.rs.next()) {
-                for (int i = 1; i <= numberOfColumns; i++) {
-                    data.put(metaData.getColumnLabel(i), this.rs.getObject(i));
+            return processQuery(query, new ResultSetHandler<Map<String, Object>>() {
+                @Override
+                public Map<String, Object> handle(ResultSet resultSet) throws SQLException {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    int numberOfColumns = metaData.getColumnCount();
+                    Map<String, Object> data = new HashMap<String, Object>();
+                    while (resultSet.next()) {
+                        for (int i = 1; i <= numberOfColumns; i++) {
+                            data.put(metaData.getColumnLabel(i), resultSet.getObject(i));
+                        }
+                    }
+                    return data;
                 }
-            }
-            close();
-            return data;
+            });
         } catch (SQLException e) {
-            close();
             getLogger().stackTrace(e);
         }
         return null;
@@ -658,42 +1840,659 @@ public class DataManager {
     @Deprecated
     public List<HashMap<String, Object>> getArrayList(String query) {
         try {
-            List<HashMap<String, Object>> list = new ArrayList<HashMap<String, Object>>();
-            this.rs = getResultSet(query);
-            ResultSetMetaData metaData = this.rs.getMetaData();
-            int numberOfColumns = metaData.getColumnCount();
-            while (this.rs.next()) {
-                HashMap<String, Object> data = new HashMap<String, Object>();
-                for (int i = 1; i <= numberOfColumns; i++) {
-                    data.put(metaData.getColumnLabel(i), this.rs.getString(i));
+            return processQuery(query, new ResultSetHandler<List<HashMap<String, Object>>>() {
+                @Override
+                public List<HashMap<String, Object>> handle(ResultSet resultSet) throws SQLException {
+                    List<HashMap<String, Object>> list = new ArrayList<HashMap<String, Object>>();
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    int numberOfColumns = metaData.getColumnCount();
+                    while (resultSet.next()) {
+                        HashMap<String, Object> data = new HashMap<String, Object>();
+                        for (int i = 1; i <= numberOfColumns; i++) {
+                            data.put(metaData.getColumnLabel(i), resultSet.getString(i));
+                        }
+                        list.add(data);
+                    }
+                    return list;
                 }
-                list.add(data);
-            }
-            close();
-            return list;
+            });
         } catch (SQLException e) {
-            close();
             getLogger().stackTrace(e);
         }
         return null;
     }
 
+    /**
+     * Executes the query and returns a disconnected copy of its result set, which does not hold on to any connection or statement.
+     *
+     * @param  query        the query
+     * @return              the result set copy
+     * @throws SQLException if a database error occurs
+     */
     public ResultSet getResultSet(String query) throws SQLException {
-        connect();
-        log(query);
-        if (this.con == null) {
-            throw new SQLException("Unable to connect to the database");
+        return processQuery(query, new ResultSetHandler<ResultSet>() {
+            @Override
+            public ResultSet handle(ResultSet resultSet) throws SQLException {
+                CachedRowSet copy = RowSetProvider.newFactory().createCachedRowSet();
+                copy.populate(resultSet);
+                return copy;
+            }
+        });
+    }
+
+    /**
+     * Executes the query on a statement owned by this call only and passes the result set to the handler.
+     * The statement and result set are closed, and the connection released, before this method returns.
+     *
+     * @param  query        the query
+     * @param  handler      the handler which reads the result set
+     * @return              the value returned by the handler
+     * @throws SQLException if a database error occurs
+     */
+    protected <T> T processQuery(String query, ResultSetHandler<T> handler) throws SQLException {
+        return processQuery(query, new Object[0], handler);
+    }
+
+    /**
+     * Executes the query on a prepared statement with its <code>?</code> placeholders bound to the parameters,
+     * and passes the result set to the handler.
+     * The result set is closed, the statement returned to the statement cache, and the connection released, before this method returns.
+     *
+     * @param  query        the query
+     * @param  params       the values bound to the placeholders
+     * @param  handler      the handler which reads the result set
+     * @return              the value returned by the handler
+     * @throws SQLException if a database error occurs
+     */
+    protected <T> T processQuery(String query, Object[] params, ResultSetHandler<T> handler) throws SQLException {
+        return processQuery(query, params, handler, false);
+    }
+
+    /**
+     * Like {@link #processQuery(String, Object[], ResultSetHandler)}, but can pin the query to the primary database.
+     *
+     * @param  query        the query
+     * @param  params       the values bound to the placeholders
+     * @param  handler      the handler which reads the result set
+     * @param  primary      true to run the query on the primary database, false to allow a read replica
+     * @return              the value returned by the handler
+     * @throws SQLException if a database error occurs
+     */
+    protected <T> T processQuery(String query, Object[] params, ResultSetHandler<T> handler, boolean primary) throws SQLException {
+        Connection connection = primary ? acquireConnection() : acquireReadConnection();
+        try {
+            log(query);
+            PreparedStatement statement = prepare(connection, query);
+            boolean success = false;
+            long start = System.nanoTime();
+            int rows = -1;
+            SQLException error = null;
+            try {
+                setParameters(statement, params);
+                ResultSet resultSet = executeQuery(connection, statement);
+                try {
+                    T result = handler.handle(resultSet);
+                    rows = rowCount(result);
+                    success = true;
+                    return result;
+                } finally {
+                    close(resultSet, null);
+                }
+            } catch (SQLException e) {
+                error = e;
+                readFailed(connection, e);
+                throw e;
+            } finally {
+                journal(query, params.length, start, rows, success, error);
+                recycle(connection, query, statement, success);
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Executes the update with its <code>?</code> placeholders bound to the parameters.
+     * Outside of a transaction the update is committed through the {@link #getGroupCommit() group commit} while it is enabled.
+     *
+     * @param  query        the update query
+     * @param  params       the values bound to the placeholders
+     * @return              the amount of affected rows
+     * @throws SQLException if a database error occurs
+     */
+    protected int processUpdate(String query, Object... params) throws SQLException {
+        return processUpdate(query, params, true);
+    }
+
+    /**
+     * Executes the update with its <code>?</code> placeholders bound to the parameters.
+     *
+     * @param  query        the update query
+     * @param  params       the values bound to the placeholders
+     * @param  grouped      whether the update may be committed through the {@link #getGroupCommit() group commit}
+     * @return              the amount of affected rows
+     * @throws SQLException if a database error occurs
+     */
+    protected int processUpdate(String query, Object[] params, boolean grouped) throws SQLException {
+        if (grouped && this.groupCommit.isEnabled() && currentTransaction() == null) {
+            return this.groupCommit.update(query, params);
+        }
+        Connection connection = acquireConnection();
+        try {
+            log(query);
+            PreparedStatement statement = prepare(connection, query);
+            boolean success = false;
+            try {
+                setParameters(statement, params);
+                int rows = executeUpdate(connection, query, params.length, statement);
+                success = true;
+                return rows;
+            } finally {
+                recycle(connection, query, statement, success);
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Executes an update of the given table, see {@link #processUpdate(String, Object...)}, and invalidates the
+     * {@link #getResultCache() cached results} of the table.
+     *
+     * @param  table        the table, without prefix
+     * @param  query        the update query
+     * @param  params       the values bound to the placeholders
+     * @return              the amount of affected rows
+     * @throws SQLException if a database error occurs
+     */
+    protected int processTableUpdate(String table, String query, Object[] params) throws SQLException {
+        return processTableUpdate(table, query, params, true);
+    }
+
+    /**
+     * Executes an update of the given table, see {@link #processUpdate(String, Object[], boolean)}, and invalidates the
+     * {@link #getResultCache() cached results} of the table.
+     *
+     * @param  table        the table, without prefix
+     * @param  query        the update query
+     * @param  params       the values bound to the placeholders
+     * @param  grouped      whether the update may be committed through the {@link #getGroupCommit() group commit}
+     * @return              the amount of affected rows
+     * @throws SQLException if a database error occurs
+     */
+    protected int processTableUpdate(String table, String query, Object[] params, boolean grouped) throws SQLException {
+        try {
+            return processUpdate(query, params, grouped);
+        } finally {
+            invalidateResults(table);
+        }
+    }
+
+    private void invalidateResults(String table) {
+        if (!this.resultCache.isEnabled()) {
+            return;
+        }
+        if (table == null) {
+            this.resultCache.clear();
+        } else {
+            this.resultCache.invalidate(table);
+        }
+        Transaction current = currentTransaction();
+        if (current != null) {
+            current.invalidated(table);
+        }
+    }
+
+    /**
+     * Returns a prepared statement for the query, taken from the statement cache of the connection if possible.
+     * The statement must be given back with {@link #recycle(Connection, String, PreparedStatement, boolean)}.
+     *
+     * @param  connection   the connection
+     * @param  query        the query
+     * @return              the prepared statement
+     * @throws SQLException if the statement could not be prepared
+     */
+    protected PreparedStatement prepare(Connection connection, String query) throws SQLException {
+        StatementCache cache = getStatementCache(connection);
+        if (cache != null) {
+            PreparedStatement statement = cache.take(query);
+            if (statement != null) {
+                this.statementCacheHits.incrementAndGet();
+                return statement;
+            }
+        }
+        this.statementCacheMisses.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return connection.prepareStatement(query);
+        } catch (SQLException e) {
+            journal(query, 0, start, -1, false, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a statement obtained from {@link #prepare(Connection, String)} back to the statement cache, or closes it.
+     *
+     * @param connection  the connection the statement belongs to
+     * @param query       the query of the statement
+     * @param statement   the statement
+     * @param reusable    false if the statement failed and should not be reused
+     */
+    protected void recycle(Connection connection, String query, PreparedStatement statement, boolean reusable) {
+        StatementCache cache = reusable ? getStatementCache(connection) : null;
+        if (cache != null) {
+            try {
+                statement.clearParameters();
+                PreparedStatement rejected = cache.offer(query, statement);
+                if (rejected == null) {
+                    return;
+                } else if (rejected != statement) {
+                    this.statementCacheEvictions.incrementAndGet();
+                }
+                statement = rejected;
+            } catch (SQLException e) {
+                getLogger().stackTrace(e);
+            }
+        }
+        close(null, statement);
+    }
+
+    private ResultSet executeQuery(Connection connection, PreparedStatement statement) throws SQLException {
+        executing(connection, statement);
+        try {
+            return statement.executeQuery();
+        } finally {
+            executed();
+        }
+    }
+
+    private int executeUpdate(Connection connection, String query, int binds, PreparedStatement statement) throws SQLException {
+        long start = System.nanoTime();
+        int rows = -1;
+        SQLException error = null;
+        try {
+            executing(connection, statement);
+            rows = statement.executeUpdate();
+            return rows;
+        } catch (SQLException e) {
+            error = e;
+            throw e;
+        } finally {
+            executed();
+            journal(query, binds, start, rows, rows >= 0, error);
+        }
+    }
+
+    private int[] executeBatch(Connection connection, String query, int binds, PreparedStatement statement) throws SQLException {
+        long start = System.nanoTime();
+        int[] counts = null;
+        SQLException error = null;
+        try {
+            executing(connection, statement);
+            counts = statement.executeBatch();
+            return counts;
+        } catch (SQLException e) {
+            error = e;
+            throw e;
+        } finally {
+            executed();
+            int rows = -1;
+            if (counts != null) {
+                rows = 0;
+                for (int count : counts) {
+                    rows += Math.max(count, 0);
+                }
+            }
+            journal(query, binds, start, rows, counts != null, error);
+        }
+    }
+
+    /**
+     * Records an executed query in the {@link #getQueryJournal() query journal} and the {@link #getQueryMetrics() query metrics}.
+     *
+     * @param query    the query
+     * @param binds    the amount of values bound to the placeholders
+     * @param start    the {@link System#nanoTime()} the query was started at
+     * @param rows     the amount of rows the query affected or returned, or -1 if unknown
+     * @param success  whether the query succeeded
+     * @param error    the error the query failed with, or null
+     */
+    protected void journal(String query, int binds, long start, int rows, boolean success, SQLException error) {
+        long duration = System.nanoTime() - start;
+        QueryRecord.Outcome outcome = QueryRecord.Outcome.SUCCESS;
+        if (!success) {
+            QueryFuture<?> future = QueryFuture.current();
+            if (future != null && future.isCancelled()) {
+                outcome = QueryRecord.Outcome.CANCELLED;
+            } else if (error instanceof SQLTimeoutException) {
+                outcome = QueryRecord.Outcome.TIMEOUT;
+            } else {
+                outcome = QueryRecord.Outcome.FAILURE;
+            }
+        }
+        this.journal.record(System.currentTimeMillis() - duration / 1000000, query, binds, duration, rows, outcome,
+                error == null ? null : error.getMessage());
+        if (this.metrics.record(query, duration, success) != null) {
+            getLogger().warning("Slow " + this.datatype + " query took " + duration / 1000000 + " ms: '" + query + "'");
+        }
+    }
+
+    private static int rowCount(Object result) {
+        if (result instanceof CompactResults) {
+            return ((CompactResults) result).getSize();
+        } else if (result instanceof Results) {
+            return ((Results) result).getArray().size();
+        } else if (result instanceof CachedRowSet) {
+            return ((CachedRowSet) result).size();
+        } else if (result instanceof DataField) {
+            return 1;
+        } else if (result instanceof List) {
+            return ((List<?>) result).size();
+        }
+        return -1;
+    }
+
+    /**
+     * Called right before a statement is executed: applies the query timeout, and lets the {@link QueryFuture} running on
+     * this thread, if any, cancel the statement unless it runs on the shared connection.
+     *
+     * @param  connection   the connection the statement belongs to
+     * @param  statement    the statement
+     * @throws SQLException if the query has been cancelled
+     */
+    protected void executing(Connection connection, Statement statement) throws SQLException {
+        QueryFuture<?> future = QueryFuture.current();
+        if (future != null && future.getTimeout() >= 0) {
+            statement.setQueryTimeout(future.getTimeout());
+        } else {
+            statement.setQueryTimeout(this.queryTimeout);
+        }
+        if (future != null) {
+            future.executing(statement, !isShared(connection));
+        }
+    }
+
+    private boolean isShared(Connection connection) {
+        if (this.pool != null) {
+            return false;
+        }
+        synchronized (this) {
+            return connection == this.con;
+        }
+    }
+
+    /**
+     * Called after a statement passed to {@link #executing(Connection, Statement)} has been executed.
+     */
+    protected void executed() {
+        QueryFuture<?> future = QueryFuture.current();
+        if (future != null) {
+            future.executed();
+        }
+    }
+
+    protected void setParameters(PreparedStatement statement, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            setParameter(statement, i + 1, params[i]);
+        }
+    }
+
+    /**
+     * Binds a value to a statement parameter, using the setter matching the {@link ValueType} of the value.
+     * {@link ValueHolder}s, like {@link DataField}s, are bound by their type and value. Values of other types, like enums,
+     * are bound as their {@link Object#toString() string}.
+     *
+     * @param  statement    the statement
+     * @param  index        the parameter index, starting at 1
+     * @param  value        the value
+     * @throws SQLException if the value could not be bound
+     */
+    protected void setParameter(PreparedStatement statement, int index, Object value) throws SQLException {
+        Object val = value;
+        ValueType type;
+        if (val instanceof ValueHolder) {
+            type = ((ValueHolder) val).getType();
+            val = ((ValueHolder) val).getValue();
+        } else {
+            type = parameterType(val);
+        }
+        switch (type) {
+            case NULL:
+                statement.setNull(index, Types.NULL);
+                break;
+            case STRING:
+                statement.setString(index, (String) val);
+                break;
+            case INTEGER:
+                if (val instanceof BigInteger) {
+                    statement.setBigDecimal(index, new BigDecimal((BigInteger) val));
+                } else if (val instanceof Number) {
+                    statement.setLong(index, ((Number) val).longValue());
+                } else {
+                    statement.setString(index, val.toString());
+                }
+                break;
+            case REAL:
+                if (val instanceof BigDecimal) {
+                    statement.setBigDecimal(index, (BigDecimal) val);
+                } else if (val instanceof Number) {
+                    statement.setDouble(index, ((Number) val).doubleValue());
+                } else {
+                    statement.setString(index, val.toString());
+                }
+                break;
+            case DATE:
+                if (val instanceof java.sql.Date) {
+                    statement.setDate(index, (java.sql.Date) val);
+                } else if (val instanceof Time) {
+                    statement.setTime(index, (Time) val);
+                } else if (val instanceof Timestamp) {
+                    statement.setTimestamp(index, (Timestamp) val);
+                } else {
+                    statement.setTimestamp(index, new Timestamp(((Date) val).getTime()));
+                }
+                break;
+            case BLOB:
+                statement.setBlob(index, (Blob) val);
+                break;
+            case BINARY:
+                statement.setBytes(index, (byte[]) val);
+                break;
+            case BOOLEAN:
+                statement.setBoolean(index, (Boolean) val);
+                break;
+            default:
+                // Like the former string concatenation, other types are bound by their string form, setObject() would serialize them.
+                statement.setString(index, val.toString());
+        }
+    }
+
+    static ValueType parameterType(Object value) {
+        if (value == null) {
+            return ValueType.NULL;
+        } else if (value instanceof String) {
+            return ValueType.STRING;
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof BigInteger) {
+            return ValueType.INTEGER;
+        } else if (value instanceof Number) {
+            return ValueType.REAL;
+        } else if (value instanceof Date) {
+            return ValueType.DATE;
+        } else if (value instanceof Blob) {
+            return ValueType.BLOB;
+        } else if (value instanceof byte[]) {
+            return ValueType.BINARY;
+        } else if (value instanceof Boolean) {
+            return ValueType.BOOLEAN;
+        }
+        return ValueType.UNKNOWN;
+    }
+
+    private StatementCache getStatementCache(Connection connection) {
+        int size = this.statementCacheSize;
+        if (size <= 0) {
+            return null;
+        }
+        try {
+            if (connection.isClosed()) {
+                return null;
+            }
+        } catch (SQLException e) {
+            return null;
+        }
+        synchronized (this.statementCaches) {
+            StatementCache cache = this.statementCaches.get(connection);
+            if (cache == null) {
+                cache = new StatementCache(size);
+                this.statementCaches.put(connection, cache);
+            }
+            return cache;
+        }
+    }
+
+    private void dropStatementCache(Connection connection) {
+        StatementCache cache;
+        synchronized (this.statementCaches) {
+            cache = this.statementCaches.remove(connection);
+        }
+        if (cache != null) {
+            closeStatements(cache.clear());
+        }
+    }
+
+    private void closeStatements(List<PreparedStatement> statements) {
+        for (PreparedStatement statement : statements) {
+            close(null, statement);
+        }
+    }
+
+    /**
+     * Returns a connection to run a query on: the connection of the transaction of the current thread if there is one,
+     * a pooled one in pooled mode, or the shared connection otherwise.
+     *
+     * @return              the connection, never null
+     * @throws SQLException if no connection could be obtained
+     */
+    protected Connection acquireConnection() throws SQLException {
+        Transaction current = currentTransaction();
+        if (current != null) {
+            return current.getConnection();
+        }
+        if (this.pool != null) {
+            return this.pool.acquire();
+        }
+        synchronized (this) {
+            openShared();
+            this.activeQueries++;
+            return this.con;
+        }
+    }
+
+    /**
+     * Returns a connection to run a read-only query on: the connection of the transaction of the current thread if there is one,
+     * otherwise a connection to an available read replica, or to the primary database if there is none, see {@link #acquireConnection()}.
+     *
+     * @return              the connection, never null
+     * @throws SQLException if no connection could be obtained
+     */
+    protected Connection acquireReadConnection() throws SQLException {
+        return acquireReadConnection(false);
+    }
+
+    /**
+     * Returns a connection to stream the result of a read-only query on, see {@link #acquireReadConnection()}.
+     * Instead of the shared connection a new connection is opened, which is closed when it is released: a result set
+     * streamed on MySQL blocks every other query on its connection until it is closed.
+     *
+     * @return              the connection, never null
+     * @throws SQLException if no connection could be obtained
+     */
+    protected Connection acquireStreamConnection() throws SQLException {
+        return acquireReadConnection(true);
+    }
+
+    private Connection acquireReadConnection(boolean dedicated) throws SQLException {
+        if (currentTransaction() != null) {
+            return acquireConnection();
+        }
+        Replica replica = this.replicas.select();
+        if (replica != null) {
+            try {
+                return replica.getConnectionPool().acquire();
+            } catch (SQLException e) {
+                this.replicas.eject(replica, "Could not connect: " + e.getMessage());
+            }
+        }
+        if (dedicated && this.pool == null) {
+            Connection connection = createConnection();
+            this.streamConnections.add(connection);
+            return connection;
+        }
+        return acquireConnection();
+    }
+
+    private void readFailed(Connection connection, SQLException e) {
+        Replica replica = this.replicas.getOwner(connection);
+        if (replica != null) {
+            this.replicas.failed(replica, e);
+        }
+    }
+
+    /**
+     * Hands back a connection obtained from {@link #acquireConnection()}, {@link #acquireReadConnection()} or
+     * {@link #acquireStreamConnection()}. The shared connection is only closed once no other thread is using it.
+     *
+     * @param connection  the connection
+     */
+    protected void releaseConnection(Connection connection) {
+        Transaction current = currentTransaction();
+        if (current != null && current.getConnection() == connection) {
+            return;
+        }
+        Replica replica = this.replicas.getOwner(connection);
+        if (replica != null) {
+            replica.getConnectionPool().release(connection);
+            return;
+        }
+        if (this.pool != null && this.pool.owns(connection)) {
+            this.pool.release(connection);
+            return;
+        }
+        if (this.streamConnections.remove(connection)) {
+            destroyConnection(connection);
+            return;
+        }
+        synchronized (this) {
+            if (connection == this.con && this.activeQueries > 0) {
+                this.activeQueries--;
+                this.lastUsed = System.currentTimeMillis();
+            }
+            close();
+        }
+    }
+
+    protected void close(ResultSet resultSet, Statement statement) {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            getLogger().stackTrace(e);
+        }
+        try {
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            getLogger().stackTrace(e);
         }
-        this.stmt = this.con.createStatement();
-        this.rs = this.stmt.executeQuery(query);
-        return this.rs;
     }
 
     protected void log(String query) {
         getLogger().debug("Executing " + this.datatype + " query: '" + query + "'");
         this.lastQuery = query;
-        this.queries.put(System.currentTimeMillis(), query);
-        this.queriesCount++;
+        this.queriesCount.incrementAndGet();
     }
 
     private void outputDrivers() {
@@ -711,6 +2510,9 @@ public class DataManager {
     }
 
     public boolean isConnected() {
+        if (this.pool != null) {
+            return !this.pool.isClosed() && this.pool.getSize() > 0;
+        }
         try {
             if (this.con != null) {
                 return !this.con.isClosed();
@@ -722,77 +2524,194 @@ public class DataManager {
     }
 
     public boolean hasConnection() {
-        try {
-            boolean result = false;
-            connect();
-            if (this.con != null) {
-                result = !this.con.isClosed();
+        if (this.pool != null) {
+            try {
+                releaseConnection(acquireConnection());
+                return true;
+            } catch (SQLException e) {
+                getLogger().stackTrace(e);
+                return false;
+            }
+        }
+        synchronized (this) {
+            try {
+                boolean result = false;
+                connect();
+                if (this.con != null) {
+                    result = !this.con.isClosed();
+                }
+                close();
+                return result;
+            } catch (SQLException e) {
+                getLogger().stackTrace(e);
             }
-            close();
-            return result;
-        } catch (SQLException e) {
-            getLogger().stackTrace(e);
         }
         return false;
     }
 
-    public void connect() {
+    public synchronized void connect() {
         if (this.url == null && !setURL()) {
             return;
         }
-        if (this.con != null && isConnected()) {
+        if (this.pool != null) {
+            try {
+                this.pool.fill();
+            } catch (SQLException e) {
+                getLogger().stackTrace(e);
+            }
+            this.monitor.start();
             return;
         }
+        try {
+            openShared();
+        } catch (SQLException ignore) {
+            // Failed attempts are logged by createConnection, rejected ones are counted by the monitor.
+        }
+    }
+
+    /**
+     * Makes sure the shared connection is open. A connection which has not been used for a moment
+     * is validated by the {@link #getConnectionMonitor() connection monitor} first, and replaced if it is no longer valid.
+     *
+     * @throws SQLException if no connection could be opened
+     */
+    private synchronized void openShared() throws SQLException {
+        if (this.con != null) {
+            if (isConnected() && (this.activeQueries > 0 || System.currentTimeMillis() - this.lastUsed < VALIDATION_THRESHOLD
+                    || this.monitor.validate(this.con))) {
+                return;
+            }
+            getLogger().warning("The connection to the database for '" + this.datatype + "' is no longer valid, reconnecting.");
+            dropShared();
+        }
+        this.con = createConnection();
+        this.startup = System.currentTimeMillis() / 1000;
+        this.lastUsed = System.currentTimeMillis();
+        this.monitor.start();
+    }
+
+    private void dropShared() {
+        destroyConnection(this.con);
+        this.con = null;
+        this.activeQueries = 0;
+    }
+
+    /**
+     * Validates the connections which are not in use, closing the ones which are no longer valid.
+     * Called periodically by the {@link #getConnectionMonitor() connection monitor}.
+     */
+    protected void validateConnections() {
+        if (this.pool != null) {
+            int idle = this.pool.getIdleCount();
+            this.monitor.validated(idle, this.pool.validateIdle());
+            return;
+        }
+        synchronized (this) {
+            if (this.con != null && this.activeQueries == 0 && !this.monitor.validate(this.con)) {
+                getLogger().warning("The connection to the database for '" + this.datatype + "' failed validation, closing it.");
+                dropShared();
+            }
+        }
+    }
+
+    /**
+     * Opens a new connection to the database, used for the shared connection and by the {@link ConnectionPool}.
+     * Fails immediately while the circuit breaker of the {@link #getConnectionMonitor() connection monitor} is open.
+     *
+     * @return              the new connection
+     * @throws SQLException if the connection could not be established
+     */
+    protected Connection createConnection() throws SQLException {
+        if (this.url == null && !setURL()) {
+            throw new SQLException("Unable to connect to the database");
+        }
+        this.monitor.beforeConnect();
+        Connection connection;
+        try {
+            connection = createConnection(this.url);
+        } catch (SQLException e) {
+            this.monitor.connectFailed(e);
+            throw e;
+        }
+        this.monitor.connected();
+        return connection;
+    }
+
+    /**
+     * Opens a new connection to the given URL with the credentials and driver of this DataManager.
+     *
+     * @param  url          the JDBC URL
+     * @return              the new connection
+     * @throws SQLException if the connection could not be opened
+     */
+    protected Connection createConnection(String url) throws SQLException {
         long start = System.currentTimeMillis();
+        Connection connection = null;
         try {
             switch (this.datatype) {
                 case MYSQL:
-                    getLogger().debug("Connecting to MYSQL with URL '" + this.url + "'.");
+                    getLogger().debug("Connecting to MYSQL with URL '" + url + "'.");
                     Class.forName("com.mysql.jdbc.Driver");
-                    this.con = DriverManager.getConnection(this.url, this.username, this.password);
+                    connection = DriverManager.getConnection(url, this.username, this.password);
                     break;
                 case H2:
-                    getLogger().debug("Connecting to H2 with URL '" + this.url + "'.");
+                    getLogger().debug("Connecting to H2 with URL '" + url + "'.");
                     Class.forName("org.h2.Driver");
-                    this.con = DriverManager.getConnection(this.url, this.username, this.password);
+                    connection = DriverManager.getConnection(url, this.username, this.password);
                     break;
             }
-            this.startup = System.currentTimeMillis() / 1000;
         } catch (ClassNotFoundException e) {
             getLogger().error("Could not connect to the database due to no driver could be found for '" + this.datatype + "'.");
             getLogger().debug("Connection attempt took " + new TimeUtil((System.currentTimeMillis() - start) / 1000).toString() + ".");
             getLogger().stackTrace(e);
-            return;
+            throw new SQLException("No driver could be found for '" + this.datatype + "'", e);
         } catch (SQLException e) {
             getLogger().error("Could not connect to the database for '" + this.datatype + "' due to a SQL Exception.");
             getLogger().debug("Connection attempt took " + new TimeUtil((System.currentTimeMillis() - start) / 1000).toString() + ".");
             getLogger().stackTrace(e);
-            return;
+            throw e;
+        }
+        if (connection == null) {
+            throw new SQLException("Unsupported data type '" + this.datatype + "'");
         }
         getLogger().debug("Took " + new TimeUtil((System.currentTimeMillis() - start) / 1000).toString() +
                 " to establish a connection for '" + this.datatype + "'.");
+        return connection;
+    }
+
+    /**
+     * Closes a connection opened by {@link #createConnection()}, logging any failure.
+     *
+     * @param connection  the connection to close
+     */
+    protected void destroyConnection(Connection connection) {
+        dropStatementCache(connection);
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            getLogger().error("Could not close the connection to the database for '" + this.datatype + "' due to a SQL Exception.");
+            getLogger().stackTrace(e);
+        }
     }
 
     public void close() {
         close(false);
     }
 
-    public void close(boolean force) {
-        try {
-            if (this.rs != null) {
-                this.rs.close();
-                this.rs = null;
-            }
-            if (this.pStmt != null) {
-                this.pStmt.close();
-                this.pStmt = null;
-            }
-            if (this.stmt != null) {
-                this.stmt.close();
-                this.stmt = null;
+    public synchronized void close(boolean force) {
+        if (force) {
+            this.replicas.clear();
+            this.monitor.stop();
+        }
+        if (this.pool != null) {
+            if (force || this.reconnect) {
+                getLogger().debug("Closing pooled connections for '" + this.datatype + "'. Queries: " + getQueriesCount() + ".");
+                this.pool.clear();
             }
-        } catch (SQLException e) {
-            getLogger().stackTrace(e);
+            return;
+        }
+        if (this.activeQueries > 0 && !force) {
+            return;
         }
         if (this.keepAlive && !this.reconnect && !force) {
             if (this.timeout == 0) {
@@ -805,8 +2724,10 @@ public class DataManager {
         try {
             getLogger().debug("Closing connection for '" + this.datatype + "'. Uptime: " + new TimeUtil(getUptime()).toString() + ". Queries: " + getQueriesCount() + ".");
             if (this.con != null) {
+                dropStatementCache(this.con);
                 this.con.close();
                 this.con = null;
+                this.activeQueries = 0;
             }
             if (this.keepAlive && !force) {
                 connect();
@@ -821,7 +2742,7 @@ public class DataManager {
                 " to CLOSE connection for '" + this.datatype + "'.");
     }
 
-    public void reconnect() {
+    public synchronized void reconnect() {
         getLogger().debug("Attempting to reconnect connection for '" + this.datatype + "'.");
         long start = System.currentTimeMillis();
         this.reconnect = true;
@@ -832,6 +2753,10 @@ public class DataManager {
                 " to attempt a reconnection connection for '" + this.datatype + "'.");
     }
 
+    /**
+     * @deprecated values are bound as statement parameters now, see {@link #updateFields(Map, String, String, Object...)}
+     */
+    @Deprecated
     protected String updateFieldsString(Map<String, Object> data) {
         String query = " SET", suffix = ",";
         int i = 1;
@@ -847,6 +2772,10 @@ public class DataManager {
         return query;
     }
 
+    /**
+     * @deprecated values are bound as statement parameters now, see {@link #insertFields(Map, String)}
+     */
+    @Deprecated
     protected String insertFieldString(Map<String, Object> data) {
         String fields = "", values = "", query = "", suffix = ",";
         int i = 1;
@@ -864,6 +2793,10 @@ public class DataManager {
         return query;
     }
 
+    /**
+     * @deprecated values are bound as statement parameters now, see {@link #setParameter(PreparedStatement, int, Object)}
+     */
+    @Deprecated
     protected String fieldValueToString(Object value) {
         Object val = value;
         if (val instanceof Date) {
@@ -872,7 +2805,7 @@ public class DataManager {
         if (val == null) {
             return "NULL";
         } else {
-            return "'" + val.toString().replaceAll("'", "''") + "'";
+            return "'" + val.toString().replace("'", "''") + "'";
         }
     }
 }
@@ -25,12 +25,94 @@ import java.sql.Blob;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 
 import com.craftfire.commons.util.ValueType;
 
 
 public class DataRow extends ArrayList<DataField> {
+    private final ColumnIndex columnIndex;
+    private boolean indexed;
+    private int indexedModCount;
+
+    public DataRow() {
+        super();
+        this.columnIndex = null;
+    }
+
+    public DataRow(int columns) {
+        super(columns);
+        this.columnIndex = null;
+    }
+
+    /**
+     * Creates a row which looks up its fields by name through the given column index, shared by all rows of a result set.
+     * The fields must be appended in column order. The index is only used while the row has as many fields as the index
+     * has columns, and is dropped as soon as the row is modified in any other way.
+     *
+     * @param columnIndex  the column index
+     */
+    public DataRow(ColumnIndex columnIndex) {
+        super(columnIndex.size());
+        this.columnIndex = columnIndex;
+        this.indexed = true;
+        this.indexedModCount = this.modCount;
+    }
+
+    /**
+     * Returns the column index used to look up fields by name.
+     *
+     * @return the column index, or null if the row has none or has been modified since it was filled
+     */
+    public ColumnIndex getColumnIndex() {
+        return isIndexed() ? this.columnIndex : null;
+    }
+
+    private boolean isIndexed() {
+        if (this.indexed && this.modCount != this.indexedModCount) {
+            this.indexed = false;
+        }
+        return this.indexed;
+    }
+
+    /**
+     * Removes all fields while keeping the column index, so the row can be filled again with the next row of the same
+     * result set.
+     */
+    void reset() {
+        boolean keep = isIndexed();
+        clear();
+        this.indexedModCount = this.modCount;
+        this.indexed = keep;
+    }
+
+    @Override
+    public boolean add(DataField field) {
+        boolean filling = isIndexed() && size() < this.columnIndex.size();
+        super.add(field);
+        if (filling) {
+            this.indexedModCount = this.modCount;
+        }
+        return true;
+    }
+
+    @Override
+    public DataField set(int index, DataField field) {
+        this.indexed = false;
+        return super.set(index, field);
+    }
+
+    @Override
+    public List<DataField> subList(int fromIndex, int toIndex) {
+        this.indexed = false;
+        return super.subList(fromIndex, toIndex);
+    }
+
     public DataField get(String fieldName) {
+        if (isIndexed() && this.columnIndex.size() == size()) {
+            int index = this.columnIndex.indexOf(fieldName);
+            return index < 0 ? null : get(index);
+        }
         Iterator<DataField> iterator = iterator();
         while (iterator.hasNext()) {
             DataField dataField = iterator.next();
@@ -0,0 +1,300 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces small writes of a {@link DataManager} from many threads into shared transactions, so the database commits
+ * (and syncs its log) once per group instead of once per write.
+ * <p>
+ * While enabled, the single-statement updates of the DataManager which are not part of a {@link Transaction} are handed
+ * to a background thread. It collects the writes arriving within the {@link #getWindow() commit window}, up to
+ * {@link #getMaxWrites()} of them, executes them in one transaction and commits it. Each caller blocks until its write
+ * is committed. A write that fails is rolled back on its own: the other writes of its group are retried without it.
+ * <p>
+ * In pooled mode each group takes a connection from the pool. Otherwise the background thread keeps a connection of its
+ * own open, so a commit window doesn't cost a new connection to the database.
+ */
+public class GroupCommit {
+    private final DataManager dataManager;
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<Write>();
+    private final AtomicLong commits = new AtomicLong(), writes = new AtomicLong(), retries = new AtomicLong();
+    private volatile int window = 5, maxWrites = 100;
+    private boolean enabled = false;
+    private Thread thread = null;
+    private Connection connection = null;
+
+    public GroupCommit(DataManager dataManager) {
+        if (dataManager == null) {
+            throw new IllegalArgumentException("Parameter 'dataManager' cannot be null.");
+        }
+        this.dataManager = dataManager;
+    }
+
+    public synchronized boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Enables or disables group commit. When disabled, the writes still waiting are committed before the background thread stops.
+     *
+     * @param enabled  true to enable group commit
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled && this.thread == null) {
+            this.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    GroupCommit.this.run();
+                }
+            }, "DataManager-GroupCommit");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    /**
+     * Returns how long the background thread waits for more writes after the first write of a group arrived.
+     *
+     * @return the commit window in milliseconds
+     */
+    public int getWindow() {
+        return this.window;
+    }
+
+    public void setWindow(int window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Parameter 'window' cannot be negative.");
+        }
+        this.window = window;
+    }
+
+    public int getMaxWrites() {
+        return this.maxWrites;
+    }
+
+    /**
+     * Sets the maximum amount of writes committed together, a group is committed before the window ends once it is full.
+     *
+     * @param maxWrites  the maximum group size
+     */
+    public void setMaxWrites(int maxWrites) {
+        if (maxWrites < 1) {
+            throw new IllegalArgumentException("Parameter 'maxWrites' must be at least 1.");
+        }
+        this.maxWrites = maxWrites;
+    }
+
+    /**
+     * Returns the amount of group transactions committed.
+     *
+     * @return the commit count
+     */
+    public long getCommits() {
+        return this.commits.get();
+    }
+
+    /**
+     * Returns the amount of writes committed through group commit.
+     *
+     * @return the write count
+     */
+    public long getWrites() {
+        return this.writes.get();
+    }
+
+    /**
+     * Returns the amount of times a group was rolled back and retried because one of its writes failed.
+     *
+     * @return the retry count
+     */
+    public long getRetries() {
+        return this.retries.get();
+    }
+
+    /**
+     * Executes an update in the next group and waits until it has been committed.
+     * If group commit is disabled, the update is executed on its own.
+     *
+     * @param  query        the update query
+     * @param  params       the values bound to the placeholders
+     * @return              the amount of affected rows
+     * @throws SQLException if the update or the commit failed, or the thread was interrupted while waiting,
+     *                      in which case the update may still be committed later
+     */
+    public int update(String query, Object... params) throws SQLException {
+        Write write = new Write(query, params);
+        synchronized (this) {
+            if (!this.enabled) {
+                write = null;
+            } else {
+                this.queue.add(write);
+            }
+        }
+        if (write == null) {
+            return this.dataManager.processUpdate(query, params);
+        }
+        return write.await();
+    }
+
+    private void run() {
+        List<Write> group = new ArrayList<Write>();
+        while (true) {
+            try {
+                Write first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    synchronized (this) {
+                        if (!this.enabled && this.queue.isEmpty()) {
+                            this.thread = null;
+                            closeConnection();
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                group.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.window);
+                int max = this.maxWrites;
+                while (group.size() < max) {
+                    Write next = this.queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                this.dataManager.getLogger().warning("Group commit thread has been interrupted.");
+            }
+            flush(group);
+            group.clear();
+        }
+    }
+
+    private void flush(List<Write> group) {
+        List<Write> pending = new ArrayList<Write>(group);
+        while (!pending.isEmpty()) {
+            int[] rows = new int[pending.size()];
+            Write failed = null;
+            SQLException error = null;
+            try {
+                Transaction transaction = begin();
+                try {
+                    for (int i = 0; i < rows.length; i++) {
+                        failed = pending.get(i);
+                        rows[i] = this.dataManager.processUpdate(failed.query, failed.params);
+                    }
+                    failed = null;
+                    transaction.commit();
+                } finally {
+                    transaction.close();
+                }
+            } catch (SQLException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new SQLException("Group commit failed", e);
+            }
+            if (error == null) {
+                this.commits.incrementAndGet();
+                this.writes.addAndGet(rows.length);
+                for (int i = 0; i < rows.length; i++) {
+                    pending.get(i).complete(rows[i], null);
+                }
+                return;
+            }
+            if (failed == null || (error.getSQLState() != null && error.getSQLState().startsWith("08"))) {
+                // The connection may be broken, open a new one for the next group.
+                closeConnection();
+            }
+            if (failed == null) {
+                for (Write write : pending) {
+                    write.complete(0, error);
+                }
+                return;
+            }
+            failed.complete(0, error);
+            pending.remove(failed);
+            if (!pending.isEmpty()) {
+                this.retries.incrementAndGet();
+            }
+        }
+    }
+
+    // Only called by the group commit thread.
+    private Transaction begin() throws SQLException {
+        if (this.dataManager.isPooled()) {
+            closeConnection();
+            return this.dataManager.begin();
+        }
+        if (this.connection == null) {
+            this.connection = this.dataManager.createConnection();
+        }
+        return this.dataManager.begin(this.connection);
+    }
+
+    // Only called by the group commit thread.
+    private void closeConnection() {
+        if (this.connection != null) {
+            this.dataManager.destroyConnection(this.connection);
+            this.connection = null;
+        }
+    }
+
+    private static class Write {
+        private final String query;
+        private final Object[] params;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile int rows;
+        private volatile SQLException error;
+
+        Write(String query, Object[] params) {
+            this.query = query;
+            this.params = params;
+        }
+
+        void complete(int rows, SQLException error) {
+            this.rows = rows;
+            this.error = error;
+            this.done.countDown();
+        }
+
+        int await() throws SQLException {
+            try {
+                this.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the group commit", e);
+            }
+            if (this.error != null) {
+                throw this.error;
+            }
+            return this.rows;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds.
+ * <p>
+ * Values are counted in buckets which split every power of two into 8 linear steps, so percentiles are accurate to
+ * within 12.5% over the whole range of <code>long</code>s, using a fixed amount of memory.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3, SUB_BUCKETS = 1 << SUB_BITS;
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong(), total = new AtomicLong(), max = new AtomicLong();
+
+    /**
+     * Adds a value to the histogram.
+     *
+     * @param nanos  the duration in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        this.buckets.incrementAndGet(index(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return the maximum in nanoseconds, or 0 if the histogram is empty
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the average of the recorded values.
+     *
+     * @return the mean in nanoseconds, or 0 if the histogram is empty
+     */
+    public long getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : this.total.get() / count;
+    }
+
+    /**
+     * Returns the value which the given fraction of the recorded values are at or below.
+     *
+     * @param  percentile  the fraction, from 0 to 1, for example 0.99 for the 99th percentile
+     * @return             the upper bound of the bucket containing the percentile in nanoseconds, or 0 if the histogram is empty
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Parameter 'percentile' must be between 0 and 1.");
+        }
+        long count = 0;
+        for (int i = 0; i < this.buckets.length(); i++) {
+            count += this.buckets.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int i = 0; i < this.buckets.length(); i++) {
+            seen += this.buckets.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.buckets.length(); i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.set(0);
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long step = 1L << (exponent - SUB_BITS);
+        long lower = (SUB_BUCKETS + index % SUB_BUCKETS) * step;
+        return lower + step - 1;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+/**
+ * Receives the outcome of a {@link QueryFuture}, see {@link QueryFuture#addCallback(QueryCallback, java.util.concurrent.Executor)}.
+ *
+ * @param <T>  the type of the query result
+ */
+public interface QueryCallback<T> {
+    /**
+     * Called when the query completed.
+     *
+     * @param result  the result of the query
+     */
+    void onSuccess(T result);
+
+    /**
+     * Called when the query failed or was cancelled.
+     *
+     * @param cause  what the query threw, or a {@link java.util.concurrent.CancellationException} if it was cancelled
+     */
+    void onFailure(Throwable cause);
+}
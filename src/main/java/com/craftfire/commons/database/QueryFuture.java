@@ -0,0 +1,217 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The future of an asynchronous {@link DataManager} query.
+ * <p>
+ * Cancelling the future also cancels the statement the query is executing, if the database driver supports it.
+ * Statements on the shared connection of a DataManager which is not {@link DataManager#setPooled(boolean) pooled} are not
+ * cancelled: drivers like Connector/J cancel whatever the connection is running, which could be another caller's query.
+ * Such a statement runs until it ends or its timeout expires.
+ * <p>
+ * Instead of blocking in {@link #get()}, callers can register listeners and callbacks which are run when the query
+ * completes, on an executor of their choice, for example one which runs them on the main thread.
+ *
+ * @param <T>  the type of the query result
+ */
+public class QueryFuture<T> extends FutureTask<T> {
+    private static final ThreadLocal<QueryFuture<?>> current = new ThreadLocal<QueryFuture<?>>();
+    private final int timeout;
+    private final Object statementLock = new Object();
+    private Statement statement = null;
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    /**
+     * Creates a future which runs the given query.
+     *
+     * @param callable  the query
+     * @param timeout   the query timeout in seconds, 0 for no timeout, or -1 to use {@link DataManager#getQueryTimeout()}
+     */
+    public QueryFuture(Callable<T> callable, int timeout) {
+        super(callable);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the future running on the current thread.
+     *
+     * @return the future, or null if the current thread isn't running one
+     */
+    protected static QueryFuture<?> current() {
+        return current.get();
+    }
+
+    /**
+     * Returns the query timeout of this future.
+     *
+     * @return the timeout in seconds, or -1 if the default timeout of the data manager is used
+     */
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * Runs the listener on the executor when the query has completed, failed or been cancelled.
+     * If it already has, the listener is run right away.
+     *
+     * @param listener  the listener
+     * @param executor  the executor the listener is run on
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Parameter 'listener' cannot be null.");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Parameter 'executor' cannot be null.");
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(listener);
+                } catch (RuntimeException e) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+        };
+        synchronized (this) {
+            if (this.listeners != null) {
+                this.listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Passes the result or failure of the query to the callback, on the executor, once the query is done.
+     *
+     * @param callback  the callback
+     * @param executor  the executor the callback is run on
+     */
+    public void addCallback(final QueryCallback<? super T> callback, Executor executor) {
+        if (callback == null) {
+            throw new IllegalArgumentException("Parameter 'callback' cannot be null.");
+        }
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                T result;
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    callback.onFailure(e.getCause());
+                    return;
+                } catch (CancellationException e) {
+                    callback.onFailure(e);
+                    return;
+                } catch (InterruptedException e) {
+                    // Cannot happen, the future is done.
+                    Thread.currentThread().interrupt();
+                    callback.onFailure(e);
+                    return;
+                }
+                callback.onSuccess(result);
+            }
+        }, executor);
+    }
+
+    @Override
+    protected void done() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public void run() {
+        QueryFuture<?> previous = current.get();
+        current.set(this);
+        try {
+            super.run();
+        } finally {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            // Holding the lock keeps the statement from being recycled, and reused by another query, while it is cancelled.
+            synchronized (this.statementLock) {
+                if (this.statement != null) {
+                    try {
+                        this.statement.cancel();
+                    } catch (SQLException ignore) {
+                        // The driver doesn't support cancelling, the statement will run to its end.
+                    }
+                }
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Registers the statement the query is about to execute, so that it can be cancelled.
+     *
+     * @param  statement    the statement
+     * @param  cancellable  false if cancelling the statement could affect other statements on its connection
+     * @throws SQLException if the future has already been cancelled
+     */
+    protected void executing(Statement statement, boolean cancellable) throws SQLException {
+        synchronized (this.statementLock) {
+            if (isCancelled()) {
+                throw new SQLException("The query has been cancelled.");
+            }
+            this.statement = cancellable ? statement : null;
+        }
+    }
+
+    /**
+     * Unregisters the statement set with {@link #executing(Statement, boolean)}, waiting for a running cancel to finish.
+     */
+    protected void executed() {
+        synchronized (this.statementLock) {
+            this.statement = null;
+        }
+    }
+}
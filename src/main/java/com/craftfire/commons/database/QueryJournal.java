@@ -0,0 +1,146 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded journal of the latest queries of a {@link DataManager}.
+ * <p>
+ * The records are kept in a ring buffer: once it is full, each new record replaces the oldest one.
+ */
+public class QueryJournal {
+    private QueryRecord[] records;
+    private int next = 0, size = 0;
+    private long sequence = 0;
+
+    /**
+     * Creates a journal which keeps the given amount of records.
+     *
+     * @param capacity  the maximum amount of records, 0 disables the journal
+     */
+    public QueryJournal(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Parameter 'capacity' cannot be negative.");
+        }
+        this.records = new QueryRecord[capacity];
+    }
+
+    /**
+     * Adds a query to the journal.
+     *
+     * @param  time      the start time of the query in milliseconds since the epoch
+     * @param  query     the query
+     * @param  binds     the amount of values bound to the placeholders
+     * @param  duration  the duration of the query in nanoseconds
+     * @param  rows      the amount of rows the query affected or returned, or -1 if unknown
+     * @param  outcome   how the query ended
+     * @param  error     the error message, or null
+     * @return           the record
+     */
+    public synchronized QueryRecord record(long time, String query, int binds, long duration, int rows,
+            QueryRecord.Outcome outcome, String error) {
+        QueryRecord record = new QueryRecord(++this.sequence, time, query, binds, duration, rows,
+                Thread.currentThread().getName(), outcome, error);
+        if (this.records.length > 0) {
+            this.records[this.next] = record;
+            this.next = (this.next + 1) % this.records.length;
+            if (this.size < this.records.length) {
+                this.size++;
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Returns a copy of the records in the journal.
+     *
+     * @return the records, oldest first
+     */
+    public synchronized List<QueryRecord> snapshot() {
+        List<QueryRecord> list = new ArrayList<QueryRecord>(this.size);
+        int first = this.next - this.size;
+        if (first < 0) {
+            first += this.records.length;
+        }
+        for (int i = 0; i < this.size; i++) {
+            list.add(this.records[(first + i) % this.records.length]);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the latest record.
+     *
+     * @return the latest record, or null if the journal is empty
+     */
+    public synchronized QueryRecord getLast() {
+        if (this.size == 0) {
+            return null;
+        }
+        return this.records[(this.next - 1 + this.records.length) % this.records.length];
+    }
+
+    public synchronized int getCapacity() {
+        return this.records.length;
+    }
+
+    /**
+     * Changes the amount of records the journal keeps, keeping the latest ones.
+     *
+     * @param capacity  the maximum amount of records, 0 disables the journal
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Parameter 'capacity' cannot be negative.");
+        }
+        List<QueryRecord> list = snapshot();
+        this.records = new QueryRecord[capacity];
+        this.size = 0;
+        this.next = 0;
+        for (QueryRecord record : list.subList(Math.max(0, list.size() - capacity), list.size())) {
+            this.records[this.next++] = record;
+            this.size++;
+        }
+        if (capacity > 0) {
+            this.next %= capacity;
+        }
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the amount of queries recorded since the journal was created, including the ones which have been replaced.
+     *
+     * @return the total amount of recorded queries
+     */
+    public synchronized long getTotal() {
+        return this.sequence;
+    }
+
+    public synchronized void clear() {
+        this.records = new QueryRecord[this.records.length];
+        this.size = 0;
+        this.next = 0;
+    }
+}
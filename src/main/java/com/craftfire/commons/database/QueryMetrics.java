@@ -0,0 +1,295 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Query latency metrics of a {@link DataManager}: a {@link LatencyHistogram} per query shape, and the latest slow queries.
+ * <p>
+ * The shape of a query is the query with its string and number literals replaced by <code>?</code>, so that
+ * <code>SELECT * FROM users WHERE id = 1</code> and <code>SELECT * FROM users WHERE id = 2</code> are counted together.
+ * At most {@link #getMaxShapes()} shapes are tracked; queries of any other shape are counted under {@link #OTHER_SHAPE}.
+ */
+public class QueryMetrics implements QueryMetricsMXBean {
+    public static final String OTHER_SHAPE = "(other)";
+    private final ConcurrentMap<String, Shape> shapes = new ConcurrentHashMap<String, Shape>();
+    private final LinkedList<SlowQuery> slowQueries = new LinkedList<SlowQuery>();
+    private final AtomicLong queryCount = new AtomicLong(), slowQueryCount = new AtomicLong();
+    private volatile long slowQueryThreshold = 0;
+    private volatile int maxShapes = 500, maxSlowQueries = 50;
+    private ObjectName objectName = null;
+
+    private static class Shape {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicLong failures = new AtomicLong();
+    }
+
+    /**
+     * Records the duration of a query.
+     *
+     * @param  query     the query
+     * @param  duration  the duration in nanoseconds
+     * @param  success   whether the query succeeded
+     * @return           the slow query record if the query was slower than the threshold, otherwise null
+     */
+    public SlowQuery record(String query, long duration, boolean success) {
+        this.queryCount.incrementAndGet();
+        Shape shape = getShape(shape(query));
+        shape.histogram.record(duration);
+        if (!success) {
+            shape.failures.incrementAndGet();
+        }
+        long threshold = this.slowQueryThreshold;
+        if (threshold <= 0 || duration < threshold * 1000000) {
+            return null;
+        }
+        this.slowQueryCount.incrementAndGet();
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        SlowQuery slowQuery = new SlowQuery(System.currentTimeMillis(), query, duration, Thread.currentThread().getName(),
+                Arrays.copyOfRange(stackTrace, Math.min(1, stackTrace.length), stackTrace.length));
+        synchronized (this.slowQueries) {
+            this.slowQueries.addLast(slowQuery);
+            while (this.slowQueries.size() > this.maxSlowQueries) {
+                this.slowQueries.removeFirst();
+            }
+        }
+        return slowQuery;
+    }
+
+    private Shape getShape(String key) {
+        Shape shape = this.shapes.get(key);
+        if (shape == null) {
+            if (this.shapes.size() >= this.maxShapes) {
+                key = OTHER_SHAPE;
+            }
+            Shape created = new Shape();
+            shape = this.shapes.putIfAbsent(key, created);
+            if (shape == null) {
+                shape = created;
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * Returns the shape of a query: the query with its string and number literals replaced by <code>?</code>
+     * and its whitespace collapsed.
+     *
+     * @param  query  the query
+     * @return        the shape of the query
+     */
+    public static String shape(String query) {
+        StringBuilder builder = new StringBuilder(query.length());
+        int length = query.length();
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = builder.length() > 0;
+                continue;
+            }
+            if (space) {
+                builder.append(' ');
+                space = false;
+            }
+            if (c == '\'') {
+                int end = i + 1;
+                while (end < length) {
+                    if (query.charAt(end) == '\'') {
+                        if (end + 1 < length && query.charAt(end + 1) == '\'') {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    } else if (query.charAt(end) == '\\') {
+                        end++;
+                    }
+                    end++;
+                }
+                builder.append('?');
+                i = end;
+            } else if (Character.isDigit(c) && (builder.length() == 0 || !isIdentifierPart(builder.charAt(builder.length() - 1)))) {
+                while (i + 1 < length && (Character.isLetterOrDigit(query.charAt(i + 1)) || query.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                builder.append('?');
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '`' || c == '$';
+    }
+
+    /**
+     * Returns the statistics of every query shape.
+     *
+     * @return a snapshot of the statistics
+     */
+    public List<QueryStatistics> snapshot() {
+        List<QueryStatistics> list = new ArrayList<QueryStatistics>(this.shapes.size());
+        for (Map.Entry<String, Shape> entry : this.shapes.entrySet()) {
+            Shape shape = entry.getValue();
+            list.add(new QueryStatistics(entry.getKey(), shape.histogram.getCount(), shape.failures.get(), shape.histogram));
+        }
+        return list;
+    }
+
+    /**
+     * Returns the statistics of one query shape.
+     *
+     * @param  query  a query, or query shape
+     * @return        the statistics, or null if no query of that shape has been recorded
+     */
+    public QueryStatistics getStatistics(String query) {
+        String key = shape(query);
+        Shape shape = this.shapes.get(key);
+        return shape == null ? null : new QueryStatistics(key, shape.histogram.getCount(), shape.failures.get(), shape.histogram);
+    }
+
+    @Override
+    public List<QueryStatistics> getStatistics() {
+        return snapshot();
+    }
+
+    /**
+     * Returns the latest slow queries.
+     *
+     * @return a copy of the slow queries, oldest first
+     */
+    public List<SlowQuery> getSlowQueryRecords() {
+        synchronized (this.slowQueries) {
+            return new ArrayList<SlowQuery>(this.slowQueries);
+        }
+    }
+
+    @Override
+    public List<String> getSlowQueries() {
+        List<String> list = new ArrayList<String>();
+        for (SlowQuery slowQuery : getSlowQueryRecords()) {
+            list.add(slowQuery.toString());
+        }
+        return list;
+    }
+
+    @Override
+    public long getQueryCount() {
+        return this.queryCount.get();
+    }
+
+    @Override
+    public long getSlowQueryCount() {
+        return this.slowQueryCount.get();
+    }
+
+    @Override
+    public long getSlowQueryThreshold() {
+        return this.slowQueryThreshold;
+    }
+
+    /**
+     * Sets how long a query may take before it is recorded as a slow query, with its stack trace.
+     *
+     * @param millis  the threshold in milliseconds, 0 disables slow query detection
+     */
+    @Override
+    public void setSlowQueryThreshold(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Parameter 'millis' cannot be negative.");
+        }
+        this.slowQueryThreshold = millis;
+    }
+
+    public int getMaxShapes() {
+        return this.maxShapes;
+    }
+
+    public void setMaxShapes(int maxShapes) {
+        if (maxShapes < 1) {
+            throw new IllegalArgumentException("Parameter 'maxShapes' must be at least 1.");
+        }
+        this.maxShapes = maxShapes;
+    }
+
+    public int getMaxSlowQueries() {
+        return this.maxSlowQueries;
+    }
+
+    public void setMaxSlowQueries(int maxSlowQueries) {
+        if (maxSlowQueries < 0) {
+            throw new IllegalArgumentException("Parameter 'maxSlowQueries' cannot be negative.");
+        }
+        this.maxSlowQueries = maxSlowQueries;
+    }
+
+    @Override
+    public void reset() {
+        this.shapes.clear();
+        this.queryCount.set(0);
+        this.slowQueryCount.set(0);
+        synchronized (this.slowQueries) {
+            this.slowQueries.clear();
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing any earlier registration of these metrics.
+     *
+     * @param  name         the object name, for example <code>com.craftfire:type=QueryMetrics,name=main</code>
+     * @throws JMException  if the metrics could not be registered
+     */
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server, if they have been registered.
+     *
+     * @throws JMException  if the metrics could not be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (this.objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(this.objectName)) {
+                server.unregisterMBean(this.objectName);
+            }
+            this.objectName = null;
+        }
+    }
+}
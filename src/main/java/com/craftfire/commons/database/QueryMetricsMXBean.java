@@ -0,0 +1,41 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.util.List;
+
+/**
+ * The JMX interface of {@link QueryMetrics}, see {@link QueryMetrics#register(String)}.
+ */
+public interface QueryMetricsMXBean {
+    long getQueryCount();
+
+    long getSlowQueryCount();
+
+    long getSlowQueryThreshold();
+
+    void setSlowQueryThreshold(long millis);
+
+    List<QueryStatistics> getStatistics();
+
+    List<String> getSlowQueries();
+
+    void reset();
+}
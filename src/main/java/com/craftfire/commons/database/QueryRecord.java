@@ -0,0 +1,128 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+/**
+ * A query recorded in the {@link QueryJournal} of a {@link DataManager}.
+ */
+public class QueryRecord {
+    /**
+     * How a query ended.
+     */
+    public enum Outcome {
+        SUCCESS, FAILURE, TIMEOUT, CANCELLED
+    }
+
+    private final long sequence, time, duration;
+    private final String query, thread, error;
+    private final int binds, rows;
+    private final Outcome outcome;
+
+    protected QueryRecord(long sequence, long time, String query, int binds, long duration, int rows, String thread,
+            Outcome outcome, String error) {
+        this.sequence = sequence;
+        this.time = time;
+        this.query = query;
+        this.binds = binds;
+        this.duration = duration;
+        this.rows = rows;
+        this.thread = thread;
+        this.outcome = outcome;
+        this.error = error;
+    }
+
+    /**
+     * Returns the sequence number of the query, starting at 1 for the first query of the journal.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Returns when the query was started.
+     *
+     * @return the start time in milliseconds since the epoch
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    public String getQuery() {
+        return this.query;
+    }
+
+    /**
+     * Returns the amount of values bound to the placeholders of the query.
+     *
+     * @return the amount of bound values
+     */
+    public int getBindCount() {
+        return this.binds;
+    }
+
+    /**
+     * Returns how long the query took.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+
+    /**
+     * Returns the amount of rows the query affected or returned.
+     *
+     * @return the amount of rows, or -1 if unknown
+     */
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Returns the name of the thread which ran the query.
+     *
+     * @return the thread name
+     */
+    public String getThread() {
+        return this.thread;
+    }
+
+    public Outcome getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * Returns the error message of a query which didn't succeed.
+     *
+     * @return the error message, or null
+     */
+    public String getError() {
+        return this.error;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + this.sequence + " " + this.outcome + " in " + (this.duration / 1000) + " us, rows: " + this.rows
+                + ", binds: " + this.binds + ", thread: " + this.thread + ": " + this.query
+                + (this.error == null ? "" : " (" + this.error + ")");
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+/**
+ * A snapshot of the latency statistics of one query shape, see {@link QueryMetrics#snapshot()}.
+ * All durations are in nanoseconds.
+ */
+public class QueryStatistics {
+    private final String shape;
+    private final long count, failures, mean, median, p99, max;
+
+    protected QueryStatistics(String shape, long count, long failures, LatencyHistogram histogram) {
+        this.shape = shape;
+        this.count = count;
+        this.failures = failures;
+        this.mean = histogram.getMean();
+        this.median = histogram.getPercentile(0.5);
+        this.p99 = histogram.getPercentile(0.99);
+        this.max = histogram.getMax();
+    }
+
+    /**
+     * Returns the query shape: the query with its literals replaced by <code>?</code>.
+     *
+     * @return the query shape
+     */
+    public String getShape() {
+        return this.shape;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getFailures() {
+        return this.failures;
+    }
+
+    public long getMean() {
+        return this.mean;
+    }
+
+    public long getMedian() {
+        return this.median;
+    }
+
+    /**
+     * Returns the 99th percentile duration.
+     *
+     * @return the 99th percentile in nanoseconds
+     */
+    public long getP99() {
+        return this.p99;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    @Override
+    public String toString() {
+        return this.shape + ": count=" + this.count + ", failures=" + this.failures + ", mean=" + this.mean / 1000
+                + "us, p50=" + this.median / 1000 + "us, p99=" + this.p99 / 1000 + "us, max=" + this.max / 1000 + "us";
+    }
+}
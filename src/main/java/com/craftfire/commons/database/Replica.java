@@ -0,0 +1,161 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A read replica of the database of a {@link DataManager}, with its own {@link ConnectionPool} and health state.
+ */
+public class Replica {
+    private final DataManager dataManager;
+    private final String url;
+    private final ConnectionPool pool;
+    private long latency = -1, ejectedUntil = 0;
+    private int failures = 0;
+    private long ejections = 0;
+
+    /**
+     * Creates a replica which opens its connections to the given URL, with the credentials of the DataManager.
+     *
+     * @param dataManager  the DataManager of the primary database
+     * @param url          the JDBC URL of the replica
+     */
+    public Replica(final DataManager dataManager, final String url) {
+        if (dataManager == null) {
+            throw new IllegalArgumentException("Parameter 'dataManager' cannot be null.");
+        }
+        if (url == null) {
+            throw new IllegalArgumentException("Parameter 'url' cannot be null.");
+        }
+        this.dataManager = dataManager;
+        this.url = url;
+        this.pool = new ConnectionPool(dataManager) {
+            @Override
+            protected Connection openConnection() throws SQLException {
+                return dataManager.createConnection(url);
+            }
+        };
+        this.pool.setMinSize(0);
+    }
+
+    public String getURL() {
+        return this.url;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return this.pool;
+    }
+
+    /**
+     * Returns the smoothed round-trip time of the health checks of this replica.
+     *
+     * @return the latency in nanoseconds, or -1 if the replica hasn't been checked yet
+     */
+    public synchronized long getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * Returns the amount of consecutive failed health checks and queries.
+     *
+     * @return the amount of failures since the last success
+     */
+    public synchronized int getFailures() {
+        return this.failures;
+    }
+
+    /**
+     * Returns how often this replica has been ejected.
+     *
+     * @return the amount of ejections
+     */
+    public synchronized long getEjections() {
+        return this.ejections;
+    }
+
+    /**
+     * Returns whether queries can be routed to this replica, which is the case unless it has been ejected recently.
+     *
+     * @return true if the replica is available
+     */
+    public synchronized boolean isAvailable() {
+        return System.currentTimeMillis() >= this.ejectedUntil;
+    }
+
+    /**
+     * Removes the replica from the rotation for the given time, and closes its idle connections.
+     *
+     * @param millis  how long the replica stays ejected
+     * @param reason  why the replica is ejected, for the log
+     */
+    public void eject(long millis, String reason) {
+        synchronized (this) {
+            this.ejectedUntil = System.currentTimeMillis() + millis;
+            this.ejections++;
+        }
+        this.dataManager.getLogger().warning("Ejected read replica '" + this.url + "' for " + millis + " ms: " + reason);
+        this.pool.clear();
+    }
+
+    /**
+     * Checks whether the replica answers within the given time, updating its latency.
+     *
+     * @param  timeout  the time the replica has to answer in seconds
+     * @return          the round-trip time in nanoseconds
+     * @throws SQLException if no connection could be opened, or the connection is not valid
+     */
+    public long check(int timeout) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = this.pool.acquire();
+        try {
+            if (!connection.isValid(timeout)) {
+                throw new SQLException("The connection is not valid");
+            }
+        } finally {
+            this.pool.release(connection);
+        }
+        long time = System.nanoTime() - start;
+        synchronized (this) {
+            this.latency = this.latency < 0 ? time : (this.latency * 3 + time) / 4;
+            this.failures = 0;
+        }
+        return time;
+    }
+
+    /**
+     * Records a failed health check or query.
+     *
+     * @return the amount of consecutive failures
+     */
+    public synchronized int failed() {
+        return ++this.failures;
+    }
+
+    public void close() {
+        this.pool.close();
+    }
+
+    @Override
+    public String toString() {
+        return this.url;
+    }
+}
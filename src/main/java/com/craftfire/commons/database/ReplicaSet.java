@@ -0,0 +1,338 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The read replicas of a {@link DataManager}, see {@link DataManager#getReplicas()}.
+ * <p>
+ * Read-only queries are balanced over the available replicas. Replicas are checked in the background, and ejected
+ * for a while when a check fails or takes longer than the maximum latency, or when a query fails with a connection error.
+ * If no replica is available, reads go to the primary database.
+ */
+public class ReplicaSet {
+    /**
+     * How read-only queries are spread over the available replicas.
+     */
+    public enum Balancing {
+        /**
+         * Use each replica in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * Use the replica with the lowest health check latency.
+         */
+        LEAST_LATENCY
+    }
+
+    private final DataManager dataManager;
+    private final List<Replica> replicas = new CopyOnWriteArrayList<Replica>();
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile Balancing balancing = Balancing.ROUND_ROBIN;
+    private volatile long maxLatency = 1000, ejectionTime = 30000;
+    private volatile int healthCheckTimeout = 5, maxFailures = 1;
+    private int healthCheckInterval = 10;
+    private ScheduledExecutorService scheduler = null;
+
+    public ReplicaSet(DataManager dataManager) {
+        if (dataManager == null) {
+            throw new IllegalArgumentException("Parameter 'dataManager' cannot be null.");
+        }
+        this.dataManager = dataManager;
+    }
+
+    /**
+     * Adds a replica which is reached through the given JDBC URL, with the credentials of the DataManager.
+     *
+     * @param  url  the JDBC URL of the replica
+     * @return      the replica
+     */
+    public Replica add(String url) {
+        Replica replica = new Replica(this.dataManager, url);
+        this.replicas.add(replica);
+        startHealthChecks();
+        return replica;
+    }
+
+    /**
+     * Removes a replica and closes its connections.
+     *
+     * @param  replica  the replica
+     * @return          true if the replica was part of this set
+     */
+    public boolean remove(Replica replica) {
+        if (this.replicas.remove(replica)) {
+            replica.close();
+            return true;
+        }
+        return false;
+    }
+
+    public List<Replica> getReplicas() {
+        return Collections.unmodifiableList(this.replicas);
+    }
+
+    public int size() {
+        return this.replicas.size();
+    }
+
+    /**
+     * Picks the replica the next read-only query should run on.
+     *
+     * @return the replica, or null if no replica is available
+     */
+    public Replica select() {
+        if (this.replicas.isEmpty()) {
+            return null;
+        }
+        List<Replica> available = new ArrayList<Replica>(this.replicas.size());
+        for (Replica replica : this.replicas) {
+            if (replica.isAvailable()) {
+                available.add(replica);
+            }
+        }
+        if (available.isEmpty()) {
+            return null;
+        }
+        if (this.balancing == Balancing.LEAST_LATENCY) {
+            Replica best = null;
+            long bestLatency = Long.MAX_VALUE;
+            for (Replica replica : available) {
+                long latency = Math.max(replica.getLatency(), 0);
+                if (latency < bestLatency) {
+                    best = replica;
+                    bestLatency = latency;
+                }
+            }
+            return best;
+        }
+        return available.get((this.next.getAndIncrement() & Integer.MAX_VALUE) % available.size());
+    }
+
+    /**
+     * Returns the replica a connection belongs to.
+     *
+     * @param  connection  the connection
+     * @return             the replica, or null if the connection doesn't belong to a replica
+     */
+    public Replica getOwner(Connection connection) {
+        for (Replica replica : this.replicas) {
+            if (replica.getConnectionPool().owns(connection)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records a failed query on a replica. The replica is ejected if the failure is a connection error.
+     *
+     * @param replica  the replica
+     * @param e        the error the query failed with
+     */
+    public void failed(Replica replica, SQLException e) {
+        if (e instanceof SQLNonTransientConnectionException || e instanceof SQLRecoverableException
+                || (e.getSQLState() != null && e.getSQLState().startsWith("08"))) {
+            eject(replica, e.getMessage());
+        }
+    }
+
+    /**
+     * Ejects a replica for the {@link #getEjectionTime() ejection time}.
+     *
+     * @param replica  the replica
+     * @param reason   why the replica is ejected, for the log
+     */
+    public void eject(Replica replica, String reason) {
+        replica.failed();
+        replica.eject(this.ejectionTime, reason);
+    }
+
+    /**
+     * Checks all replicas now, ejecting the ones which fail or answer slower than the {@link #getMaxLatency() maximum latency}.
+     */
+    public void checkHealth() {
+        for (Replica replica : this.replicas) {
+            try {
+                long latency = replica.check(this.healthCheckTimeout) / 1000000;
+                if (this.maxLatency > 0 && latency > this.maxLatency) {
+                    replica.eject(this.ejectionTime, "Health check took " + latency + " ms");
+                }
+            } catch (SQLException e) {
+                if (replica.failed() >= this.maxFailures) {
+                    replica.eject(this.ejectionTime, "Health check failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public Balancing getBalancing() {
+        return this.balancing;
+    }
+
+    public void setBalancing(Balancing balancing) {
+        if (balancing == null) {
+            throw new IllegalArgumentException("Parameter 'balancing' cannot be null.");
+        }
+        this.balancing = balancing;
+    }
+
+    public long getMaxLatency() {
+        return this.maxLatency;
+    }
+
+    /**
+     * Sets how long a health check may take before the replica is ejected.
+     *
+     * @param millis  the maximum latency in milliseconds, 0 to only eject replicas which fail
+     */
+    public void setMaxLatency(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Parameter 'millis' cannot be negative.");
+        }
+        this.maxLatency = millis;
+    }
+
+    public long getEjectionTime() {
+        return this.ejectionTime;
+    }
+
+    /**
+     * Sets how long an ejected replica is left out of the rotation.
+     *
+     * @param millis  the ejection time in milliseconds
+     */
+    public void setEjectionTime(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Parameter 'millis' cannot be negative.");
+        }
+        this.ejectionTime = millis;
+    }
+
+    public int getHealthCheckTimeout() {
+        return this.healthCheckTimeout;
+    }
+
+    public void setHealthCheckTimeout(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Parameter 'seconds' cannot be negative.");
+        }
+        this.healthCheckTimeout = seconds;
+    }
+
+    public int getMaxFailures() {
+        return this.maxFailures;
+    }
+
+    /**
+     * Sets how many health checks in a row have to fail before the replica is ejected.
+     *
+     * @param failures  the amount of failures
+     */
+    public void setMaxFailures(int failures) {
+        if (failures < 1) {
+            throw new IllegalArgumentException("Parameter 'failures' must be at least 1.");
+        }
+        this.maxFailures = failures;
+    }
+
+    public synchronized int getHealthCheckInterval() {
+        return this.healthCheckInterval;
+    }
+
+    /**
+     * Sets how often the replicas are checked in the background.
+     *
+     * @param seconds  the interval in seconds, 0 disables the background checks
+     */
+    public synchronized void setHealthCheckInterval(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Parameter 'seconds' cannot be negative.");
+        }
+        this.healthCheckInterval = seconds;
+        stopHealthChecks();
+        startHealthChecks();
+    }
+
+    /**
+     * Closes the idle connections of all replicas, and the other ones when they are released.
+     */
+    public void clear() {
+        for (Replica replica : this.replicas) {
+            replica.getConnectionPool().clear();
+        }
+    }
+
+    /**
+     * Stops the health checks, and removes and closes all replicas.
+     */
+    public void close() {
+        stopHealthChecks();
+        List<Replica> removed = new ArrayList<Replica>(this.replicas);
+        this.replicas.clear();
+        for (Replica replica : removed) {
+            replica.close();
+        }
+    }
+
+    private synchronized void startHealthChecks() {
+        if (this.scheduler != null || this.healthCheckInterval == 0 || this.replicas.isEmpty()) {
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DataManager-ReplicaHealthCheck");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkHealth();
+                } catch (RuntimeException e) {
+                    ReplicaSet.this.dataManager.getLogger().stackTrace(e);
+                }
+            }
+        }, this.healthCheckInterval, this.healthCheckInterval, TimeUnit.SECONDS);
+    }
+
+    private synchronized void stopHealthChecks() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+}
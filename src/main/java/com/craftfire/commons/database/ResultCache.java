@@ -0,0 +1,260 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.craftfire.commons.cache.CacheItem;
+import com.craftfire.commons.cache.CacheManager;
+
+/**
+ * An opt-in read-through cache of the results of the table-based read methods of a {@link DataManager},
+ * such as {@link DataManager#getCount(String)}, {@link DataManager#getStringField(String, String, String)} and
+ * {@link DataManager#tableExist(String)}, stored in a {@link CacheManager} with one group per table.
+ * <p>
+ * Results are keyed by their query and parameters, and cached for the time-to-live of their table.
+ * The cache of a table is invalidated when the DataManager writes to that table through its table-based write methods,
+ * and the whole cache when it executes a raw update through {@link DataManager#executeQuery(String)} or
+ * {@link DataManager#update(String, Object...)}. Writes by other clients are only seen once the cached results expire.
+ */
+public class ResultCache {
+    private static final String GROUP_PREFIX = "DataManager.results.";
+    private volatile CacheManager cacheManager = new CacheManager();
+    private volatile boolean enabled = false;
+    private volatile int defaultTTL = 5;
+    private final Map<String, Integer> ttls = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong clears = new AtomicLong(), hits = new AtomicLong(), misses = new AtomicLong();
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public CacheManager getCacheManager() {
+        return this.cacheManager;
+    }
+
+    /**
+     * Sets the cache manager the results are stored in.
+     *
+     * @param cacheManager  the cache manager
+     */
+    public synchronized void setCacheManager(CacheManager cacheManager) {
+        if (cacheManager == null) {
+            throw new IllegalArgumentException("Parameter 'cacheManager' cannot be null.");
+        }
+        clear();
+        this.cacheManager = cacheManager;
+    }
+
+    public int getDefaultTTL() {
+        return this.defaultTTL;
+    }
+
+    /**
+     * Sets how long results are cached for tables without a time-to-live of their own.
+     *
+     * @param seconds  the time-to-live in seconds, 0 to not cache these tables
+     */
+    public void setDefaultTTL(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Parameter 'seconds' cannot be negative.");
+        }
+        this.defaultTTL = seconds;
+    }
+
+    /**
+     * Returns how long results of the given table are cached.
+     *
+     * @param  table  the table, without prefix
+     * @return        the time-to-live in seconds, 0 if the results of the table are not cached
+     */
+    public int getTTL(String table) {
+        Integer ttl = this.ttls.get(table.toLowerCase());
+        return ttl == null ? this.defaultTTL : ttl;
+    }
+
+    /**
+     * Sets how long results of the given table are cached.
+     *
+     * @param table    the table, without prefix
+     * @param seconds  the time-to-live in seconds, 0 to not cache the results of the table
+     */
+    public void setTTL(String table, int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Parameter 'seconds' cannot be negative.");
+        }
+        this.ttls.put(table.toLowerCase(), seconds);
+    }
+
+    /**
+     * Returns whether results of the given table are cached.
+     *
+     * @param  table  the table, without prefix
+     * @return        true if the cache is enabled and the table has a time-to-live
+     */
+    public boolean isCached(String table) {
+        return this.enabled && getTTL(table) > 0;
+    }
+
+    /**
+     * Returns the current generation of a table, which changes whenever the cache of the table is invalidated.
+     * Pass it to {@link #put(String, Object, Object, long)} to not cache results read before an invalidation.
+     *
+     * @param  table  the table, without prefix
+     * @return        the generation
+     */
+    public long getGeneration(String table) {
+        return generation(table).get() + this.clears.get();
+    }
+
+    /**
+     * Returns a cached result. Does not lock, so concurrent readers don't wait for each other.
+     *
+     * @param  table  the table, without prefix
+     * @param  key    the query and its parameters, see {@link #key(Object...)}
+     * @return        the cache item holding the result, which may be null, or null if the result is not cached
+     */
+    public CacheItem get(String table, Object key) {
+        CacheItem item = this.cacheManager.getItem(group(table), key);
+        if (item == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return item;
+    }
+
+    /**
+     * Caches a result, unless the cache of the table has been invalidated since the given generation.
+     *
+     * @param table       the table, without prefix
+     * @param key         the query and its parameters, see {@link #key(Object...)}
+     * @param result      the result, may be null
+     * @param generation  the {@link #getGeneration(String) generation} of the table before the result was read
+     */
+    public void put(String table, Object key, Object result, long generation) {
+        int ttl = getTTL(table);
+        if (!this.enabled || ttl <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (getGeneration(table) == generation) {
+                this.cacheManager.put(group(table), key, result, ttl);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached results of a table.
+     *
+     * @param table  the table, without prefix
+     */
+    public void invalidate(String table) {
+        synchronized (this) {
+            generation(table).incrementAndGet();
+            this.cacheManager.clear(group(table));
+        }
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clear() {
+        synchronized (this) {
+            this.clears.incrementAndGet();
+            for (String table : this.generations.keySet()) {
+                this.cacheManager.clear(group(table));
+            }
+        }
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Creates a cache key out of a query and its parameters. Keys are equal when all parts are equal, so parameters
+     * with the same string form but different types, like <code>1</code> and <code>"1"</code>, get different keys.
+     *
+     * @param  parts  the parts of the key, arrays are compared by their elements
+     * @return        the key
+     */
+    public static Object key(Object... parts) {
+        return new Key(parts.clone());
+    }
+
+    private AtomicLong generation(String table) {
+        String key = table.toLowerCase();
+        AtomicLong generation = this.generations.get(key);
+        if (generation == null) {
+            AtomicLong created = new AtomicLong();
+            generation = this.generations.putIfAbsent(key, created);
+            if (generation == null) {
+                generation = created;
+            }
+        }
+        return generation;
+    }
+
+    private static String group(String table) {
+        return GROUP_PREFIX + table.toLowerCase();
+    }
+
+    private static final class Key {
+        private final Object[] parts;
+        private final int hash;
+
+        Key(Object[] parts) {
+            this.parts = parts;
+            this.hash = Arrays.deepHashCode(parts);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && this.hash == ((Key) other).hash && Arrays.deepEquals(this.parts, ((Key) other).parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.deepToString(this.parts);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A forward-only cursor over the rows of a query, returned by {@link DataManager#stream(String, Object...)}.
+ * <p>
+ * Rows are read from the database as the cursor advances, so only the current row is kept in memory.
+ * The cursor holds on to its connection until it is closed, which happens automatically after the last row.
+ * Errors during iteration are thrown as {@link IllegalStateException}s with the {@link SQLException} as the cause.
+ */
+public class ResultCursor implements Iterator<DataRow>, Iterable<DataRow>, Closeable {
+    private final DataManager dataManager;
+    private final String query;
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final ColumnDescriptor[] columns;
+    private final ColumnIndex columnIndex;
+    private DataRow row = null;
+    private boolean reuseRow = false, fetched = false, hasNext = false, closed = false;
+    private int position = 0;
+
+    protected ResultCursor(DataManager dataManager, String query, Connection connection, PreparedStatement statement, ResultSet resultSet)
+            throws SQLException {
+        this.dataManager = dataManager;
+        this.query = query;
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.columns = ColumnDescriptor.describe(resultSet.getMetaData());
+        this.columnIndex = Results.createColumnIndex(this.columns);
+    }
+
+    public String getQuery() {
+        return this.query;
+    }
+
+    /**
+     * Returns the amount of columns of each row.
+     *
+     * @return the amount of columns
+     */
+    public int getColumnCount() {
+        return this.columns.length;
+    }
+
+    /**
+     * Returns the amount of rows returned so far.
+     *
+     * @return the amount of rows read
+     */
+    public int getPosition() {
+        return this.position;
+    }
+
+    public boolean isReuseRow() {
+        return this.reuseRow;
+    }
+
+    /**
+     * Sets whether the cursor fills the same {@link DataRow} instance for every row instead of creating a new one.
+     * <p>
+     * When enabled, a row returned by {@link #next()} is only valid until the next call to {@link #next()}.
+     *
+     * @param reuseRow  true to reuse the row instance
+     */
+    public void setReuseRow(boolean reuseRow) {
+        this.reuseRow = reuseRow;
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public Iterator<DataRow> iterator() {
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!this.fetched) {
+            if (this.closed) {
+                return false;
+            }
+            try {
+                this.hasNext = this.resultSet.next();
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("Could not read the next row of query: " + this.query, e);
+            }
+            this.fetched = true;
+            if (!this.hasNext) {
+                close();
+            }
+        }
+        return this.hasNext;
+    }
+
+    @Override
+    public DataRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        this.fetched = false;
+        if (this.row == null || !this.reuseRow) {
+            this.row = new DataRow(this.columnIndex);
+        } else {
+            this.row.reset();
+        }
+        try {
+            for (ColumnDescriptor column : this.columns) {
+                this.row.add(new DataField(column, this.resultSet));
+            }
+        } catch (SQLException e) {
+            close();
+            throw new IllegalStateException("Could not read row " + (this.position + 1) + " of query: " + this.query, e);
+        }
+        this.position++;
+        return this.row;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("ResultCursor is read-only");
+    }
+
+    /**
+     * Closes the result set and gives the connection back to the DataManager. Calling it more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.fetched = true;
+        this.hasNext = false;
+        this.dataManager.close(this.resultSet, null);
+        boolean reusable = true;
+        try {
+            this.statement.setFetchSize(0);
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        this.dataManager.recycle(this.connection, this.query, this.statement, reusable);
+        this.dataManager.releaseConnection(this.connection);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the result set of a query executed by {@link DataManager#processQuery(String, ResultSetHandler)}.
+ * <p>
+ * The result set is only valid during {@link #handle(ResultSet)}, it gets closed right after.
+ *
+ * @param <T>  type of the value produced from the result set
+ */
+public interface ResultSetHandler<T> {
+    /**
+     * Reads the result set.
+     *
+     * @param  resultSet    the result set, positioned before the first row
+     * @return              the value produced from the result set
+     * @throws SQLException if a database error occurs
+     */
+    T handle(ResultSet resultSet) throws SQLException;
+}
@@ -20,7 +20,6 @@
 package com.craftfire.commons.database;
 
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -30,21 +29,48 @@ public class Results {
     private final int rows;
     private List<DataRow> array;
 
+    /**
+     * Creates results which don't keep a row list of their own, for subclasses with their own row storage.
+     *
+     * @param query    the query
+     * @param columns  the amount of columns
+     */
+    protected Results(String query, int columns) {
+        this.query = query;
+        this.rows = columns;
+        this.array = null;
+    }
+
     public Results(String query, ResultSet rs) throws SQLException {
         this.query = query;
         this.array = new ArrayList<DataRow>();
 
-        ResultSetMetaData metaData = rs.getMetaData();
-        this.rows = metaData.getColumnCount();
+        ColumnDescriptor[] columns = ColumnDescriptor.describe(rs.getMetaData());
+        this.rows = columns.length;
+        ColumnIndex columnIndex = createColumnIndex(columns);
         while (rs.next()) {
-            DataRow data = new DataRow();
-            for (int i = 1; i <= this.rows; i++) {
-                data.add(new DataField(i, rs));
+            DataRow data = new DataRow(columnIndex);
+            for (ColumnDescriptor column : columns) {
+                data.add(new DataField(column, rs));
             }
             this.array.add(data);
         }
     }
 
+    /**
+     * Creates the shared, case-insensitive column name index for the rows of a result set.
+     *
+     * @param  columns  the column descriptors of the result set
+     * @return          the column index
+     */
+    public static ColumnIndex createColumnIndex(ColumnDescriptor[] columns) {
+        List<String> names = new ArrayList<String>(columns.length);
+        for (ColumnDescriptor column : columns) {
+            names.add(column.getLabel());
+        }
+        return new ColumnIndex(names);
+    }
+
     public int getRowsCount() {
         return this.rows;
     }
@@ -58,16 +84,18 @@ public class Results {
     }
 
     public DataRow getFirstResult() {
-        if (this.array.size() > 0) {
-            return this.array.get(0);
+        List<DataRow> rows = getArray();
+        if (rows.size() > 0) {
+            return rows.get(0);
         } else {
             return null;
         }
     }
 
     public DataRow getLastResult() {
-        if (this.array.size() > 0) {
-            return this.array.get(this.array.size() - 1);
+        List<DataRow> rows = getArray();
+        if (rows.size() > 0) {
+            return rows.get(rows.size() - 1);
         } else {
             return null;
         }
@@ -0,0 +1,39 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object, used by {@link DataManager#query(RowMapper, String, Object...)}.
+ *
+ * @param <T>  type of the objects rows are mapped to
+ */
+public interface RowMapper<T> {
+    /**
+     * Maps the current row. Must not move the cursor of the result set.
+     *
+     * @param  resultSet    the result set, positioned on the row to map
+     * @return              the object the row maps to
+     * @throws SQLException if a database error occurs
+     */
+    T map(ResultSet resultSet) throws SQLException;
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A query which took longer than the {@link QueryMetrics#getSlowQueryThreshold() slow query threshold}.
+ */
+public class SlowQuery {
+    private final long time, duration;
+    private final String query, thread;
+    private final List<StackTraceElement> stackTrace;
+
+    protected SlowQuery(long time, String query, long duration, String thread, StackTraceElement[] stackTrace) {
+        this.time = time;
+        this.query = query;
+        this.duration = duration;
+        this.thread = thread;
+        this.stackTrace = Arrays.asList(stackTrace);
+    }
+
+    /**
+     * Returns when the query finished.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    public String getQuery() {
+        return this.query;
+    }
+
+    /**
+     * Returns how long the query took.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+
+    public String getThread() {
+        return this.thread;
+    }
+
+    /**
+     * Returns the stack trace of the code which ran the query.
+     *
+     * @return the stack trace, innermost call first
+     */
+    public List<StackTraceElement> getStackTrace() {
+        return this.stackTrace;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(this.duration / 1000000).append(" ms on ").append(this.thread).append(": ").append(this.query);
+        for (StackTraceElement element : this.stackTrace) {
+            builder.append(System.getProperty("line.separator")).append("\tat ").append(element);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of prepared statements of a single connection, keyed by their SQL text.
+ * <p>
+ * Statements are checked out with {@link #take(String)} and given back with {@link #offer(String, PreparedStatement)},
+ * so a cached statement is never used by two callers at the same time.
+ */
+public class StatementCache {
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    private int capacity;
+
+    /**
+     * Creates a new statement cache.
+     *
+     * @param capacity  the maximum amount of statements kept in the cache
+     */
+    public StatementCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Changes the capacity of the cache.
+     *
+     * @param  capacity  the maximum amount of statements kept in the cache
+     * @return           the statements which had to be evicted to fit the new capacity, the caller should close them
+     */
+    public synchronized List<PreparedStatement> setCapacity(int capacity) {
+        this.capacity = capacity;
+        List<PreparedStatement> evicted = new ArrayList<PreparedStatement>();
+        Iterator<PreparedStatement> it = this.statements.values().iterator();
+        while (this.statements.size() > capacity && it.hasNext()) {
+            evicted.add(it.next());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    public synchronized int size() {
+        return this.statements.size();
+    }
+
+    /**
+     * Removes a cached statement for the given SQL from the cache, so the caller can use it exclusively.
+     *
+     * @param  sql  the SQL text
+     * @return      the cached statement, or null on a cache miss
+     */
+    public synchronized PreparedStatement take(String sql) {
+        return this.statements.remove(sql);
+    }
+
+    /**
+     * Puts a statement back into the cache.
+     * <p>
+     * If a statement for the same SQL has been put back in the meantime, the given statement is returned instead.
+     *
+     * @param  sql        the SQL text
+     * @param  statement  the statement
+     * @return            a statement which did not fit in the cache and should be closed by the caller, or null
+     */
+    public synchronized PreparedStatement offer(String sql, PreparedStatement statement) {
+        if (this.capacity <= 0 || this.statements.containsKey(sql)) {
+            return statement;
+        }
+        this.statements.put(sql, statement);
+        if (this.statements.size() > this.capacity) {
+            Iterator<Map.Entry<String, PreparedStatement>> it = this.statements.entrySet().iterator();
+            PreparedStatement eldest = it.next().getValue();
+            it.remove();
+            return eldest;
+        }
+        return null;
+    }
+
+    /**
+     * Removes all statements from the cache.
+     *
+     * @return the removed statements, the caller should close them
+     */
+    public synchronized List<PreparedStatement> clear() {
+        List<PreparedStatement> removed = new ArrayList<PreparedStatement>(this.statements.values());
+        this.statements.clear();
+        return removed;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A database transaction started by {@link DataManager#begin()}.
+ * <p>
+ * The transaction pins one connection to the thread which started it: every query and update that thread runs through
+ * the DataManager uses that connection, and reads are not routed to replicas or served from the result cache, until the
+ * transaction is committed or rolled back, which must happen on that same thread. Other threads are not affected,
+ * and cannot use, commit or roll back the transaction.
+ * <p>
+ * A transaction must be ended by {@link #commit()} or {@link #rollback()}, {@link #close()} rolls it back if it is still active.
+ */
+public class Transaction implements AutoCloseable {
+    private final DataManager dataManager;
+    private final Connection connection;
+    private final boolean autoCommit, releaseConnection;
+    private final Thread thread;
+    private final Set<String> tables = new HashSet<String>();
+    private boolean allTables = false, active = true;
+
+    protected Transaction(DataManager dataManager, Connection connection) throws SQLException {
+        this(dataManager, connection, true);
+    }
+
+    /**
+     * Starts a transaction on a connection.
+     *
+     * @param  dataManager        the data manager
+     * @param  connection         the connection
+     * @param  releaseConnection  true to release the connection when the transaction ends, false if the caller keeps it
+     * @throws SQLException       if auto-commit could not be disabled
+     */
+    protected Transaction(DataManager dataManager, Connection connection, boolean releaseConnection) throws SQLException {
+        this.dataManager = dataManager;
+        this.connection = connection;
+        this.releaseConnection = releaseConnection;
+        this.thread = Thread.currentThread();
+        this.autoCommit = connection.getAutoCommit();
+        if (this.autoCommit) {
+            connection.setAutoCommit(false);
+        }
+    }
+
+    public DataManager getDataManager() {
+        return this.dataManager;
+    }
+
+    /**
+     * Returns the connection pinned by this transaction.
+     *
+     * @return the connection
+     */
+    public Connection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Returns the thread which started the transaction, the only thread whose queries run in it.
+     *
+     * @return the thread
+     */
+    public Thread getThread() {
+        return this.thread;
+    }
+
+    /**
+     * Returns whether the connection is released when the transaction ends.
+     *
+     * @return false if the connection belongs to whoever started the transaction
+     */
+    public boolean isReleasingConnection() {
+        return this.releaseConnection;
+    }
+
+    public synchronized boolean isActive() {
+        return this.active;
+    }
+
+    /**
+     * Commits the changes made in the transaction and ends it.
+     *
+     * @throws SQLException if the commit failed, the transaction is ended anyway
+     */
+    public void commit() throws SQLException {
+        checkActive();
+        try {
+            this.connection.commit();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Discards the changes made in the transaction and ends it.
+     *
+     * @throws SQLException if the rollback failed, the transaction is ended anyway
+     */
+    public void rollback() throws SQLException {
+        checkActive();
+        try {
+            this.connection.rollback();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Creates an unnamed savepoint which the transaction can be partially rolled back to.
+     *
+     * @return              the savepoint
+     * @throws SQLException if the savepoint could not be created
+     */
+    public Savepoint setSavepoint() throws SQLException {
+        checkActive();
+        return this.connection.setSavepoint();
+    }
+
+    /**
+     * Creates a named savepoint which the transaction can be partially rolled back to.
+     *
+     * @param  name         the name of the savepoint
+     * @return              the savepoint
+     * @throws SQLException if the savepoint could not be created
+     */
+    public Savepoint setSavepoint(String name) throws SQLException {
+        checkActive();
+        return this.connection.setSavepoint(name);
+    }
+
+    /**
+     * Discards the changes made after the savepoint was created. The transaction stays active.
+     *
+     * @param  savepoint    the savepoint
+     * @throws SQLException if the rollback failed
+     */
+    public void rollback(Savepoint savepoint) throws SQLException {
+        if (savepoint == null) {
+            throw new IllegalArgumentException("Parameter 'savepoint' cannot be null.");
+        }
+        checkActive();
+        this.connection.rollback(savepoint);
+    }
+
+    /**
+     * Removes the savepoint, keeping the changes made after it.
+     *
+     * @param  savepoint    the savepoint
+     * @throws SQLException if the savepoint could not be released
+     */
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        if (savepoint == null) {
+            throw new IllegalArgumentException("Parameter 'savepoint' cannot be null.");
+        }
+        checkActive();
+        this.connection.releaseSavepoint(savepoint);
+    }
+
+    /**
+     * Rolls the transaction back if it is still active.
+     *
+     * @throws SQLException if the rollback failed
+     */
+    @Override
+    public void close() throws SQLException {
+        if (isActive()) {
+            rollback();
+        }
+    }
+
+    /**
+     * Remembers that the cached results of a table have been invalidated in this transaction,
+     * so they get invalidated again once the transaction has ended.
+     *
+     * @param table  the table, or null for all tables
+     */
+    protected synchronized void invalidated(String table) {
+        if (table == null) {
+            this.allTables = true;
+        } else {
+            this.tables.add(table);
+        }
+    }
+
+    private synchronized void checkActive() throws SQLException {
+        if (!this.active) {
+            throw new SQLException("The transaction has already ended");
+        }
+        if (Thread.currentThread() != this.thread) {
+            throw new SQLException("The transaction belongs to thread '" + this.thread.getName() + "'");
+        }
+    }
+
+    private void end() {
+        Set<String> invalidated;
+        boolean all;
+        synchronized (this) {
+            this.active = false;
+            invalidated = new HashSet<String>(this.tables);
+            all = this.allTables;
+        }
+        try {
+            if (this.autoCommit) {
+                this.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            this.dataManager.getLogger().stackTrace(e);
+        }
+        this.dataManager.endTransaction(this, invalidated, all);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import java.sql.SQLException;
+
+/**
+ * Work executed in a transaction by {@link DataManager#inTransaction(TransactionCallback)}.
+ *
+ * @param <T>  type of the value produced by the work
+ */
+public interface TransactionCallback<T> {
+    /**
+     * Runs the work. Every query the current thread runs through the DataManager is part of the transaction.
+     *
+     * @param  transaction  the transaction
+     * @return              the value produced by the work
+     * @throws SQLException if a database error occurs, which rolls the transaction back
+     */
+    T execute(Transaction transaction) throws SQLException;
+}
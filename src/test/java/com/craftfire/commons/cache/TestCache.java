@@ -20,9 +20,26 @@
 package com.craftfire.commons.cache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
 
@@ -40,6 +57,310 @@ public class TestCache {
         assertEquals(now, mgr.get(id));
     }
 
+    @Test
+    public void testCacheTime() {
+        CacheManager mgr = new CacheManager();
+        mgr.put("group", "fresh", "value", 60);
+        mgr.put("group", "expired", "value", 0);
+        assertEquals("value", mgr.get("group", "fresh"));
+        assertTrue(mgr.getItem("group", "fresh").getSecondsLeft() > 0);
+        assertNull(mgr.get("group", "expired"));
+    }
+
+    @Test
+    public void testConcurrentPut() throws InterruptedException {
+        final CacheManager mgr = new CacheManager();
+        final Set<Integer> ids = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final String group = i % 2 == 0 ? "Workers" : "workers";
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 1000; j++) {
+                            Integer value = Integer.valueOf(j);
+                            int id = mgr.put(group, value);
+                            ids.add(id);
+                            assertEquals(value, mgr.get(group, id));
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(8000, ids.size());
+        assertEquals(8000, mgr.getLastID("WORKERS"));
+        assertEquals(8000, mgr.getCache("workers").size());
+
+        mgr.put("workers", "9000", "value");
+        assertEquals(9001, mgr.put("workers", "next"));
+        mgr.clear("Workers");
+        assertFalse(mgr.containsGroup("workers"));
+    }
+
+    @Test
+    public void testBoundedGroups() {
+        CacheManager mgr = new CacheManager();
+        final List<String> evicted = new ArrayList<String>();
+        mgr.addEvictionListener(new EvictionListener() {
+            @Override
+            public void evicted(String group, CacheItem item, Cause cause) {
+                evicted.add(group + ":" + item.getID() + ":" + cause);
+            }
+        });
+        mgr.setMaxSize("LRU", 3);
+        mgr.put("lru", "a", 1);
+        mgr.put("lru", "b", 2);
+        mgr.put("lru", "c", 3);
+        assertEquals(1, mgr.get("lru", "a"));
+        mgr.put("lru", "d", 4);
+        assertEquals(Arrays.asList("lru:b:SIZE"), evicted);
+        assertEquals(3, mgr.getCache("lru").size());
+        assertTrue(mgr.contains("lru", "a"));
+
+        mgr.setWeigher(new Weigher() {
+            @Override
+            public long weigh(Object id, Object object) {
+                return String.valueOf(object).length();
+            }
+        });
+        mgr.setMaxWeight("heavy", 10);
+        mgr.put("heavy", 1, "aaaa");
+        mgr.put("heavy", 2, "bbbb");
+        mgr.put("heavy", 2, "cc");
+        assertEquals(6, mgr.getWeight("heavy"));
+        mgr.put("heavy", 3, "ddddd");
+        assertEquals(Arrays.asList("lru:b:SIZE", "heavy:1:SIZE"), evicted);
+        assertEquals(7, mgr.getWeight("heavy"));
+
+        mgr.setMaxSize("lru", 1);
+        assertEquals(1, mgr.getCache("lru").size());
+        mgr.put("lru", "expired", 5, 0);
+        assertNull(mgr.get("lru", "expired"));
+        assertEquals("lru:expired:EXPIRED", evicted.get(evicted.size() - 1));
+        assertEquals(6, mgr.getEvictionCount());
+    }
+
+    @Test
+    public void testTimerWheel() {
+        Random random = new Random(42);
+        TimerWheel wheel = new TimerWheel(10, 0);
+        Map<TimerWheel.Node, Long> nodes = new HashMap<TimerWheel.Node, Long>();
+        for (int i = 0; i < 2000; i++) {
+            TimerWheel.Node node = new TimerWheel.Node();
+            long expires = i < 10 ? 20000000000L : random.nextInt(3000000);
+            wheel.schedule(node, expires);
+            nodes.put(node, expires);
+        }
+        List<TimerWheel.Node> cancelled = new ArrayList<TimerWheel.Node>();
+        for (TimerWheel.Node node : nodes.keySet()) {
+            if (cancelled.size() < 100 && nodes.get(node) < 20000000000L) {
+                wheel.cancel(node);
+                cancelled.add(node);
+            }
+        }
+        assertEquals(1900, wheel.size());
+        for (Map.Entry<TimerWheel.Node, Long> entry : nodes.entrySet()) {
+            if (entry.getKey().isScheduled()) {
+                wheel.schedule(entry.getKey(), entry.getValue());
+            }
+        }
+        assertEquals(1900, wheel.size());
+        long now = 0;
+        int expired = 0;
+        while (now < 3000000) {
+            now += random.nextInt(5000);
+            for (TimerWheel.Node node : wheel.advance(now)) {
+                assertTrue(nodes.get(node) / 10 <= now / 10);
+                assertFalse(node.isScheduled());
+                expired++;
+            }
+            assertEquals(1900 - expired, wheel.size());
+        }
+        for (Map.Entry<TimerWheel.Node, Long> entry : nodes.entrySet()) {
+            assertEquals(entry.getValue() / 10 > now / 10, entry.getKey().isScheduled());
+        }
+        assertEquals(0, wheel.advance(10000000000L).size());
+        assertEquals(10, wheel.advance(20000000000L).size());
+    }
+
+    @Test
+    public void testExpirySweep() {
+        final AtomicLong time = new AtomicLong();
+        CacheManager mgr = new CacheManager();
+        mgr.setTicker(ticker(time));
+        final List<Object> expired = new ArrayList<Object>();
+        mgr.addEvictionListener(new EvictionListener() {
+            @Override
+            public void evicted(String group, CacheItem item, Cause cause) {
+                assertEquals(Cause.EXPIRED, cause);
+                expired.add(item.getID());
+            }
+        });
+        mgr.setSweepInterval(0);
+        mgr.put("sweep", "short", 1, 10);
+        mgr.put("sweep", "long", 2, 100);
+        mgr.put("other", "long", 3, 100);
+        mgr.sweep();
+        assertEquals(0, mgr.getExpiredCount());
+        time.set(TimeUnit.SECONDS.toNanos(20));
+        mgr.sweep();
+        assertEquals(Arrays.asList((Object) "short"), expired);
+        assertEquals(1, mgr.getCache("sweep").size());
+        time.set(TimeUnit.SECONDS.toNanos(200));
+        mgr.put("sweep", "new", 4, 1000);
+        assertEquals(Arrays.asList((Object) "short", "long"), expired);
+        assertEquals(2, mgr.getExpiredCount());
+        assertEquals(2, mgr.getSweepCount());
+        assertEquals(1, mgr.getCache("other").size());
+    }
+
+    @Test
+    public void testTimeToLive() {
+        final AtomicLong time = new AtomicLong(Long.MAX_VALUE - TimeUnit.MILLISECONDS.toNanos(75));
+        CacheManager mgr = new CacheManager();
+        mgr.setSweepInterval(0);
+        mgr.setTicker(ticker(time));
+        mgr.put("ttl", "fixed", 1, 50, TimeUnit.MILLISECONDS, false);
+        mgr.put("ttl", "sliding", 2, 50, TimeUnit.MILLISECONDS, true);
+        assertEquals(50, mgr.getItem("ttl", "fixed").getTimeLeft(TimeUnit.MILLISECONDS));
+        assertTrue(mgr.getItem("ttl", "sliding").isSliding());
+
+        // Crosses the overflow of the ticker.
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(49));
+        assertEquals(1, mgr.get("ttl", "fixed"));
+        assertEquals(2, mgr.get("ttl", "sliding"));
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertNull(mgr.get("ttl", "fixed"));
+        assertEquals(2, mgr.get("ttl", "sliding"));
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(49));
+        assertEquals(2, mgr.get("ttl", "sliding"));
+        assertEquals(0, mgr.getItem("ttl", "sliding").getSecondsLeft());
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        assertNull(mgr.get("ttl", "sliding"));
+
+        mgr.put("ttl", "sliding", 3, 50, TimeUnit.MILLISECONDS, true);
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        mgr.sweep();
+        assertEquals(0, mgr.getCache("ttl").size());
+        assertEquals(3, mgr.getExpiredCount());
+    }
+
+    @Test
+    public void testLoadingCache() throws Exception {
+        final CacheManager mgr = new CacheManager();
+        final AtomicInteger calls = new AtomicInteger();
+        final CacheLoader<String> slow = new CacheLoader<String>() {
+            @Override
+            public String load(Object id) throws Exception {
+                calls.incrementAndGet();
+                Thread.sleep(200);
+                return "loaded " + id;
+            }
+        };
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(mgr.get("Load", "key", slow));
+                    } catch (ExecutionException e) {
+                        results.add(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(Collections.nCopies(8, "loaded key"), results);
+        assertEquals("loaded key", mgr.get("load", "key"));
+
+        CacheLoader<String> failing = new CacheLoader<String>() {
+            @Override
+            public String load(Object id) throws Exception {
+                calls.incrementAndGet();
+                throw new IllegalStateException("down");
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            try {
+                mgr.get("load", "broken", failing);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertEquals("down", e.getCause().getMessage());
+            }
+        }
+        assertEquals(3, calls.get());
+        assertEquals(2, mgr.getLoadFailureCount());
+        assertFalse(mgr.contains("load", "broken"));
+
+        final List<Throwable> recursive = new ArrayList<Throwable>();
+        CacheLoader<String> self = new CacheLoader<String>() {
+            @Override
+            public String load(Object id) throws Exception {
+                try {
+                    mgr.get("load", id, this);
+                } catch (ExecutionException e) {
+                    recursive.add(e.getCause());
+                }
+                return "outer " + id;
+            }
+        };
+        assertEquals("outer self", mgr.get("Load", "self", self));
+        assertEquals(1, recursive.size());
+        assertTrue(recursive.get(0) instanceof IllegalStateException);
+        assertEquals("outer self", mgr.get("load", "self"));
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        final AtomicLong time = new AtomicLong();
+        final AtomicInteger version = new AtomicInteger();
+        CacheManager mgr = new CacheManager();
+        mgr.setTicker(ticker(time));
+        mgr.setCacheTime(10);
+        mgr.setRefreshAhead(2, TimeUnit.SECONDS);
+        mgr.setRefreshExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        CacheLoader<Integer> loader = new CacheLoader<Integer>() {
+            @Override
+            public Integer load(Object id) {
+                return version.incrementAndGet();
+            }
+        };
+        assertEquals(Integer.valueOf(1), mgr.get("refresh", 1, loader));
+        time.set(TimeUnit.SECONDS.toNanos(7));
+        assertEquals(Integer.valueOf(1), mgr.get("refresh", 1, loader));
+        assertEquals(0, mgr.getRefreshCount());
+        time.set(TimeUnit.SECONDS.toNanos(9));
+        assertEquals(Integer.valueOf(1), mgr.get("refresh", 1, loader));
+        assertEquals(1, mgr.getRefreshCount());
+        assertEquals(Integer.valueOf(2), mgr.get("refresh", 1, loader));
+        assertEquals(10, mgr.getItem("refresh", 1).getSecondsLeft());
+        assertEquals(2, mgr.getLoadCount());
+    }
+
     @Test
     public void testMetaPutGet() {
         CacheManager mgr = new CacheManager();
@@ -77,4 +398,12 @@ public class TestCache {
         assertNull(mgr.getMetadatableItem("GrOuP", id).getMetaData("test.meta"));
     }
 
+    private static Ticker ticker(final AtomicLong time) {
+        return new Ticker() {
+            @Override
+            public long read() {
+                return time.get();
+            }
+        };
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.craftfire.commons.database.ConnectionMonitor.State;
+
+public class TestConnectionMonitor {
+    private static final String table = "typetest";
+    private final AtomicBoolean down = new AtomicBoolean(), invalid = new AtomicBoolean();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicReference<Connection> created = new AtomicReference<Connection>();
+    private DataManager datamanager;
+    private ConnectionMonitor monitor;
+
+    @Before
+    public void init() {
+        this.datamanager = new DataManager(DataType.H2, "sa", "") {
+            @Override
+            protected Connection createConnection(String url) throws SQLException {
+                TestConnectionMonitor.this.attempts.incrementAndGet();
+                if (TestConnectionMonitor.this.down.get()) {
+                    throw new SQLException("Connection refused", "08001");
+                }
+                Connection connection = validatedBy(super.createConnection(url), TestConnectionMonitor.this.invalid);
+                TestConnectionMonitor.this.created.set(connection);
+                return connection;
+            }
+        };
+        this.datamanager.getLogger().getLogger().setLevel(Level.OFF);
+        this.datamanager.setDatabase("test");
+        this.datamanager.setDirectory("./target/test-classes/");
+        this.monitor = this.datamanager.getConnectionMonitor();
+        this.monitor.setValidationInterval(0);
+    }
+
+    @After
+    public void cleanup() {
+        this.datamanager.close(true);
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        this.monitor.setFailureThreshold(2);
+        this.monitor.setInitialBackoff(300);
+        this.down.set(true);
+        assertFalse(this.datamanager.hasConnection());
+        assertEquals(State.CLOSED, this.monitor.getState());
+        assertFalse(this.datamanager.hasConnection());
+        assertEquals(State.OPEN, this.monitor.getState());
+        assertNotNull(this.monitor.getLastError());
+        assertEquals(2, this.attempts.get());
+
+        try {
+            this.datamanager.getResults("SELECT * FROM `" + table + "`");
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            assertEquals("08001", e.getSQLState());
+        }
+        assertEquals(0, this.datamanager.getCount(table));
+        assertEquals(2, this.attempts.get());
+        assertEquals(2, this.monitor.getRejectedCount());
+
+        Thread.sleep(500);
+        assertEquals(State.OPEN, this.monitor.getState());
+        assertEquals(3, this.attempts.get());
+        assertTrue(this.monitor.getRetryDelay() > 300);
+
+        this.down.set(false);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.monitor.getState() != State.CLOSED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(State.CLOSED, this.monitor.getState());
+        assertNull(this.monitor.getLastError());
+        assertTrue(this.datamanager.getCount(table) > 0);
+        assertEquals(1, this.monitor.getTransitionCount(State.CLOSED, State.OPEN));
+        assertEquals(2, this.monitor.getTransitionCount(State.OPEN, State.HALF_OPEN));
+        assertEquals(1, this.monitor.getTransitionCount(State.HALF_OPEN, State.OPEN));
+        assertEquals(1, this.monitor.getTransitionCount(State.HALF_OPEN, State.CLOSED));
+    }
+
+    @Test
+    public void testSharedConnectionValidation() throws Exception {
+        this.datamanager.setKeepAlive(true);
+        this.datamanager.connect();
+        Connection first = this.datamanager.getConnection();
+        assertNotNull(first);
+        this.datamanager.validateConnections();
+        assertSame(first, this.datamanager.getConnection());
+
+        this.invalid.set(true);
+        this.datamanager.validateConnections();
+        assertNull(this.datamanager.getConnection());
+        assertEquals(2, this.monitor.getValidationCount());
+        assertEquals(1, this.monitor.getValidationFailureCount());
+
+        this.datamanager.connect();
+        Connection second = this.datamanager.getConnection();
+        assertNotNull(second);
+        Thread.sleep(1100);
+        assertTrue(this.datamanager.getCount(table) > 0);
+        assertFalse(second == this.datamanager.getConnection());
+        assertEquals(2, this.monitor.getValidationFailureCount());
+    }
+
+    @Test
+    public void testPoolValidation() throws Exception {
+        this.datamanager.setPooled(true);
+        this.datamanager.getConnectionPool().setMinSize(2);
+        this.datamanager.connect();
+        assertEquals(2, this.datamanager.getConnectionPool().getIdleCount());
+        this.datamanager.validateConnections();
+        assertEquals(2, this.datamanager.getConnectionPool().getIdleCount());
+
+        this.invalid.set(true);
+        this.datamanager.validateConnections();
+        assertEquals(0, this.datamanager.getConnectionPool().getSize());
+        assertEquals(4, this.monitor.getValidationCount());
+        assertEquals(2, this.monitor.getValidationFailureCount());
+        this.invalid.set(false);
+        assertTrue(this.datamanager.getCount(table) > 0);
+    }
+
+    private static Connection validatedBy(final Connection connection, final AtomicBoolean invalid) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("isValid") && invalid.get()) {
+                    return false;
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testGroupCommitKeepsConnection() throws SQLException {
+        GroupCommit groupCommit = this.datamanager.getGroupCommit();
+        groupCommit.setWindow(0);
+        groupCommit.setEnabled(true);
+        try {
+            this.datamanager.update("UPDATE `writetest` SET `x` = `x` WHERE `id` = -1");
+            int opened = this.attempts.get();
+            for (int i = 0; i < 5; i++) {
+                this.datamanager.update("UPDATE `writetest` SET `x` = `x` WHERE `id` = -1");
+            }
+            assertEquals(opened, this.attempts.get());
+            assertEquals(6, groupCommit.getCommits());
+        } finally {
+            groupCommit.setEnabled(false);
+        }
+    }
+
+    @Test
+    public void testStreamOwnConnection() throws SQLException {
+        this.datamanager.setKeepAlive(true);
+        this.datamanager.connect();
+        Connection shared = this.datamanager.getConnection();
+        int opened = this.attempts.get();
+        ResultCursor cursor = this.datamanager.stream("SELECT * FROM `" + table + "`");
+        Connection streaming = this.created.get();
+        try {
+            assertEquals(opened + 1, this.attempts.get());
+            assertFalse(streaming == shared);
+            assertTrue(this.datamanager.getCount(table) > 0);
+            assertSame(shared, this.datamanager.getConnection());
+            assertTrue(cursor.hasNext());
+        } finally {
+            cursor.close();
+        }
+        assertTrue(streaming.isClosed());
+        assertFalse(shared.isClosed());
+    }
+}
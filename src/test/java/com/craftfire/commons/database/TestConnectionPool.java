@@ -0,0 +1,183 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestConnectionPool {
+    private static final String table = "typetest";
+    private DataManager datamanager;
+    private ConnectionPool pool;
+
+    @Before
+    public void init() {
+        this.datamanager = new DataManager(DataType.H2, "sa", "");
+        this.datamanager.getLogger().getLogger().setLevel(Level.OFF);
+        this.datamanager.setDatabase("test");
+        this.datamanager.setDirectory("./target/test-classes/");
+        this.datamanager.setPooled(true);
+        this.pool = this.datamanager.getConnectionPool();
+        this.pool.setMinSize(1);
+        this.pool.setMaxSize(3);
+        this.pool.setAcquireTimeout(1);
+    }
+
+    @After
+    public void cleanup() {
+        this.datamanager.setPooled(false);
+    }
+
+    @Test
+    public void testSettings() {
+        assertTrue(this.datamanager.isPooled());
+        assertEquals(1, this.pool.getMinSize());
+        assertEquals(3, this.pool.getMaxSize());
+        assertEquals(1, this.pool.getAcquireTimeout());
+        this.pool.setIdleTimeout(10);
+        assertEquals(10, this.pool.getIdleTimeout());
+        this.pool.setValidationQuery("SELECT 1");
+        assertEquals("SELECT 1", this.pool.getValidationQuery());
+    }
+
+    @Test
+    public void testFill() {
+        this.pool.setMinSize(2);
+        this.datamanager.connect();
+        assertEquals(2, this.pool.getSize());
+        assertEquals(2, this.pool.getIdleCount());
+        assertTrue(this.datamanager.isConnected());
+    }
+
+    @Test
+    public void testReuse() throws SQLException {
+        Connection first = this.pool.acquire();
+        this.pool.release(first);
+        Connection second = this.pool.acquire();
+        assertSame(first, second);
+        assertEquals(1, this.pool.getActiveCount());
+        this.pool.release(second);
+        assertEquals(0, this.pool.getActiveCount());
+    }
+
+    @Test
+    public void testExhausted() throws SQLException {
+        List<Connection> taken = new ArrayList<Connection>();
+        for (int i = 0; i < 3; i++) {
+            taken.add(this.pool.acquire());
+        }
+        assertEquals(3, this.pool.getSize());
+        try {
+            this.pool.acquire();
+            fail("Expected SQLException when the pool is exhausted");
+        } catch (SQLException expected) {
+        }
+        for (Connection connection : taken) {
+            this.pool.release(connection);
+        }
+        assertEquals(3, this.pool.getIdleCount());
+    }
+
+    @Test
+    public void testClear() throws SQLException {
+        Connection used = this.pool.acquire();
+        Connection idle = this.pool.acquire();
+        this.pool.release(idle);
+        this.pool.clear();
+        assertTrue(idle.isClosed());
+        assertFalse(used.isClosed());
+        this.pool.release(used);
+        assertTrue(used.isClosed());
+        assertEquals(0, this.pool.getSize());
+        Connection fresh = this.pool.acquire();
+        assertNotSame(used, fresh);
+        this.pool.release(fresh);
+    }
+
+    @Test
+    public void testClosed() throws SQLException {
+        Connection connection = this.pool.acquire();
+        this.pool.close();
+        assertTrue(this.pool.isClosed());
+        this.pool.release(connection);
+        assertTrue(connection.isClosed());
+        try {
+            this.pool.acquire();
+            fail("Expected SQLException when acquiring from a closed pool");
+        } catch (SQLException expected) {
+        }
+    }
+
+    @Test
+    public void testQueries() throws SQLException {
+        assertTrue(this.datamanager.hasConnection());
+        assertEquals(1, this.datamanager.getCount(table));
+        assertTrue(this.datamanager.tableExist(table));
+        assertEquals(0, this.pool.getActiveCount());
+    }
+
+    @Test
+    public void testParallelQueries() throws InterruptedException {
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 20; j++) {
+                        try {
+                            Connection connection = TestConnectionPool.this.pool.acquire();
+                            try {
+                                connection.createStatement().executeQuery("SELECT COUNT(*) FROM `" + table + "`").close();
+                            } finally {
+                                TestConnectionPool.this.pool.release(connection);
+                            }
+                        } catch (SQLException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertTrue(this.pool.getSize() <= 3);
+        assertEquals(0, this.pool.getActiveCount());
+    }
+}
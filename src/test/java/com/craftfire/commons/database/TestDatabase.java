@@ -26,20 +26,48 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import org.junit.BeforeClass;
@@ -117,6 +145,10 @@ public class TestDatabase {
         assertEquals("SELECT COUNT(*) FROM `" + table + "` WHERE `char` = 'alice has a cat' LIMIT 1", datamanager.getLastQuery());
         assertTrue(datamanager.getQueriesCount() >= 2);
         assertTrue(datamanager.getQueries().containsValue("SELECT COUNT(*) FROM `" + table + "` WHERE `char` = 'alice has a cat' LIMIT 1"));
+        QueryRecord record = datamanager.getQueryJournal().getLast();
+        assertEquals("SELECT COUNT(*) FROM `" + table + "` WHERE `char` = 'alice has a cat' LIMIT 1", record.getQuery());
+        assertEquals(QueryRecord.Outcome.SUCCESS, record.getOutcome());
+        assertTrue(datamanager.getQueryJournal().snapshot().contains(record));
         assertEquals(0, datamanager.getCount("thisTableShouldNeverExist", "`char` = 'alice has a cat'"));
         assertEquals(0, datamanager.getCount("thisTableShouldNeverExist"));
     }
@@ -161,6 +193,22 @@ public class TestDatabase {
         assertEquals(oldDate, datamanager.getDateField(wrtable, "d", "`id` = '1'"));
     }
 
+    @Test
+    public void testEnumValues() throws SQLException {
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put("txt", MappedKind.FIRST);
+        data.put("x", randomInt + 3);
+        datamanager.insertFields(data, wrtable);
+        int id = datamanager.getLastID("id", wrtable);
+        try {
+            assertEquals("FIRST", datamanager.getStringField(wrtable, "txt", "`id` = '" + id + "'"));
+            datamanager.updateField(wrtable, "txt", MappedKind.SECOND, "`id` = '" + id + "'");
+            assertEquals("SECOND", datamanager.getStringField(wrtable, "txt", "`id` = '" + id + "'"));
+        } finally {
+            datamanager.executeQueryVoid("DELETE FROM `" + wrtable + "` WHERE `id` = '" + id + "'");
+        }
+    }
+
     @Test
     public void testIncrease() throws SQLException {
         int oldValue = datamanager.getIntegerField(wrtable, "x", "`id` = '1'");
@@ -178,6 +226,168 @@ public class TestDatabase {
         assertEquals(old, datamanager.getBinaryField(wrtable, "b", "`id` = '1'"));
     }
 
+    @Test
+    public void testStreamBlob() throws SQLException, IOException {
+        String marker = "blob" + randomInt;
+        byte[] data = new byte[1024 * 1024 + 17];
+        new Random(randomInt).nextBytes(data);
+        Path in = Files.createTempFile("blob", ".in"), out = Files.createTempFile("blob", ".out");
+        datamanager.insertField(wrtable, "txt", marker);
+        try {
+            assertEquals(1, datamanager.updateBlob(wrtable, "b", "`txt` = ?", new ByteArrayInputStream(data), -1, marker));
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            assertEquals(data.length, datamanager.readBlob(wrtable, "b", "`txt` = ?", copy, marker));
+            assertArrayEquals(data, copy.toByteArray());
+
+            data[0]++;
+            Files.write(in, data);
+            assertEquals(1, datamanager.updateBlob(wrtable, "b", "`txt` = ?", in, marker));
+            assertEquals(data.length, datamanager.readBlob(wrtable, "b", "`txt` = ?", out, marker));
+            assertArrayEquals(data, Files.readAllBytes(out));
+
+            ReadableByteChannel channel = datamanager.openBlobChannel(wrtable, "b", "`txt` = ?", marker);
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(4);
+                assertEquals(4, channel.read(buffer));
+                assertArrayEquals(Arrays.copyOf(data, 4), buffer.array());
+            } finally {
+                channel.close();
+            }
+
+            assertNull(datamanager.openBlob(wrtable, "b", "`txt` = ?", marker + "missing"));
+            assertEquals(-1, datamanager.readBlob(wrtable, "b", "`txt` = ?", copy, marker + "missing"));
+        } finally {
+            datamanager.update("DELETE FROM `" + wrtable + "` WHERE `txt` = ?", marker);
+            Files.delete(in);
+            Files.delete(out);
+        }
+    }
+
+    @Test
+    public void testBulkLoad() throws SQLException {
+        final String marker = "bulk" + randomInt;
+        final String where = "`txt` = '" + marker + "'";
+        final Timestamp date = new Timestamp(1000000000000L);
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < 2500; i++) {
+            rows.add(new Object[] { marker, i, i % 2 == 0 ? date : null });
+        }
+        rows.add(new Object[] { "He said \"hi\", then left", -1, null });
+        final List<Long> staged = new ArrayList<Long>(), loaded = new ArrayList<Long>();
+        BulkLoadListener listener = new BulkLoadListener() {
+            @Override
+            public void staged(long rows) {
+                staged.add(rows);
+            }
+
+            @Override
+            public void loaded(long rows) {
+                loaded.add(rows);
+            }
+        };
+        BulkLoader loader = datamanager.getBulkLoader();
+        loader.setProgressInterval(1000);
+        try {
+            BulkLoadResult result = datamanager.bulkLoad(wrtable, Arrays.asList("txt", "x", "d"), rows, listener);
+            assertEquals(BulkLoadResult.Method.CSVREAD, result.getMethod());
+            assertNull(result.getFallbackCause());
+            assertEquals(2501, result.getRowCount());
+            assertEquals(Arrays.asList(1000L, 2000L, 2501L), staged);
+            assertEquals(Arrays.asList(2501L), loaded);
+            assertEquals(2500, datamanager.getCount(wrtable, where));
+            assertEquals(1250, datamanager.getCount(wrtable, where + " AND `d` IS NULL"));
+            assertEquals(date, datamanager.getDateField(wrtable, "d", where + " AND `x` = 2"));
+            assertEquals("He said \"hi\", then left", datamanager.getStringField(wrtable, "txt", "`x` = -1"));
+            datamanager.update("DELETE FROM `" + wrtable + "` WHERE `txt` = ? OR `x` = -1", marker);
+
+            rows.clear();
+            for (int i = 0; i < 10; i++) {
+                rows.add(new Object[] { marker, i, i == 5 ? new byte[] { 1, 2 } : null });
+            }
+            loaded.clear();
+            result = datamanager.bulkLoad(wrtable, Arrays.asList("txt", "x", "b"), rows, listener);
+            assertEquals(BulkLoadResult.Method.BATCH, result.getMethod());
+            assertNotNull(result.getFallbackCause());
+            assertEquals(10, result.getRowCount());
+            assertEquals(Arrays.asList(10L), loaded);
+            assertEquals(10, datamanager.getCount(wrtable, where));
+
+            final Iterator<Object[]> once = rows.iterator();
+            try {
+                datamanager.bulkLoad(wrtable, Arrays.asList("txt", "x", "b"), new Iterable<Object[]>() {
+                    @Override
+                    public Iterator<Object[]> iterator() {
+                        return once;
+                    }
+                }, null);
+                fail("Expected SQLException");
+            } catch (SQLException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertEquals(10, datamanager.getCount(wrtable, where));
+
+            GroupCommit groupCommit = datamanager.getGroupCommit();
+            groupCommit.setWindow(0);
+            groupCommit.setEnabled(true);
+            try {
+                long commits = groupCommit.getCommits();
+                rows.clear();
+                rows.add(new Object[] { marker, 11, null });
+                result = datamanager.bulkLoad(wrtable, Arrays.asList("txt", "x", "d"), rows, null);
+                assertEquals(BulkLoadResult.Method.CSVREAD, result.getMethod());
+                assertEquals(commits, groupCommit.getCommits());
+            } finally {
+                groupCommit.setEnabled(false);
+            }
+            assertEquals(11, datamanager.getCount(wrtable, where));
+        } finally {
+            loader.setProgressInterval(10000);
+            datamanager.update("DELETE FROM `" + wrtable + "` WHERE `txt` = ? OR `x` = -1", marker);
+        }
+    }
+
+    @Test
+    public void testRowMapping() throws SQLException {
+        final String marker = "mapped" + randomInt;
+        final Timestamp date = new Timestamp(1000000000000L);
+        datamanager.update("INSERT INTO `" + wrtable + "` (`txt`, `x`, `d`) VALUES (?, ?, ?)", marker, 5, date);
+        datamanager.update("INSERT INTO `" + wrtable + "` (`txt`, `x`, `d`) VALUES (?, ?, ?)", marker, null, null);
+        try {
+            List<MappedRow> rows = datamanager.query(MappedRow.class, "SELECT `id`, `txt`, `x` AS `big_x`, `x`, `d`, 'SECOND' AS `kind`, "
+                    + "1 AS `unknown` FROM `" + wrtable + "` WHERE `txt` = ? ORDER BY `id`", marker);
+            assertEquals(2, rows.size());
+            MappedRow row = rows.get(0);
+            assertTrue(row.id > 0);
+            assertEquals(marker, row.text);
+            assertEquals(Integer.valueOf(5), row.x);
+            assertEquals(5L, row.bigX);
+            assertEquals(date, row.d);
+            assertSame(MappedKind.SECOND, row.kind);
+            row = rows.get(1);
+            assertTrue(row.id > rows.get(0).id);
+            assertNull(row.x);
+            assertEquals(0L, row.bigX);
+            assertNull(row.d);
+
+            List<String> texts = datamanager.query(new RowMapper<String>() {
+                @Override
+                public String map(ResultSet resultSet) throws SQLException {
+                    return resultSet.getString(1) + resultSet.getInt(2);
+                }
+            }, "SELECT `txt`, `x` FROM `" + wrtable + "` WHERE `txt` = ? AND `x` IS NOT NULL", marker);
+            assertEquals(Arrays.asList(marker + 5), texts);
+
+            try {
+                datamanager.query(MappedRow.class, "SELECT 'NONE' AS `kind`");
+                fail("Expected SQLException");
+            } catch (SQLException e) {
+                assertTrue(e.getMessage().startsWith("Could not map column 1"));
+            }
+        } finally {
+            datamanager.update("DELETE FROM `" + wrtable + "` WHERE `txt` = ?", marker);
+        }
+    }
+
     @Test
     public void testGetKindaFieldEmptyTable() {
         String name = "i";
@@ -209,6 +419,602 @@ public class TestDatabase {
         assertNotNull(datamanager.getStringField("SELECT `vchar` FROM `" + table + "`"));
     }
 
+    @Test
+    public void testStatementCache() throws SQLException {
+        String query = "SELECT `id` FROM `" + table + "` WHERE `id` = ?";
+        datamanager.getResults(query, 1);
+        long hits = datamanager.getStatementCacheHits();
+        long misses = datamanager.getStatementCacheMisses();
+        assertEquals(1, datamanager.getResults(query, 1).getArray().size());
+        assertEquals(0, datamanager.getResults(query, 2).getArray().size());
+        assertEquals(hits + 2, datamanager.getStatementCacheHits());
+        assertEquals(misses, datamanager.getStatementCacheMisses());
+
+        int size = datamanager.getStatementCacheSize();
+        long evictions = datamanager.getStatementCacheEvictions();
+        datamanager.setStatementCacheSize(1);
+        datamanager.getResults("SELECT `id` FROM `" + table + "` WHERE `id` = ? AND 1 = 1", 1);
+        assertTrue(datamanager.getStatementCacheEvictions() > evictions);
+        datamanager.setStatementCacheSize(size);
+        assertEquals(size, datamanager.getStatementCacheSize());
+    }
+
+    @Test
+    public void testParameterizedFields() throws SQLException {
+        assertEquals(1, datamanager.getField(ValueType.INTEGER, table, "id", "`id` = ?", 1).getInt());
+        assertNull(datamanager.getField(ValueType.INTEGER, table, "id", "`id` = ?", 8));
+        String oldString = datamanager.getStringField(wrtable, "txt", "`id` = '1'");
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put("txt", "it's bound " + randomInt);
+        datamanager.updateFields(data, wrtable, "`id` = ?", 1);
+        assertEquals("it's bound " + randomInt, datamanager.getField(ValueType.STRING, wrtable, "txt", "`id` = ?", 1).getString());
+        data.put("txt", oldString);
+        datamanager.updateFields(data, wrtable, "`id` = ?", 1);
+        assertEquals(oldString, datamanager.getStringField(wrtable, "txt", "`id` = '1'"));
+    }
+
+    @Test
+    public void testQueryAndUpdate() throws SQLException {
+        String oldString = datamanager.getStringField(wrtable, "txt", "`id` = '1'");
+        Date oldDate = datamanager.getDateField(wrtable, "d", "`id` = '1'");
+        Date testDate = new Date(1356120741000L);
+        assertEquals(1, datamanager.update("UPDATE `" + wrtable + "` SET `txt` = ?, `d` = ? WHERE `id` = ?", "O'Reilly", testDate, 1));
+        DataRow row = datamanager.query("SELECT `txt`, `d` FROM `" + wrtable + "` WHERE `id` = ? AND `txt` = ?", 1, "O'Reilly").getFirstResult();
+        assertNotNull(row);
+        assertEquals("O'Reilly", row.getStringField("txt"));
+        assertEquals(testDate, row.getDateField("d"));
+        assertEquals(0, datamanager.update("UPDATE `" + wrtable + "` SET `txt` = ? WHERE `id` = ?", null, -1));
+        assertEquals(1, datamanager.update("UPDATE `" + wrtable + "` SET `txt` = ?, `d` = ? WHERE `id` = ?", row.get("txt"), oldDate, 1));
+        datamanager.updateField(wrtable, "txt", oldString, "`id` = '1'");
+        assertEquals(oldString, datamanager.getStringField(wrtable, "txt", "`id` = '1'"));
+        assertEquals(oldDate, datamanager.getDateField(wrtable, "d", "`id` = '1'"));
+    }
+
+    @Test
+    public void testQueryJournal() throws SQLException {
+        String query = "SELECT * FROM `" + table + "` WHERE `id` = ?";
+        int rows = datamanager.query(query, 1).getArray().size();
+        QueryRecord record = datamanager.getQueryJournal().getLast();
+        assertEquals(query, record.getQuery());
+        assertEquals(1, record.getBindCount());
+        assertEquals(rows, record.getRows());
+        assertEquals(QueryRecord.Outcome.SUCCESS, record.getOutcome());
+        assertTrue(record.getDuration() > 0);
+        assertEquals(Thread.currentThread().getName(), record.getThread());
+
+        assertEquals(0, datamanager.update("UPDATE `" + wrtable + "` SET `txt` = ? WHERE `id` = ?", "x", -1));
+        assertEquals(0, datamanager.getQueryJournal().getLast().getRows());
+        try {
+            datamanager.query("SELECT * FROM `thisTableShouldNeverExist`");
+        } catch (SQLException e) {
+            // Expected
+        }
+        record = datamanager.getQueryJournal().getLast();
+        assertEquals(QueryRecord.Outcome.FAILURE, record.getOutcome());
+        assertNotNull(record.getError());
+    }
+
+    @Test
+    public void testQueryMetrics() throws SQLException {
+        String query = "SELECT * FROM `" + table + "` WHERE `id` = ";
+        long count = datamanager.getQueryMetrics().getQueryCount();
+        datamanager.getResults(query + "1");
+        datamanager.getResults(query + "2");
+        QueryStatistics statistics = datamanager.getQueryMetrics().getStatistics(query + "3");
+        assertNotNull(statistics);
+        assertTrue(statistics.getCount() >= 2);
+        assertTrue(statistics.getMax() > 0);
+        assertTrue(statistics.getP99() >= statistics.getMedian());
+        assertTrue(datamanager.getQueryMetrics().getQueryCount() >= count + 2);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        String query = "SELECT * FROM `" + table + "`";
+        Future<Results> results = datamanager.getResultsAsync(query);
+        assertEquals(datamanager.getResults(query).getArray().size(), results.get(10, TimeUnit.SECONDS).getArray().size());
+        assertEquals(Integer.valueOf(0), datamanager.updateAsync("UPDATE `" + wrtable + "` SET `txt` = ? WHERE `id` = ?", "x", -1).get());
+        assertNull(datamanager.executeQueryAsync("UPDATE `" + wrtable + "` SET `x` = `x` WHERE `id` = -1").get());
+        try {
+            datamanager.getResultsAsync("SELECT * FROM `thisTableShouldNeverExist`").get();
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+    }
+
+    @Test
+    public void testAsyncCallbacks() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1), release = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            @Override
+            public void run() {
+                // Holds the monitor like a slow connect does.
+                synchronized (datamanager) {
+                    locked.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+            }
+        };
+        holder.start();
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<Object> outcomes = Collections.synchronizedList(new ArrayList<Object>());
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        try {
+            locked.await(10, TimeUnit.SECONDS);
+            QueryFuture<Integer> future = datamanager.updateAsync("UPDATE `" + wrtable + "` SET `x` = `x` WHERE `id` = -1");
+            future.addCallback(new QueryCallback<Integer>() {
+                @Override
+                public void onSuccess(Integer result) {
+                    outcomes.add(result);
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable cause) {
+                    outcomes.add(cause);
+                    done.countDown();
+                }
+            }, direct);
+            datamanager.getResultsAsync("SELECT * FROM `thisTableShouldNeverExist`").addCallback(new QueryCallback<Results>() {
+                @Override
+                public void onSuccess(Results result) {
+                    outcomes.add(result);
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable cause) {
+                    outcomes.add(cause instanceof SQLException);
+                    done.countDown();
+                }
+            }, direct);
+        } finally {
+            release.countDown();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, outcomes.size());
+        assertTrue(outcomes.contains(Integer.valueOf(0)));
+        assertTrue(outcomes.contains(Boolean.TRUE));
+
+        final CountDownLatch late = new CountDownLatch(1);
+        datamanager.updateAsync("UPDATE `" + wrtable + "` SET `x` = `x` WHERE `id` = -1").addListener(new Runnable() {
+            @Override
+            public void run() {
+                late.countDown();
+            }
+        }, direct);
+        assertTrue(late.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAsyncTimeoutAndCancel() throws Exception {
+        String query = "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) A, SYSTEM_RANGE(1, 100000) B";
+        long start = System.currentTimeMillis();
+        try {
+            datamanager.getResultsAsync(1, query).get();
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 10000);
+
+        // The statement on the shared connection is not cancelled, it runs until its timeout.
+        QueryFuture<Results> future = datamanager.getResultsAsync(2, query);
+        Thread.sleep(200);
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        try {
+            future.get();
+            fail("Expected a CancellationException");
+        } catch (CancellationException e) {
+            // Expected
+        }
+        assertNotNull(datamanager.getResultsAsync("SELECT * FROM `" + table + "`").get(10, TimeUnit.SECONDS));
+
+        DataManager pooled = new DataManager(DataType.H2, user, password);
+        pooled.getLogger().getLogger().setLevel(Level.OFF);
+        pooled.setDatabase("test");
+        pooled.setDirectory("./target/test-classes/");
+        pooled.setPooled(true);
+        // With a single async thread the next query only runs once the cancelled statement has been aborted.
+        pooled.setAsyncThreads(1);
+        try {
+            future = pooled.getResultsAsync(0, query);
+            Thread.sleep(200);
+            assertTrue(future.cancel(true));
+            assertNotNull(pooled.getResultsAsync("SELECT * FROM `" + table + "`").get(10, TimeUnit.SECONDS));
+        } finally {
+            pooled.close(true);
+        }
+    }
+
+    @Test
+    public void testCancelStatement() throws SQLException {
+        final AtomicInteger cancels = new AtomicInteger();
+        Statement statement = (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { Statement.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("cancel")) {
+                            cancels.incrementAndGet();
+                        }
+                        return null;
+                    }
+                });
+        Callable<Void> query = new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        };
+        QueryFuture<Void> future = new QueryFuture<Void>(query, 0);
+        future.executing(statement, true);
+        future.executed();
+        assertTrue(future.cancel(true));
+        assertEquals(0, cancels.get());
+        try {
+            future.executing(statement, true);
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // Expected
+        }
+
+        future = new QueryFuture<Void>(query, 0);
+        future.executing(statement, false);
+        assertTrue(future.cancel(true));
+        assertEquals(0, cancels.get());
+
+        future = new QueryFuture<Void>(query, 0);
+        future.executing(statement, true);
+        assertTrue(future.cancel(true));
+        assertEquals(1, cancels.get());
+    }
+
+    @Test
+    public void testResultCache() throws SQLException {
+        String marker = "cache" + randomInt;
+        String where = "`txt` = '" + marker + "'";
+        ResultCache cache = datamanager.getResultCache();
+        cache.setEnabled(true);
+        try {
+            assertEquals(0, datamanager.getCount(wrtable, where));
+            long hits = cache.getHits(), misses = cache.getMisses();
+            assertEquals(0, datamanager.getCount(wrtable, where));
+            assertEquals(hits + 1, cache.getHits());
+            assertEquals(misses, cache.getMisses());
+
+            datamanager.processUpdate("INSERT INTO `" + wrtable + "` (`txt`) VALUES (?)", marker);
+            assertEquals(0, datamanager.getCount(wrtable, where));
+            datamanager.insertField(wrtable, "txt", marker);
+            assertEquals(2, datamanager.getCount(wrtable, where));
+            datamanager.updateField(wrtable, "x", 5, where);
+            assertEquals(2, datamanager.getCount(wrtable, where + " AND `x` = 5"));
+            datamanager.increaseField(wrtable, "x", where);
+            assertEquals(2, datamanager.getCount(wrtable, where + " AND `x` = 6"));
+            assertEquals(marker, datamanager.getStringField(wrtable, "txt", where));
+            assertTrue(datamanager.exist(wrtable, "txt", marker));
+
+            assertEquals(ResultCache.key(ValueType.INTEGER, "q", new Object[] { 1 }), ResultCache.key(ValueType.INTEGER, "q", new Object[] { 1 }));
+            assertFalse(ResultCache.key(ValueType.INTEGER, "q", new Object[] { 1 }).equals(ResultCache.key(ValueType.INTEGER, "q", new Object[] { "1" })));
+            Date date = new Date(0);
+            assertFalse(ResultCache.key("q", new Object[] { date }).equals(ResultCache.key("q", new Object[] { date.toString() })));
+
+            cache.setTTL(wrtable, 0);
+            misses = cache.getMisses();
+            datamanager.getCount(wrtable, where);
+            assertEquals(misses, cache.getMisses());
+        } finally {
+            cache.setTTL(wrtable, cache.getDefaultTTL());
+            cache.setEnabled(false);
+            datamanager.update("DELETE FROM `" + wrtable + "` WHERE `txt` = ?", marker);
+        }
+        assertEquals(0, datamanager.getCount(wrtable, where));
+    }
+
+    @Test
+    public void testTransaction() throws SQLException, InterruptedException {
+        final String marker = "tx" + randomInt;
+        final String where = "`txt` = '" + marker + "'";
+        try {
+            Transaction transaction = datamanager.begin();
+            try {
+                assertSame(transaction, datamanager.getTransaction());
+                datamanager.insertField(wrtable, "txt", marker);
+                assertEquals(1, datamanager.getCount(wrtable, where));
+                try {
+                    datamanager.begin();
+                    fail("Expected SQLException");
+                } catch (SQLException ignore) {
+                }
+            } finally {
+                transaction.close();
+            }
+            assertFalse(transaction.isActive());
+            assertNull(datamanager.getTransaction());
+            assertEquals(0, datamanager.getCount(wrtable, where));
+
+            int count = datamanager.inTransaction(new TransactionCallback<Integer>() {
+                @Override
+                public Integer execute(Transaction transaction) throws SQLException {
+                    datamanager.insertField(wrtable, "txt", marker);
+                    Savepoint savepoint = transaction.setSavepoint();
+                    datamanager.insertField(wrtable, "txt", marker);
+                    transaction.rollback(savepoint);
+                    try {
+                        datamanager.inTransaction(new TransactionCallback<Void>() {
+                            @Override
+                            public Void execute(Transaction transaction) throws SQLException {
+                                datamanager.insertField(wrtable, "txt", marker);
+                                throw new SQLException("Nested failure");
+                            }
+                        });
+                        fail("Expected SQLException");
+                    } catch (SQLException ignore) {
+                    }
+                    datamanager.insertField(wrtable, "txt", marker);
+                    return datamanager.getCount(wrtable, where);
+                }
+            });
+            assertEquals(2, count);
+            assertEquals(2, datamanager.getCount(wrtable, where));
+
+            final Transaction foreign = datamanager.begin();
+            final List<Object> outcome = new ArrayList<Object>();
+            Thread other = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        foreign.commit();
+                        outcome.add("committed");
+                    } catch (SQLException e) {
+                        outcome.add(e.getMessage());
+                    }
+                }
+            };
+            other.start();
+            other.join();
+            assertTrue(((String) outcome.get(0)).startsWith("The transaction belongs to thread"));
+            assertTrue(foreign.isActive());
+            assertSame(foreign, datamanager.getTransaction());
+            foreign.rollback();
+            assertNull(datamanager.getTransaction());
+        } finally {
+            datamanager.update("DELETE FROM `" + wrtable + "` WHERE `txt` = ?", marker);
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final String marker = "group" + randomInt;
+        final GroupCommit groupCommit = datamanager.getGroupCommit();
+        groupCommit.setWindow(50);
+        groupCommit.setEnabled(true);
+        try {
+            long commits = groupCommit.getCommits(), writes = groupCommit.getWrites();
+            final AtomicInteger failures = new AtomicInteger();
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < 8; i++) {
+                final boolean broken = i == 3;
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            datamanager.insertField(wrtable, broken ? "nonexistent" : "txt", marker);
+                        } catch (SQLException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join(10000);
+            }
+            assertEquals(1, failures.get());
+            assertEquals(7, groupCommit.getWrites() - writes);
+            assertTrue(groupCommit.getCommits() - commits < 7);
+            assertEquals(7, datamanager.getCount(wrtable, "`txt` = '" + marker + "'"));
+        } finally {
+            groupCommit.setEnabled(false);
+            datamanager.update("DELETE FROM `" + wrtable + "` WHERE `txt` = ?", marker);
+        }
+    }
+
+    @Test
+    public void testBatch() throws SQLException {
+        String marker = "batch" + randomInt;
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 25; i++) {
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("txt", marker);
+            row.put("x", i);
+            rows.add(row);
+        }
+        datamanager.setBatchSize(10);
+        BatchResult inserted = datamanager.insertBatch(wrtable, rows);
+        assertEquals(25, inserted.getRowCount());
+        assertEquals(3, inserted.getBatchCount());
+        assertEquals(25, datamanager.getCount(wrtable, "`txt` = '" + marker + "'"));
+
+        List<Map<String, Object>> updates = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 25; i++) {
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("txt", marker);
+            row.put("x", i);
+            row.put("d", new Date(1356120741000L));
+            updates.add(row);
+        }
+        BatchResult updated = datamanager.updateBatch(wrtable, updates, "txt", "x");
+        assertEquals(25, updated.getRowCount());
+        assertEquals(3, updated.getBatchCount());
+        assertEquals(25, updated.getAffectedRows() + updated.getUnknownCount());
+        assertEquals(25, datamanager.getCount(wrtable, "`txt` = '" + marker + "' AND `d` IS NOT NULL"));
+        datamanager.setBatchSize(500);
+        assertEquals(25, datamanager.update("DELETE FROM `" + wrtable + "` WHERE `txt` = ?", marker));
+    }
+
+    @Test
+    public void testStream() throws SQLException {
+        ResultCursor cursor = datamanager.stream("SELECT * FROM `" + wrtable + "` WHERE `id` >= ?", 1);
+        int rows = 0;
+        for (DataRow row : cursor) {
+            assertTrue(row.getIntField("id") >= 1);
+            assertEquals(cursor.getColumnCount(), row.size());
+            rows++;
+        }
+        assertTrue(cursor.isClosed());
+        assertEquals(rows, cursor.getPosition());
+        assertEquals(datamanager.getCount(wrtable), rows);
+
+        cursor = datamanager.stream("SELECT `id` FROM `" + wrtable + "`");
+        cursor.setReuseRow(true);
+        DataRow first = cursor.next();
+        if (cursor.hasNext()) {
+            assertTrue(first == cursor.next());
+        }
+        cursor.close();
+        assertTrue(cursor.isClosed());
+        assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testCompactResults() throws SQLException {
+        String query = "SELECT * FROM `" + table + "`";
+        Results results = datamanager.getResults(query);
+        CompactResults compact = datamanager.getCompactResults(query);
+        assertEquals(query, compact.getQuery());
+        assertEquals(results.getRowsCount(), compact.getColumnCount());
+        assertEquals(results.getArray().size(), compact.getSize());
+        DataRow expected = results.getFirstResult();
+        DataRow actual = compact.getFirstResult();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            DataField field = expected.get(i);
+            assertEquals(field.getName(), actual.get(i).getName());
+            assertEquals(field.getType(), actual.get(i).getType());
+            assertEquals(field.getSQLType(), actual.get(i).getSQLType());
+            assertEquals(field.getTable(), actual.get(i).getTable());
+            assertEquals(field.getSize(), actual.get(i).getSize());
+            assertEquals(field.getString(), actual.get(i).getString());
+            assertEquals(field.isNull(), compact.isNull(0, i));
+        }
+        int column = compact.getColumnIndex("int");
+        assertEquals(expected.getIntField("int"), compact.getInt(0, column));
+        assertEquals(expected.getLongField("int"), compact.getLong(0, column));
+        assertEquals(expected.getStringField("vchar"), compact.getString(0, compact.getColumnIndex("VCHAR")));
+        assertEquals(-1, compact.getColumnIndex("thisColumnShouldNeverExist"));
+
+        compact = datamanager.getCompactResults("SELECT `X`, CAST(`X` AS VARCHAR) AS `S` FROM SYSTEM_RANGE(1, ?)", 100);
+        assertEquals(100, compact.getSize());
+        assertEquals(100, compact.getArray().size());
+        assertEquals(100, compact.getLong(99, 0));
+        assertEquals("100", compact.getString(99, 1));
+        assertEquals(100, compact.getLastResult().getIntField("x"));
+    }
+
+    @Test
+    public void testColumnIndex() throws SQLException {
+        DataRow row = datamanager.getResults("SELECT * FROM `" + table + "`").getFirstResult();
+        assertNotNull(row.getColumnIndex());
+        assertEquals(row.size(), row.getColumnIndex().size());
+        for (int i = 0; i < row.size(); i++) {
+            String name = row.get(i).getName();
+            assertTrue(row.get(name) == row.get(i));
+            assertTrue(row.get(name.toLowerCase()) == row.get(i));
+            assertTrue(row.get(name.toUpperCase()) == row.get(i));
+        }
+        assertNull(row.get("thisColumnShouldNeverExist"));
+        assertFalse(row.fieldExist("thisColumnShouldNeverExist"));
+
+        ColumnIndex index = new ColumnIndex(Arrays.asList("id", "Name", "NAME", null));
+        assertEquals(4, index.size());
+        assertEquals(0, index.indexOf("ID"));
+        assertEquals(1, index.indexOf("Name"));
+        assertEquals(1, index.indexOf("NAME"));
+        assertEquals(1, index.indexOf("name"));
+        assertEquals(-1, index.indexOf(null));
+        assertEquals(-1, index.indexOf("other"));
+
+        String first = row.get(0).getName(), second = row.get(1).getName();
+        DataField moved = row.remove(0);
+        row.add(moved);
+        assertNull(row.getColumnIndex());
+        assertTrue(row.get(first) == moved);
+        assertTrue(row.get(second) == row.get(0));
+
+        DataRow replaced = datamanager.getResults("SELECT * FROM `" + table + "`").getFirstResult();
+        DataField field = replaced.get(1);
+        replaced.set(0, field);
+        assertNull(replaced.getColumnIndex());
+        assertTrue(replaced.get(second) == field);
+        assertNull(replaced.get(first));
+    }
+
+    @Test
+    public void testColumnDescriptor() throws SQLException {
+        String query = "SELECT * FROM `" + table + "`";
+        DataRow row = datamanager.getResults(query).getFirstResult();
+        ResultSet resultSet = datamanager.getResultSet(query);
+        ColumnDescriptor[] columns = ColumnDescriptor.describe(resultSet.getMetaData());
+        assertEquals(row.size(), columns.length);
+        assertTrue(resultSet.next());
+        for (int i = 0; i < columns.length; i++) {
+            assertEquals(i + 1, columns[i].getColumn());
+            DataField expected = row.get(i);
+            DataField field = new DataField(columns[i], resultSet);
+            DataField fromMetaData = new DataField(i + 1, resultSet.getMetaData(), field.getValue());
+            for (DataField actual : Arrays.asList(field, fromMetaData)) {
+                assertEquals(expected.getName(), actual.getName());
+                assertEquals(expected.getTable(), actual.getTable());
+                assertEquals(expected.getSQLType(), actual.getSQLType());
+                assertEquals(expected.getSize(), actual.getSize());
+                assertEquals(expected.isUnsigned(), actual.isUnsigned());
+            }
+            assertEquals(expected.getType(), field.getType());
+        }
+    }
+
+    @Test
+    public void testConcurrentQueries() throws InterruptedException {
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 25; j++) {
+                        try {
+                            Results results = datamanager.getResults("SELECT * FROM `" + table + "`");
+                            if (results.getArray().size() != 1 || datamanager.getCount(table) != 1) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (SQLException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertTrue(datamanager.isConnected());
+    }
+
     @Test
     public void testNonZeroTimeout() {
         long time;
@@ -1285,4 +2091,21 @@ public class TestDatabase {
         assertNotNull(row.getStringField(name));
     }
     */
+
+    public enum MappedKind {
+        FIRST, SECOND
+    }
+
+    public static class MappedRow {
+        private int id;
+        private String text;
+        private Integer x;
+        private long bigX;
+        private Date d;
+        private MappedKind kind;
+
+        public void setTxt(String txt) {
+            this.text = txt;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestQueryJournal {
+    private static QueryRecord record(QueryJournal journal, String query) {
+        return journal.record(System.currentTimeMillis(), query, 0, 1000, 1, QueryRecord.Outcome.SUCCESS, null);
+    }
+
+    @Test
+    public void testRingBuffer() {
+        QueryJournal journal = new QueryJournal(3);
+        assertNull(journal.getLast());
+        assertTrue(journal.snapshot().isEmpty());
+        for (int i = 1; i <= 5; i++) {
+            record(journal, "q" + i);
+        }
+        assertEquals(3, journal.size());
+        assertEquals(5, journal.getTotal());
+        assertEquals("q5", journal.getLast().getQuery());
+        List<QueryRecord> records = journal.snapshot();
+        assertEquals(3, records.size());
+        assertEquals("q3", records.get(0).getQuery());
+        assertEquals(3, records.get(0).getSequence());
+        assertEquals("q5", records.get(2).getQuery());
+        assertEquals(Thread.currentThread().getName(), records.get(2).getThread());
+    }
+
+    @Test
+    public void testCapacity() {
+        QueryJournal journal = new QueryJournal(4);
+        for (int i = 1; i <= 6; i++) {
+            record(journal, "q" + i);
+        }
+        journal.setCapacity(2);
+        assertEquals(2, journal.getCapacity());
+        assertEquals("q5", journal.snapshot().get(0).getQuery());
+        record(journal, "q7");
+        assertEquals("q6", journal.snapshot().get(0).getQuery());
+        assertEquals("q7", journal.getLast().getQuery());
+
+        journal.setCapacity(5);
+        record(journal, "q8");
+        assertEquals(3, journal.size());
+        assertEquals("q6", journal.snapshot().get(0).getQuery());
+        assertEquals("q8", journal.getLast().getQuery());
+
+        journal.setCapacity(0);
+        assertEquals(9, record(journal, "q9").getSequence());
+        assertEquals(0, journal.size());
+        assertNull(journal.getLast());
+
+        journal.setCapacity(2);
+        record(journal, "q10");
+        journal.clear();
+        assertEquals(0, journal.size());
+        assertEquals(10, journal.getTotal());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCapacity() {
+        new QueryJournal(-1);
+    }
+}
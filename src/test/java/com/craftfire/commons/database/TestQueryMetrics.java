@@ -0,0 +1,115 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class TestQueryMetrics {
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean());
+        assertWithin(500000, histogram.getPercentile(0.5));
+        assertWithin(990000, histogram.getPercentile(0.99));
+        assertEquals(1000000, histogram.getPercentile(1));
+        histogram.record(3);
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(0));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 8);
+    }
+
+    @Test
+    public void testShape() {
+        assertEquals("SELECT * FROM `users` WHERE `id` = ? AND `name` = ?",
+                QueryMetrics.shape("SELECT *  FROM `users`\n WHERE `id` = 12 AND `name` = 'O''Reilly'"));
+        assertEquals("SELECT `x1` FROM t2 WHERE a = -?", QueryMetrics.shape("SELECT `x1` FROM t2 WHERE a = -1.5"));
+        assertEquals("UPDATE t SET s = ? WHERE id IN (?, ?)", QueryMetrics.shape("UPDATE t SET s = 'a\\'b' WHERE id IN (1, 2)"));
+    }
+
+    @Test
+    public void testSlowQueries() {
+        QueryMetrics metrics = new QueryMetrics();
+        metrics.record("SELECT 1", 5000000, true);
+        metrics.record("SELECT 2", 7000000, false);
+        QueryStatistics statistics = metrics.getStatistics("SELECT 3");
+        assertNotNull(statistics);
+        assertEquals("SELECT ?", statistics.getShape());
+        assertEquals(2, statistics.getCount());
+        assertEquals(1, statistics.getFailures());
+        assertEquals(7000000, statistics.getMax());
+        assertEquals(0, metrics.getSlowQueryCount());
+
+        metrics.setSlowQueryThreshold(6);
+        assertNull(metrics.record("SELECT 1", 5000000, true));
+        SlowQuery slowQuery = metrics.record("SELECT 2", 7000000, true);
+        assertNotNull(slowQuery);
+        assertEquals("SELECT 2", slowQuery.getQuery());
+        assertEquals("testSlowQueries", slowQuery.getStackTrace().get(0).getMethodName());
+        assertEquals(1, metrics.getSlowQueryCount());
+        assertEquals(1, metrics.getSlowQueryRecords().size());
+        assertEquals(4, metrics.getQueryCount());
+
+        metrics.setMaxShapes(1);
+        metrics.record("SELECT * FROM t", 1, true);
+        assertEquals(1, metrics.getStatistics(QueryMetrics.OTHER_SHAPE).getCount());
+        metrics.reset();
+        assertTrue(metrics.snapshot().isEmpty());
+        assertEquals(0, metrics.getQueryCount());
+    }
+
+    @Test
+    public void testJMX() throws Exception {
+        QueryMetrics metrics = new QueryMetrics();
+        metrics.record("SELECT 1", 1000, true);
+        String name = "com.craftfire.commons:type=QueryMetrics,name=test";
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        metrics.register(name);
+        try {
+            assertEquals(1L, server.getAttribute(new ObjectName(name), "QueryCount"));
+            assertNotNull(server.getAttribute(new ObjectName(name), "Statistics"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(new ObjectName(name)));
+    }
+}
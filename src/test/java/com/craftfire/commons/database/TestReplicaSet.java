@@ -0,0 +1,134 @@
+/*
+ * This file is part of CraftCommons.
+ *
+ * Copyright (c) 2011 CraftFire <http://www.craftfire.com/>
+ * CraftCommons is licensed under the GNU Lesser General Public License.
+ *
+ * CraftCommons is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CraftCommons is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.craftfire.commons.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestReplicaSet {
+    private static final String table = "typetest";
+    private static final String directory = "./target/test-classes/";
+    private DataManager datamanager;
+    private ReplicaSet replicas;
+
+    @Before
+    public void init() {
+        this.datamanager = new DataManager(DataType.H2, "sa", "");
+        this.datamanager.getLogger().getLogger().setLevel(Level.OFF);
+        this.datamanager.setDatabase("test");
+        this.datamanager.setDirectory(directory);
+        this.replicas = this.datamanager.getReplicas();
+        this.replicas.setHealthCheckInterval(0);
+    }
+
+    @After
+    public void cleanup() {
+        this.replicas.close();
+        this.datamanager.close(true);
+    }
+
+    @Test
+    public void testReadsGoToReplicas() throws SQLException {
+        Replica replica = this.datamanager.addReplica(directory);
+        assertEquals(1, this.replicas.size());
+        assertEquals(0, replica.getConnectionPool().getSize());
+        assertTrue(this.datamanager.getCount(table) > 0);
+        assertTrue(this.datamanager.exist(table, "id", 1));
+        assertEquals(1, replica.getConnectionPool().getSize());
+        assertEquals(1, replica.getConnectionPool().getIdleCount());
+
+        ResultCursor cursor = this.datamanager.stream("SELECT * FROM `" + table + "`");
+        assertEquals(0, replica.getConnectionPool().getIdleCount());
+        cursor.close();
+        assertEquals(1, replica.getConnectionPool().getIdleCount());
+
+        this.datamanager.update("UPDATE `" + table + "` SET `id` = `id` WHERE `id` = ?", -1);
+        assertEquals(1, replica.getConnectionPool().getSize());
+        assertTrue(this.datamanager.hasConnection());
+    }
+
+    @Test
+    public void testLastIDReadsPrimary() throws SQLException {
+        Replica replica = this.datamanager.addReplica(directory);
+        assertTrue(this.datamanager.getLastID("id", table) > 0);
+        assertTrue(this.datamanager.getLastID("id", table, "`id` > 0") > 0);
+        assertEquals(0, replica.getConnectionPool().getSize());
+    }
+
+    @Test
+    public void testRoundRobin() throws SQLException {
+        Replica first = this.datamanager.addReplica(directory);
+        Replica second = this.datamanager.addReplica(directory);
+        assertSame(first, this.replicas.select());
+        assertSame(second, this.replicas.select());
+        assertSame(first, this.replicas.select());
+        this.datamanager.getResults("SELECT * FROM `" + table + "`");
+        this.datamanager.getResults("SELECT * FROM `" + table + "`");
+        assertEquals(1, first.getConnectionPool().getSize());
+        assertEquals(1, second.getConnectionPool().getSize());
+    }
+
+    @Test
+    public void testLeastLatency() throws SQLException {
+        Replica first = this.datamanager.addReplica(directory);
+        Replica second = this.datamanager.addReplica(directory);
+        this.replicas.setBalancing(ReplicaSet.Balancing.LEAST_LATENCY);
+        this.replicas.checkHealth();
+        assertTrue(first.getLatency() > 0);
+        assertTrue(second.getLatency() > 0);
+        Replica expected = first.getLatency() <= second.getLatency() ? first : second;
+        assertSame(expected, this.replicas.select());
+        assertSame(expected, this.replicas.select());
+    }
+
+    @Test
+    public void testEjection() throws SQLException {
+        Replica dead = this.replicas.add("jdbc:h2:" + directory + "thisDatabaseShouldNeverExist;IFEXISTS=TRUE");
+        this.replicas.checkHealth();
+        assertFalse(dead.isAvailable());
+        assertEquals(1, dead.getEjections());
+        assertNull(this.replicas.select());
+        assertTrue(this.datamanager.getCount(table) > 0);
+
+        this.replicas.setEjectionTime(0);
+        this.replicas.setMaxFailures(3);
+        this.replicas.checkHealth();
+        assertEquals(2, dead.getFailures());
+        assertEquals(1, dead.getEjections());
+        this.replicas.checkHealth();
+        assertEquals(2, dead.getEjections());
+
+        this.replicas.setEjectionTime(60000);
+        Replica unreachable = this.replicas.add("jdbc:h2:" + directory + "thisDatabaseShouldNeverExist;IFEXISTS=TRUE");
+        this.replicas.remove(dead);
+        assertTrue(this.datamanager.getCount(table) > 0);
+        assertFalse(unreachable.isAvailable());
+    }
+}